@@ -0,0 +1,221 @@
+package com.dainam.library.client;
+
+import com.dainam.library.model.Book;
+import com.dainam.library.util.EventBus;
+import com.dainam.library.util.JsonUtil;
+import com.dainam.library.util.LoggerUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cache danh sách sách ở client (chế độ remote).
+ * Tải một lần qua cursor, sau đó áp các delta data_change từ server vào từng cuốn
+ * thay vì tải lại toàn bộ. Delta đến trong lúc đang tải được giữ lại và áp sau khi
+ * tải xong. Khi server báo resync (đã mất sự kiện) cache bị xóa để lần hiển thị sau tải lại.
+ */
+public class RemoteBookCache {
+
+    private static RemoteBookCache instance;
+    // Số delta tối đa giữ lại trong lúc tải; vượt quá thì coi như cần tải lại
+    private static final int MAX_PENDING_DELTAS = 10000;
+
+    // Sắp theo mã sách, cùng thứ tự với cursor của server
+    private final ConcurrentSkipListMap<String, Book> books = new ConcurrentSkipListMap<>();
+    // Listener nhận bookId đã đổi, hoặc null khi cần tải lại toàn bộ
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean loaded = false;
+    // Áp delta và chuyển trạng thái tải đều giữ lock này để delta không bị áp lệch thứ tự
+    private final Object deltaLock = new Object();
+    // Khác null trong lúc đang tải: delta đến trong lúc đó được giữ lại để áp sau
+    private List<Map<String, Object>> pendingDeltas;
+    private boolean pendingOverflow = false;
+    private boolean resyncDuringLoad = false;
+
+    private RemoteBookCache() {
+        EventBus.getInstance().subscribe(EventBus.Events.NETWORK_DATA_CHANGE, this::onServerMessage);
+    }
+
+    public static synchronized RemoteBookCache getInstance() {
+        if (instance == null) {
+            instance = new RemoteBookCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Tải toàn bộ sách từ server vào cache; từng nhóm dòng được chuyển cho onRows ngay khi về tới.
+     * Trả về tổng số sách, -1 nếu lỗi
+     */
+    public int load(RemoteServiceAdapter adapter, int pageSize, Consumer<List<Book>> onRows) {
+        synchronized (deltaLock) {
+            loaded = false;
+            pendingDeltas = new ArrayList<>();
+            pendingOverflow = false;
+            resyncDuringLoad = false;
+            books.clear();
+        }
+        int total = adapter.streamAllBooks(pageSize, rows -> {
+            for (Book book : rows) {
+                books.put(book.getBookId(), book);
+            }
+            onRows.accept(rows);
+        });
+        
+        List<String> changed = new ArrayList<>();
+        synchronized (deltaLock) {
+            List<Map<String, Object>> buffered = pendingDeltas;
+            pendingDeltas = null;
+            loaded = total >= 0 && !pendingOverflow && !resyncDuringLoad;
+            // Delta chứa giá trị mới của field nên áp lại lên dòng đã đọc sau thay đổi vẫn đúng;
+            // applyDelta đặt loaded = false nếu lỗi
+            for (int i = 0; loaded && i < buffered.size(); i++) {
+                String bookId = applyDelta(buffered.get(i));
+                if (bookId != null) {
+                    changed.add(bookId);
+                }
+            }
+        }
+        if (total >= 0 && !loaded) {
+            LoggerUtil.info("Cache sách lỡ sự kiện trong lúc tải, cần tải lại");
+            books.clear();
+            notifyListeners(null);
+            return total;
+        }
+        for (String bookId : changed) {
+            notifyListeners(bookId);
+        }
+        return total;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Danh sách sách hiện có trong cache, theo mã sách
+     */
+    public List<Book> snapshot() {
+        return new ArrayList<>(books.values());
+    }
+
+    public Book get(String bookId) {
+        return books.get(bookId);
+    }
+
+    /**
+     * Xóa cache (ví dụ sau khi kết nối lại server)
+     */
+    public void invalidate() {
+        loaded = false;
+        books.clear();
+        notifyListeners(null);
+    }
+
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Áp delta từ server (chạy trên thread đọc của kết nối)
+     */
+    @SuppressWarnings("unchecked")
+    private void onServerMessage(Object data) {
+        if (!(data instanceof Map)) {
+            return;
+        }
+        Map<String, Object> message = (Map<String, Object>) data;
+        Object type = message.get("type");
+        if ("resync".equals(type)) {
+            LoggerUtil.info("Server yêu cầu đồng bộ lại, xóa cache sách");
+            synchronized (deltaLock) {
+                if (pendingDeltas != null) {
+                    // Đang tải: phần đã đọc có thể đã lỡ sự kiện, bỏ kết quả lần tải này
+                    resyncDuringLoad = true;
+                }
+            }
+            invalidate();
+            return;
+        }
+        if (!"data_change".equals(type) || !"book".equals(message.get("entity"))) {
+            return;
+        }
+
+        String bookId;
+        synchronized (deltaLock) {
+            if (pendingDeltas != null) {
+                if (pendingDeltas.size() < MAX_PENDING_DELTAS) {
+                    pendingDeltas.add(message);
+                } else {
+                    pendingOverflow = true;
+                }
+                return;
+            }
+            if (!loaded) {
+                return;
+            }
+            bookId = applyDelta(message);
+        }
+        if (bookId != null) {
+            notifyListeners(bookId);
+        } else if (!loaded) {
+            notifyListeners(null);
+        }
+    }
+
+    /**
+     * Áp một delta vào cache (gọi khi giữ deltaLock). Trả về bookId đã đổi, null nếu
+     * delta bị bỏ qua; lỗi khi áp thì xóa cache (loaded = false)
+     */
+    @SuppressWarnings("unchecked")
+    private String applyDelta(Map<String, Object> message) {
+        String bookId = (String) message.get("key");
+        if (bookId == null) {
+            return null;
+        }
+        try {
+            if (Boolean.TRUE.equals(message.get("deleted"))) {
+                books.remove(bookId);
+            } else {
+                Map<String, Object> changes = (Map<String, Object>) message.get("changes");
+                if (changes == null) {
+                    return null;
+                }
+                Book current = books.get(bookId);
+                // Áp vào bản sao để thread UI không thấy đối tượng đang sửa dở
+                Book updated = current != null
+                    ? JsonUtil.getMapper().updateValue(JsonUtil.getMapper().convertValue(current, Book.class), changes)
+                    : JsonUtil.getMapper().convertValue(changes, Book.class);
+                if (current == null && updated.getTitle() == null) {
+                    // Delta một phần cho sách chưa có trong cache: không đủ dữ liệu để hiển thị
+                    return null;
+                }
+                books.put(bookId, updated);
+            }
+            return bookId;
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi áp thay đổi sách " + bookId + ": " + e.getMessage());
+            loaded = false;
+            books.clear();
+            return null;
+        }
+    }
+
+    private void notifyListeners(String bookId) {
+        for (Consumer<String> listener : listeners) {
+            try {
+                listener.accept(bookId);
+            } catch (Exception e) {
+                LoggerUtil.error("Lỗi listener cache sách: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.dainam.library.client;
 
 import com.dainam.library.model.*;
+import com.dainam.library.util.JsonUtil;
 import com.dainam.library.util.LoggerUtil;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Service adapter để giao tiếp với server qua TCP
@@ -29,12 +31,9 @@ public class RemoteServiceAdapter {
         
         Map<String, Object> response = serverConnection.sendRequest("login", data);
         
-        // Lưu session nếu đăng nhập thành công
-        if ((Boolean) response.getOrDefault("success", false)) {
-            String sessionId = (String) response.get("sessionId");
-            if (sessionId != null) {
-                serverConnection.setSessionId(sessionId);
-            }
+        // Lưu session và token khôi phục nếu đăng nhập thành công
+        if ((Boolean) response.getOrDefault("success", false) && response.get("data") instanceof Map) {
+            serverConnection.updateSession((Map<String, Object>) response.get("data"));
         }
         
         return response;
@@ -47,7 +46,7 @@ public class RemoteServiceAdapter {
         Map<String, Object> response = serverConnection.sendRequest("logout", new HashMap<>());
         
         // Clear session
-        serverConnection.setSessionId(null);
+        serverConnection.clearSession();
         
         return response;
     }
@@ -136,6 +135,58 @@ public class RemoteServiceAdapter {
         return new ArrayList<>();
     }
     
+    /**
+     * Đọc toàn bộ sách qua cursor: mỗi nhóm dòng được chuyển cho onRows ngay khi về tới
+     * (trên thread đọc của kết nối), không chờ đọc hết danh sách.
+     * Trả về tổng số sách đã nhận, -1 nếu không mở được cursor hoặc server báo lỗi giữa chừng
+     * (các dòng đã chuyển cho onRows khi đó chỉ là một phần danh sách)
+     */
+    public int streamAllBooks(int pageSize, Consumer<List<Book>> onRows) {
+        Map<String, Object> openData = new HashMap<>();
+        openData.put("collection", "books");
+        openData.put("pageSize", pageSize);
+        Map<String, Object> response = serverConnection.sendRequest("openCursor", openData);
+        if (!(Boolean) response.getOrDefault("success", false)) {
+            LoggerUtil.warn("Không mở được cursor sách: " + response.get("message"));
+            return -1;
+        }
+        String cursorId = (String) ((Map<String, Object>) response.get("data")).get("cursorId");
+        
+        serverConnection.addCursorListener(cursorId, rows -> {
+            List<Book> books = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                books.add(JsonUtil.getMapper().convertValue(row, Book.class));
+            }
+            onRows.accept(books);
+        });
+        
+        int total = 0;
+        boolean hasMore = true;
+        try {
+            Map<String, Object> fetchData = new HashMap<>();
+            fetchData.put("cursorId", cursorId);
+            while (hasMore) {
+                response = serverConnection.sendRequest("fetchNext", fetchData);
+                if (!(Boolean) response.getOrDefault("success", false)) {
+                    LoggerUtil.warn("Lỗi đọc cursor sách: " + response.get("message"));
+                    total = -1;
+                    break;
+                }
+                Map<String, Object> result = (Map<String, Object>) response.get("data");
+                total += ((Number) result.get("count")).intValue();
+                hasMore = (Boolean) result.get("hasMore");
+            }
+        } finally {
+            serverConnection.removeCursorListener(cursorId);
+            if (hasMore) {
+                Map<String, Object> closeData = new HashMap<>();
+                closeData.put("cursorId", cursorId);
+                serverConnection.sendRequestAsync("closeCursor", closeData);
+            }
+        }
+        return total;
+    }
+    
     /**
      * Tìm kiếm sách
      */
@@ -334,6 +385,112 @@ public class RemoteServiceAdapter {
         return record;
     }
     
+    // ==================== SUBSCRIPTIONS ====================
+    
+    /**
+     * Đăng ký nhận sự kiện thay đổi (topic: books, users, borrows, system; key null = tất cả).
+     * Sau lần đăng ký đầu tiên server chỉ gửi sự kiện khớp đăng ký cho kết nối này.
+     */
+    public boolean subscribe(String topic, String key) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("topic", topic);
+        data.put("key", key);
+        Map<String, Object> response = serverConnection.sendRequest("subscribe", data);
+        return (Boolean) response.getOrDefault("success", false);
+    }
+    
+    /**
+     * Hủy đăng ký nhận sự kiện
+     */
+    public boolean unsubscribe(String topic, String key) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("topic", topic);
+        data.put("key", key);
+        Map<String, Object> response = serverConnection.sendRequest("unsubscribe", data);
+        return (Boolean) response.getOrDefault("success", false);
+    }
+    
+    // ==================== BATCH OPERATIONS ====================
+    
+    /**
+     * Tạo batch mới: gom nhiều action rồi gửi trong một round trip
+     */
+    public Batch batch() {
+        return new Batch(serverConnection);
+    }
+    
+    /**
+     * Lấy toàn bộ số liệu của dashboard admin trong một batch
+     */
+    public Map<String, Number> getDashboardStatistics() {
+        String[] actions = {
+            "getTotalBooks", "getTotalUsers", "getTotalBorrows", "getTotalFines",
+            "getAvailableBooks", "getBorrowedBooks", "getOverdueBooks", "getPendingUsers"
+        };
+        Batch batch = batch();
+        for (String action : actions) {
+            batch.add(action, new HashMap<>());
+        }
+        List<Map<String, Object>> responses = batch.execute();
+        
+        Map<String, Number> stats = new HashMap<>();
+        for (int i = 0; i < actions.length; i++) {
+            Map<String, Object> response = responses.get(i);
+            if ((Boolean) response.getOrDefault("success", false)) {
+                Map<String, Object> data = (Map<String, Object>) response.get("data");
+                stats.put(actions[i], (Number) data.get("value"));
+            } else {
+                LoggerUtil.warn("Không lấy được " + actions[i] + ": " + response.get("message"));
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Builder cho action batch. Kết quả trả về theo đúng thứ tự add();
+     * nếu cả batch thất bại thì mọi phần tử là response lỗi của batch.
+     */
+    public static class Batch {
+        private final ServerConnection serverConnection;
+        private final List<Map<String, Object>> requests = new ArrayList<>();
+        
+        private Batch(ServerConnection serverConnection) {
+            this.serverConnection = serverConnection;
+        }
+        
+        public Batch add(String action, Map<String, Object> data) {
+            Map<String, Object> request = new HashMap<>();
+            request.put("action", action);
+            request.put("data", data);
+            requests.add(request);
+            return this;
+        }
+        
+        public int size() {
+            return requests.size();
+        }
+        
+        public List<Map<String, Object>> execute() {
+            Map<String, Object> data = new HashMap<>();
+            data.put("requests", requests);
+            Map<String, Object> response = serverConnection.sendRequest("batch", data);
+            
+            if ((Boolean) response.getOrDefault("success", false)) {
+                Map<String, Object> responseData = (Map<String, Object>) response.get("data");
+                List<Map<String, Object>> responses = (List<Map<String, Object>>) responseData.get("responses");
+                if (responses != null && responses.size() == requests.size()) {
+                    return responses;
+                }
+            }
+            
+            List<Map<String, Object>> failed = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                failed.add(response);
+            }
+            return failed;
+        }
+    }
+    
     /**
      * Kiểm tra trạng thái kết nối server
      */
@@ -1,33 +1,89 @@
 package com.dainam.library.client;
 
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.util.EventBus;
+import com.dainam.library.util.FrameIO;
+import com.dainam.library.util.JsonUtil;
 import com.dainam.library.util.LoggerUtil;
+import com.dainam.library.util.WireFormat;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.ConnectException;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
- * Quản lý kết nối TCP đến server
+ * Quản lý kết nối TCP đến server.
+ * Mỗi request mang một requestId; một thread đọc nền ghép response về đúng
+ * CompletableFuture theo requestId nên nhiều request có thể được gửi liên tiếp
+ * (pipelining) mà không chờ nhau.
+ * Khi kết nối, client đề nghị định dạng nhị phân (Smile, frame có tiền tố độ dài)
+ * kèm nén deflate cho message lớn; server cũ không hỗ trợ thì tiếp tục dùng JSON theo dòng.
+ * Sau khi kết nối lại, client gửi token khôi phục nhận lúc đăng nhập để lấy lại session
+ * mà không phải đăng nhập lại.
+ * Sau khi đăng nhập/khôi phục, client đăng ký nhận sự kiện sách, hệ thống và phiếu mượn
+ * của chính mình (admin: của mọi user), nên server không gửi sự kiện không liên quan.
+ * Nếu server hỗ trợ, client gửi heartbeat (dòng/frame rỗng) theo chu kỳ server đề nghị
+ * và coi kết nối là chết khi không nhận được gì trong 3 chu kỳ.
+ * Khi server báo đang dừng (server_draining), client kết nối lại sau khoảng thời gian
+ * server đề nghị cộng một khoảng ngẫu nhiên, sau khi các request đang chờ đã xong.
  */
 public class ServerConnection {
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8888;
     private static final int RECONNECT_DELAY = 3000; // 3 seconds
     private static final int MAX_RECONNECT_ATTEMPTS = 5;
+    private static final long REQUEST_TIMEOUT_MS = 30000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    private static final int HEARTBEAT_MISSES = 3;
+    // Cùng charset mặc định với server để tương thích wire
+    private static final Charset CHARSET = Charset.defaultCharset();
     
     private static ServerConnection instance;
-    private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private volatile Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private volatile WireFormat wireFormat = WireFormat.JSON;
+    private volatile int compressionThreshold = FrameIO.NO_COMPRESSION;
     private ObjectMapper objectMapper;
-    private boolean connected = false;
-    private String sessionId;
+    private volatile boolean connected = false;
+    private volatile String sessionId;
+    private volatile String resumeToken;
+    // Chu kỳ heartbeat server đề nghị khi negotiate (0 = server không hỗ trợ)
+    private volatile long heartbeatIntervalMs = 0;
+    private volatile long lastReceivedAt;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> heartbeatTask;
+    
+    // Các request đang chờ response, theo requestId
+    private final Map<String, CompletableFuture<Map<String, Object>>> pendingRequests = new ConcurrentHashMap<>();
+    // Thứ tự gửi, dùng khi server cũ không trả lại requestId
+    private final Queue<String> sendOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requestCounter = new AtomicLong();
+    // Listener nhận các nhóm dòng cursor_rows server stream về, theo cursorId
+    private final Map<String, Consumer<List<Map<String, Object>>>> cursorListeners = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
     
     private ServerConnection() {
-        this.objectMapper = new ObjectMapper();
+        this.objectMapper = JsonUtil.getMapper();
     }
     
     public static synchronized ServerConnection getInstance() {
@@ -40,7 +96,7 @@ public class ServerConnection {
     /**
      * Kết nối đến server với retry logic
      */
-    public boolean connect() {
+    public synchronized boolean connect() {
         int attempts = 0;
         
         while (attempts < MAX_RECONNECT_ATTEMPTS && !connected) {
@@ -48,11 +104,17 @@ public class ServerConnection {
                 LoggerUtil.info("Đang kết nối đến server " + SERVER_HOST + ":" + SERVER_PORT + " (lần thử " + (attempts + 1) + ")");
                 
                 socket = new Socket(SERVER_HOST, SERVER_PORT);
-                reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                writer = new PrintWriter(socket.getOutputStream(), true);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                wireFormat = negotiateWireFormat();
                 
                 connected = true;
-                LoggerUtil.info("Kết nối TCP server thành công!");
+                lastReceivedAt = System.currentTimeMillis();
+                startReader(socket, in, wireFormat);
+                startHeartbeat(socket);
+                LoggerUtil.info("Kết nối TCP server thành công! (định dạng " + wireFormat.getId()
+                    + (compressionThreshold != FrameIO.NO_COMPRESSION ? " + deflate" : "") + ")");
+                resumeSession();
                 return true;
                 
             } catch (ConnectException e) {
@@ -69,6 +131,7 @@ public class ServerConnection {
                 }
             } catch (Exception e) {
                 LoggerUtil.error("Lỗi kết nối server: " + e.getMessage());
+                closeQuietly(socket);
                 break;
             }
         }
@@ -77,18 +140,235 @@ public class ServerConnection {
         return false;
     }
     
+    /**
+     * Khôi phục session của lần kết nối trước (nếu có token), trước mọi request khác
+     */
+    @SuppressWarnings("unchecked")
+    private void resumeSession() {
+        String token = resumeToken;
+        if (token == null) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("resumeToken", token);
+        Map<String, Object> response;
+        try {
+            response = sendRequestAsync("resume", data).get(HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException | TimeoutException e) {
+            LoggerUtil.warn("Không khôi phục được phiên đăng nhập: " + e.getMessage());
+            return;
+        }
+        if ((Boolean) response.getOrDefault("success", false) && response.get("data") instanceof Map) {
+            updateSession((Map<String, Object>) response.get("data"));
+            LoggerUtil.info("Đã khôi phục phiên đăng nhập " + sessionId);
+        } else {
+            // Session đã kết thúc trên server: cần đăng nhập lại
+            LoggerUtil.warn("Không khôi phục được phiên đăng nhập: " + response.get("message"));
+            sessionId = null;
+            resumeToken = null;
+        }
+    }
+    
+    /**
+     * Handshake chọn định dạng wire trước khi bắt đầu gửi request.
+     * Server cũ trả lỗi "Action không được hỗ trợ" nên vẫn dùng JSON.
+     * Broadcast có thể tới trước response handshake nên response được nhận theo requestId,
+     * các message push đến trước được chuyển tiếp như bình thường.
+     */
+    private WireFormat negotiateWireFormat() throws IOException {
+        WireFormat preferred = WireFormat.fromId(AppConfig.getString("client.wire.format", WireFormat.SMILE.getId()));
+        if (preferred == null || !preferred.isBinary()) {
+            return WireFormat.JSON;
+        }
+        
+        compressionThreshold = FrameIO.NO_COMPRESSION;
+        heartbeatIntervalMs = 0;
+        Map<String, Object> data = new HashMap<>();
+        data.put("formats", new String[] { preferred.getId(), WireFormat.JSON.getId() });
+        if (AppConfig.getBoolean("client.compression.enabled", true)) {
+            data.put("compression", new String[] { "deflate" });
+        }
+        String requestId = "negotiate-" + requestCounter.incrementAndGet();
+        Map<String, Object> request = new HashMap<>();
+        request.put("action", "negotiate");
+        request.put("data", data);
+        request.put("requestId", requestId);
+        writeMessage(request, WireFormat.JSON);
+        
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            Map<String, Object> response = readHandshakeResponse(requestId);
+            if ((Boolean) response.getOrDefault("success", false)
+                    && response.get("data") instanceof Map) {
+                Map<?, ?> result = (Map<?, ?>) response.get("data");
+                if (result.get("heartbeatIntervalMs") instanceof Number) {
+                    heartbeatIntervalMs = ((Number) result.get("heartbeatIntervalMs")).longValue();
+                }
+                WireFormat selected = WireFormat.fromId(String.valueOf(result.get("format")));
+                if (selected != null) {
+                    if ("deflate".equals(result.get("compression")) && result.get("compressionThreshold") instanceof Number) {
+                        compressionThreshold = ((Number) result.get("compressionThreshold")).intValue();
+                    }
+                    return selected;
+                }
+            }
+            return WireFormat.JSON;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+    
+    /**
+     * Đọc các dòng JSON tới khi gặp response của handshake: cùng requestId, hoặc response
+     * không có requestId của server cũ (server cũ không có broadcast dạng response)
+     */
+    private Map<String, Object> readHandshakeResponse(String requestId) throws IOException {
+        while (true) {
+            String line = FrameIO.readLine(in, CHARSET, MAX_FRAME_BYTES);
+            if (line == null) {
+                throw new IOException("Server đóng kết nối khi handshake");
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> message = parseMessage(line.getBytes(CHARSET), WireFormat.JSON);
+            if (message == null) {
+                continue;
+            }
+            Object id = message.get("requestId");
+            if (message.containsKey("success") && (id == null || requestId.equals(String.valueOf(id)))) {
+                return message;
+            }
+            // Broadcast (hoặc server_draining) đến trước response handshake
+            dispatchMessage(message);
+        }
+    }
+    
+    /**
+     * Gửi heartbeat định kỳ cho kết nối hiện tại; đóng socket nếu server im lặng quá lâu
+     * (thread đọc sẽ thoát và request sau sẽ kết nối lại)
+     */
+    private synchronized void startHeartbeat(Socket currentSocket) {
+        if (heartbeatTask != null) {
+            heartbeatTask.cancel(false);
+            heartbeatTask = null;
+        }
+        long interval = heartbeatIntervalMs;
+        if (interval <= 0) {
+            return;
+        }
+        heartbeatTask = scheduler().scheduleWithFixedDelay(() -> {
+            if (socket != currentSocket || currentSocket.isClosed()) {
+                return;
+            }
+            if (System.currentTimeMillis() - lastReceivedAt > interval * HEARTBEAT_MISSES) {
+                LoggerUtil.warn("Server không phản hồi heartbeat, đóng kết nối");
+                closeQuietly(currentSocket);
+                return;
+            }
+            try {
+                synchronized (writeLock) {
+                    if (wireFormat.isBinary()) {
+                        FrameIO.writeFrame(out, new byte[0], FrameIO.NO_COMPRESSION);
+                    } else {
+                        out.write('\n');
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                LoggerUtil.warn("Lỗi gửi heartbeat: " + e.getMessage());
+                closeQuietly(currentSocket);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "server-connection-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+    
+    /**
+     * Server sắp dừng: hẹn kết nối lại (tới server mới) sau reconnectAfterMs + jitter ngẫu nhiên
+     */
+    private void scheduleDrainReconnect(Map<String, Object> message) {
+        long delayMs = message.get("reconnectAfterMs") instanceof Number
+            ? ((Number) message.get("reconnectAfterMs")).longValue() : RECONNECT_DELAY;
+        long jitterMs = message.get("jitterMs") instanceof Number
+            ? ((Number) message.get("jitterMs")).longValue() : 0;
+        if (jitterMs > 0) {
+            delayMs += ThreadLocalRandom.current().nextLong(jitterMs + 1);
+        }
+        LoggerUtil.info("Server đang khởi động lại, kết nối lại sau " + delayMs + " ms");
+        Socket drainingSocket = socket;
+        scheduler().schedule(() -> reconnectAfterDrain(drainingSocket), delayMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private void reconnectAfterDrain(Socket drainingSocket) {
+        if (socket != drainingSocket) {
+            // Đã kết nối lại (ví dụ do request mới)
+            return;
+        }
+        if (!pendingRequests.isEmpty() && !drainingSocket.isClosed()) {
+            // Chờ server cũ trả lời nốt các request đang chờ
+            scheduler().schedule(() -> reconnectAfterDrain(drainingSocket), 500, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (!reconnect()) {
+            LoggerUtil.warn("Không thể kết nối lại server sau khi server khởi động lại");
+        }
+    }
+    
+    /**
+     * Ghi một message theo định dạng wire (gọi trong writeLock hoặc trước khi có thread khác)
+     */
+    private void writeMessage(Map<String, Object> message, WireFormat format) throws IOException {
+        if (format.isBinary()) {
+            FrameIO.writeFrame(out, JsonUtil.getMapper(format).writeValueAsBytes(message), compressionThreshold);
+        } else {
+            out.write((objectMapper.writeValueAsString(message) + "\n").getBytes(CHARSET));
+            out.flush();
+        }
+    }
+    
+    private static void closeQuietly(Socket target) {
+        try {
+            if (target != null) {
+                target.close();
+            }
+        } catch (IOException e) {
+            // Bỏ qua
+        }
+    }
+    
+    /**
+     * Định dạng wire đang dùng
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+    
     /**
      * Ngắt kết nối
      */
     public void disconnect() {
         try {
             connected = false;
-            if (writer != null) {
-                writer.close();
-            }
-            if (reader != null) {
-                reader.close();
+            synchronized (this) {
+                if (heartbeatTask != null) {
+                    heartbeatTask.cancel(false);
+                    heartbeatTask = null;
+                }
             }
+            // Đóng socket để thread đọc nền thoát khỏi lệnh đọc đang block
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
@@ -99,46 +379,179 @@ public class ServerConnection {
     }
     
     /**
-     * Gửi request đến server và nhận response
+     * Gửi request đến server và chờ response
      */
     public Map<String, Object> sendRequest(String action, Map<String, Object> data) {
+        try {
+            return sendRequestAsync(action, data).get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LoggerUtil.error("Request " + action + " quá thời gian chờ");
+            return errorResponse("Server không phản hồi");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return errorResponse("Request bị gián đoạn");
+        } catch (ExecutionException e) {
+            return errorResponse("Lỗi kết nối server: " + e.getCause().getMessage());
+        }
+    }
+    
+    /**
+     * Gửi request không chờ response; future hoàn thành khi response có cùng requestId về tới
+     */
+    public CompletableFuture<Map<String, Object>> sendRequestAsync(String action, Map<String, Object> data) {
         if (!connected && !connect()) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("message", "Không thể kết nối đến server");
-            return errorResponse;
+            return CompletableFuture.completedFuture(errorResponse("Không thể kết nối đến server"));
         }
         
+        String requestId = String.valueOf(requestCounter.incrementAndGet());
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        pendingRequests.put(requestId, future);
+        
         try {
             // Tạo request object
             Map<String, Object> request = new HashMap<>();
             request.put("action", action);
             request.put("data", data);
             request.put("sessionId", sessionId);
+            request.put("requestId", requestId);
             
             // Gửi request
-            String requestJson = objectMapper.writeValueAsString(request);
-            writer.println(requestJson);
-              // Đọc response
-            String responseJson = reader.readLine();
-            if (responseJson != null) {
-                LoggerUtil.debug("Raw response from server: " + responseJson);
-                Map<String, Object> response = objectMapper.readValue(responseJson, Map.class);
-                LoggerUtil.debug("Parsed response: success=" + response.get("success") + ", message=" + response.get("message"));
-                return response;
-            } else {
-                throw new IOException("Server đã đóng kết nối");
+            synchronized (writeLock) {
+                sendOrder.add(requestId);
+                writeMessage(request, wireFormat);
             }
-            
         } catch (Exception e) {
             LoggerUtil.error("Lỗi gửi request: " + e.getMessage());
             connected = false;
-            
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("message", "Lỗi kết nối server: " + e.getMessage());
-            return errorResponse;
+            pendingRequests.remove(requestId);
+            sendOrder.remove(requestId);
+            future.complete(errorResponse("Lỗi kết nối server: " + e.getMessage()));
         }
+        return future;
+    }
+    
+    /**
+     * Thread đọc nền: chuyển response về future tương ứng, message push từ server sang EventBus
+     */
+    private void startReader(Socket currentSocket, InputStream currentIn, WireFormat format) {
+        Thread readerThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Map<String, Object> message;
+                    if (format.isBinary()) {
+                        byte[] frame = FrameIO.readFrame(currentIn, MAX_FRAME_BYTES);
+                        if (frame == null) {
+                            break;
+                        }
+                        lastReceivedAt = System.currentTimeMillis();
+                        if (frame.length == 0) {
+                            // Heartbeat server trả lại
+                            continue;
+                        }
+                        message = parseMessage(frame, format);
+                    } else {
+                        String line = FrameIO.readLine(currentIn, CHARSET, MAX_FRAME_BYTES);
+                        if (line == null) {
+                            break;
+                        }
+                        lastReceivedAt = System.currentTimeMillis();
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        LoggerUtil.debug("Raw response from server: " + line);
+                        message = parseMessage(line.getBytes(CHARSET), format);
+                    }
+                    if (message != null) {
+                        dispatchMessage(message);
+                    }
+                }
+            } catch (IOException e) {
+                if (connected) {
+                    LoggerUtil.error("Lỗi đọc response: " + e.getMessage());
+                }
+            } finally {
+                if (socket == currentSocket) {
+                    connected = false;
+                }
+                failPendingRequests("Server đã đóng kết nối");
+            }
+        }, "server-connection-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parseMessage(byte[] payload, WireFormat format) {
+        try {
+            return JsonUtil.getMapper(format).readValue(payload, Map.class);
+        } catch (Exception e) {
+            LoggerUtil.error("Response không hợp lệ từ server: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void dispatchMessage(Map<String, Object> message) {
+        // Các dòng của cursor được stream trước response của fetchNext
+        if ("cursor_rows".equals(message.get("type"))) {
+            Consumer<List<Map<String, Object>>> listener = cursorListeners.get(String.valueOf(message.get("cursorId")));
+            if (listener != null) {
+                listener.accept((List<Map<String, Object>>) message.get("rows"));
+            }
+            return;
+        }
+        
+        if ("server_draining".equals(message.get("type"))) {
+            scheduleDrainReconnect(message);
+            return;
+        }
+        
+        // Message server chủ động đẩy (broadcast), không phải response
+        if (message.containsKey("type") && !message.containsKey("success")) {
+            EventBus.getInstance().publish(EventBus.Events.NETWORK_DATA_CHANGE, message);
+            return;
+        }
+        
+        Object requestId = message.get("requestId");
+        String id = requestId != null ? String.valueOf(requestId) : sendOrder.peek();
+        if (id == null) {
+            LoggerUtil.warn("Nhận response không có request tương ứng");
+            return;
+        }
+        sendOrder.remove(id);
+        CompletableFuture<Map<String, Object>> future = pendingRequests.remove(id);
+        if (future != null) {
+            LoggerUtil.debug("Parsed response: success=" + message.get("success") + ", message=" + message.get("message"));
+            future.complete(message);
+        }
+    }
+    
+    /**
+     * Đăng ký nhận dòng dữ liệu của cursor (gọi trên thread đọc nền, xử lý nhanh)
+     */
+    public void addCursorListener(String cursorId, Consumer<List<Map<String, Object>>> listener) {
+        cursorListeners.put(cursorId, listener);
+    }
+    
+    public void removeCursorListener(String cursorId) {
+        cursorListeners.remove(cursorId);
+    }
+    
+    private void failPendingRequests(String reason) {
+        for (String id : pendingRequests.keySet()) {
+            CompletableFuture<Map<String, Object>> future = pendingRequests.remove(id);
+            if (future != null) {
+                future.complete(errorResponse(reason));
+            }
+        }
+        sendOrder.clear();
+    }
+    
+    private static Map<String, Object> errorResponse(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("message", message);
+        return errorResponse;
     }
     
     /**
@@ -155,6 +568,56 @@ public class ServerConnection {
         this.sessionId = sessionId;
     }
     
+    /**
+     * Lưu sessionId và token khôi phục từ data của response login/resume
+     */
+    public void updateSession(Map<String, Object> sessionData) {
+        Object id = sessionData.get("sessionId");
+        Object token = sessionData.get("resumeToken");
+        this.sessionId = id != null ? id.toString() : null;
+        this.resumeToken = token != null ? token.toString() : null;
+        if (sessionId != null && sessionData.get("user") instanceof Map) {
+            subscribeForUser((Map<?, ?>) sessionData.get("user"));
+        }
+    }
+    
+    /**
+     * Đăng ký topic cho user vừa đăng nhập (đăng ký gắn với kết nối nên làm lại sau mỗi lần
+     * khôi phục). Không chờ response để không làm chậm đăng nhập.
+     */
+    private void subscribeForUser(Map<?, ?> user) {
+        Object userId = user.get("userId");
+        boolean admin = "ADMIN".equals(String.valueOf(user.get("role")));
+        subscribeAsync("books", null);
+        subscribeAsync("system", null);
+        if (admin) {
+            subscribeAsync("users", null);
+            subscribeAsync("borrows", null);
+        } else if (userId != null) {
+            subscribeAsync("users", userId.toString());
+            subscribeAsync("borrows", userId.toString());
+        }
+    }
+    
+    private void subscribeAsync(String topic, String key) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("topic", topic);
+        data.put("key", key);
+        sendRequestAsync("subscribe", data).thenAccept(response -> {
+            if (!(Boolean) response.getOrDefault("success", false)) {
+                LoggerUtil.warn("Không đăng ký được topic " + topic + ": " + response.get("message"));
+            }
+        });
+    }
+    
+    /**
+     * Bỏ session hiện tại (đăng xuất)
+     */
+    public void clearSession() {
+        this.sessionId = null;
+        this.resumeToken = null;
+    }
+    
     /**
      * Get session ID hiện tại
      */
@@ -35,6 +35,8 @@ public class ServiceManager {
         try {
             ServerConnection serverConnection = ServerConnection.getInstance();
             if (serverConnection.connect()) {
+                // Sự kiện trong lúc mất kết nối đã bị lỡ, cache sách phải tải lại
+                RemoteBookCache.getInstance().invalidate();
                 currentMode = Mode.REMOTE;
                 serverAvailable = true;
                 LoggerUtil.info("Đã chuyển sang chế độ Remote (TCP Client-Server)");
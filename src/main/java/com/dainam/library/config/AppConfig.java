@@ -0,0 +1,88 @@
+package com.dainam.library.config;
+
+import com.dainam.library.util.LoggerUtil;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Đọc cấu hình ứng dụng từ application.properties
+ * System property (-Dkey=value) được ưu tiên hơn giá trị trong file
+ */
+public class AppConfig {
+
+    private static final String CONFIG_FILE = "/application.properties";
+    private static final Properties properties = loadProperties();
+
+    private AppConfig() {}
+
+    /**
+     * Load file cấu hình từ classpath
+     */
+    private static Properties loadProperties() {
+        Properties props = new Properties();
+        try (InputStream in = AppConfig.class.getResourceAsStream(CONFIG_FILE)) {
+            if (in != null) {
+                props.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } else {
+                LoggerUtil.warn("Không tìm thấy " + CONFIG_FILE + ", sử dụng cấu hình mặc định");
+            }
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi đọc cấu hình: " + e.getMessage());
+        }
+        return props;
+    }
+
+    /**
+     * Lấy giá trị chuỗi
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Lấy giá trị số nguyên
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LoggerUtil.warn("Giá trị không hợp lệ cho " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Lấy giá trị số nguyên dài
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LoggerUtil.warn("Giá trị không hợp lệ cho " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Lấy giá trị boolean
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -1,22 +1,59 @@
 package com.dainam.library.config;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
 import com.dainam.library.util.LoggerUtil;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Cấu hình kết nối MongoDB
+ * Cấu hình kết nối MongoDB.
+ * Connection string, pool, timeout, read preference và write concern đọc từ application.properties
+ * (mongodb.*); khóa không khai báo thì giữ giá trị trong connection string hoặc mặc định của driver.
+ * Read preference/write concern có thể đặt riêng cho từng collection
+ * (mongodb.collection.&lt;tên&gt;.read.preference / .write.concern).
  */
 public class DatabaseConfig {
     
-    private static final String CONNECTION_STRING = "mongodb://localhost:27017";
-    private static final String DATABASE_NAME = "library_management";
+    private static final String DEFAULT_CONNECTION_STRING = "mongodb://localhost:27017";
+    private static final String DEFAULT_DATABASE_NAME = "library_management";
     
     private static MongoClient mongoClient;
-    private static MongoDatabase database;
+    private static volatile MongoDatabase database;
+    private static final MongoPoolMetrics poolMetrics = new MongoPoolMetrics();
+    // Collection đã áp dụng cấu hình riêng, dùng lại giữa các service
+    private static final Map<String, MongoCollection<Document>> collections = new ConcurrentHashMap<>();
+    // Dạng truy vấn được kiểm tra bằng explain() khi khởi động
+    private static final List<QueryShape> queryShapes = new CopyOnWriteArrayList<>();
+    private static boolean defaultQueryShapesRegistered = false;
+    
+    // Mã lỗi khi tạo index trùng tên/khóa với index đã có nhưng khác tùy chọn
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
     
     // Collection names
     public static final String COLLECTION_BOOKS = "books";
@@ -30,10 +67,9 @@ public class DatabaseConfig {
     /**
      * Khởi tạo kết nối database
      */
-    public static void initialize() {
+    public static synchronized void initialize() {
         try {
-            mongoClient = MongoClients.create(CONNECTION_STRING);
-            database = mongoClient.getDatabase(DATABASE_NAME);
+            connect();
             
             // Tạo indexes
             createIndexes();
@@ -52,10 +88,9 @@ public class DatabaseConfig {
     /**
      * Khởi tạo kết nối database mà không tạo sample data
      */
-    public static void initializeWithoutSampleData() {
+    public static synchronized void initializeWithoutSampleData() {
         try {
-            mongoClient = MongoClients.create(CONNECTION_STRING);
-            database = mongoClient.getDatabase(DATABASE_NAME);
+            connect();
             
             // Tạo indexes
             createIndexes();
@@ -69,48 +104,354 @@ public class DatabaseConfig {
     }
     
     /**
-     * Tạo các indexes cần thiết
+     * Tạo MongoClient từ cấu hình (đóng client cũ nếu khởi tạo lại)
+     */
+    private static void connect() {
+        if (mongoClient != null) {
+            mongoClient.close();
+            collections.clear();
+        }
+        mongoClient = MongoClients.create(buildClientSettings());
+        database = mongoClient.getDatabase(AppConfig.getString("mongodb.database.name", DEFAULT_DATABASE_NAME));
+    }
+    
+    /**
+     * Pool nên lớn hơn hoặc bằng số thread cùng truy vấn (server.max.clients + server.pipeline.threads
+     * khi tải cao); thời gian chờ lấy connection trong getPoolStats() tăng là dấu hiệu pool quá nhỏ
+     */
+    private static MongoClientSettings buildClientSettings() {
+        ConnectionString connectionString = new ConnectionString(
+            AppConfig.getString("mongodb.connection.string", DEFAULT_CONNECTION_STRING));
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(connectionString)
+                .applicationName(AppConfig.getString("mongodb.application.name", "library-server"));
+        
+        Integer maxPoolSize = configuredInt("mongodb.pool.max.size");
+        Integer minPoolSize = configuredInt("mongodb.pool.min.size");
+        Long maxWaitMs = configuredLong("mongodb.pool.max.wait.ms");
+        Long maxIdleMs = configuredLong("mongodb.pool.max.idle.ms");
+        builder.applyToConnectionPoolSettings(pool -> {
+            if (maxPoolSize != null) {
+                pool.maxSize(maxPoolSize);
+            }
+            if (minPoolSize != null) {
+                pool.minSize(minPoolSize);
+            }
+            if (maxWaitMs != null) {
+                pool.maxWaitTime(maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+            if (maxIdleMs != null) {
+                pool.maxConnectionIdleTime(maxIdleMs, TimeUnit.MILLISECONDS);
+            }
+            pool.addConnectionPoolListener(poolMetrics);
+        });
+        
+        Integer connectTimeoutMs = configuredInt("mongodb.connect.timeout.ms");
+        Integer socketTimeoutMs = configuredInt("mongodb.socket.timeout.ms");
+        builder.applyToSocketSettings(socket -> {
+            if (connectTimeoutMs != null) {
+                socket.connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+            if (socketTimeoutMs != null) {
+                socket.readTimeout(socketTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+        });
+        
+        Long serverSelectionTimeoutMs = configuredLong("mongodb.server.selection.timeout.ms");
+        if (serverSelectionTimeoutMs != null) {
+            builder.applyToClusterSettings(cluster ->
+                cluster.serverSelectionTimeout(serverSelectionTimeoutMs, TimeUnit.MILLISECONDS));
+        }
+        
+        ReadPreference readPreference = parseReadPreference("mongodb.read.preference");
+        if (readPreference != null) {
+            builder.readPreference(readPreference);
+        }
+        WriteConcern writeConcern = parseWriteConcern("mongodb.write.concern");
+        if (writeConcern != null) {
+            builder.writeConcern(writeConcern);
+        }
+        return builder.build();
+    }
+    
+    private static Integer configuredInt(String key) {
+        Long value = configuredLong(key);
+        return value != null ? (int) Math.min(Integer.MAX_VALUE, value) : null;
+    }
+    
+    private static Long configuredLong(String key) {
+        String value = AppConfig.getString(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            LoggerUtil.warn("Giá trị không hợp lệ cho " + key + ": " + value + ", bỏ qua");
+            return null;
+        }
+    }
+    
+    /**
+     * primary, primaryPreferred, secondary, secondaryPreferred hoặc nearest
      */
-    private static void createIndexes() {
+    private static ReadPreference parseReadPreference(String key) {
+        String value = AppConfig.getString(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return ReadPreference.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            LoggerUtil.warn("Read preference không hợp lệ cho " + key + ": " + value + ", bỏ qua");
+            return null;
+        }
+    }
+    
+    /**
+     * majority, acknowledged, unacknowledged, journaled hoặc số node (w=1, 2...)
+     */
+    private static WriteConcern parseWriteConcern(String key) {
+        String value = AppConfig.getString(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        String name = value.trim();
+        if (name.chars().allMatch(Character::isDigit)) {
+            return new WriteConcern(Integer.parseInt(name));
+        }
+        WriteConcern writeConcern = WriteConcern.valueOf(name.toUpperCase(Locale.ROOT));
+        if (writeConcern == null) {
+            LoggerUtil.warn("Write concern không hợp lệ cho " + key + ": " + value + ", bỏ qua");
+        }
+        return writeConcern;
+    }
+    
+    /**
+     * Tạo các indexes cần thiết (cũng gọi lại sau khi nạp dữ liệu lớn vào collection mới).
+     * Index kép theo đúng thứ tự trường của các truy vấn thường dùng; index unique cho các mã định danh.
+     * Sau đó kiểm tra kế hoạch của các truy vấn đã đăng ký (mongodb.index.selfcheck.enabled)
+     */
+    public static void createIndexes() {
         try {
             // Books indexes
             MongoCollection<Document> booksCollection = database.getCollection(COLLECTION_BOOKS);
-            booksCollection.createIndex(new Document("bookId", 1));
-            booksCollection.createIndex(new Document("title", "text").append("author", "text"));
-            booksCollection.createIndex(new Document("isbn", 1));
-            booksCollection.createIndex(new Document("category", 1));
+            ensureIndex(booksCollection, Indexes.ascending("bookId"), new IndexOptions().unique(true));
+            ensureIndex(booksCollection, new Document("title", "text").append("author", "text"), new IndexOptions());
+            ensureIndex(booksCollection, Indexes.ascending("isbn"), new IndexOptions());
+            ensureIndex(booksCollection, Indexes.ascending("category"), new IndexOptions());
             
             // Users indexes
             MongoCollection<Document> usersCollection = database.getCollection(COLLECTION_USERS);
-            usersCollection.createIndex(new Document("userId", 1));
-            usersCollection.createIndex(new Document("email", 1));
-            usersCollection.createIndex(new Document("studentId", 1));
+            ensureIndex(usersCollection, Indexes.ascending("userId"), new IndexOptions().unique(true));
+            ensureIndex(usersCollection, Indexes.ascending("email"), new IndexOptions().unique(true));
+            ensureIndex(usersCollection, Indexes.ascending("studentId"), new IndexOptions());
             
             // Borrow records indexes
             MongoCollection<Document> borrowRecordsCollection = database.getCollection(COLLECTION_BORROW_RECORDS);
-            borrowRecordsCollection.createIndex(new Document("userId", 1));
-            borrowRecordsCollection.createIndex(new Document("bookId", 1));
-            borrowRecordsCollection.createIndex(new Document("status", 1));
-            borrowRecordsCollection.createIndex(new Document("expectedReturnDate", 1));
+            ensureIndex(borrowRecordsCollection, Indexes.ascending("recordId"), new IndexOptions().unique(true));
+            // Sách đang mượn/quá hạn của user (userId + status [+ hạn trả])
+            ensureIndex(borrowRecordsCollection,
+                Indexes.ascending("userId", "status", "expectedReturnDate"), new IndexOptions());
+            // Lịch sử mượn của user, mới nhất trước
+            ensureIndex(borrowRecordsCollection,
+                Indexes.compoundIndex(Indexes.ascending("userId"), Indexes.descending("borrowDate")), new IndexOptions());
+            // Quét quá hạn và đếm sách đang mượn: chỉ index bản ghi chưa trả (partial $in cần MongoDB 6.0+)
+            if (!ensureIndex(borrowRecordsCollection, Indexes.ascending("status", "expectedReturnDate"),
+                    new IndexOptions().name("active_status_expectedReturnDate").partialFilterExpression(
+                        Filters.in("status", Arrays.asList("BORROWED", "OVERDUE"))))) {
+                ensureIndex(borrowRecordsCollection, Indexes.ascending("status", "expectedReturnDate"), new IndexOptions());
+            }
+            // Một user không có hai phiếu đang mượn cùng một sách (BorrowService dựa vào index này khi
+            // mượn song song); không tạo được thì chỉ còn kiểm tra trước trong borrowBook
+            if (!ensureIndex(borrowRecordsCollection, Indexes.ascending("userId", "bookId"),
+                    new IndexOptions().name("active_userId_bookId").unique(true).partialFilterExpression(
+                        Filters.in("status", Arrays.asList("BORROWED", "OVERDUE"))))) {
+                LoggerUtil.warn("Thiếu index active_userId_bookId: mượn song song cùng sách có thể tạo phiếu trùng");
+            }
+            ensureIndex(borrowRecordsCollection, Indexes.ascending("bookId"), new IndexOptions());
+            ensureIndex(borrowRecordsCollection, Indexes.ascending("status"), new IndexOptions());
             
             // Book copies indexes
             MongoCollection<Document> bookCopiesCollection = database.getCollection(COLLECTION_BOOK_COPIES);
-            bookCopiesCollection.createIndex(new Document("copyId", 1));
-            bookCopiesCollection.createIndex(new Document("bookId", 1));
-            bookCopiesCollection.createIndex(new Document("status", 1));
+            ensureIndex(bookCopiesCollection, Indexes.ascending("copyId"), new IndexOptions().unique(true));
+            // Bản sao có sẵn của sách, đối chiếu số lượng theo sách
+            ensureIndex(bookCopiesCollection, Indexes.ascending("bookId", "status"), new IndexOptions());
+            ensureIndex(bookCopiesCollection, Indexes.ascending("status"), new IndexOptions());
             
             // Fines indexes
             MongoCollection<Document> finesCollection = database.getCollection(COLLECTION_FINES);
-            finesCollection.createIndex(new Document("userId", 1));
-            finesCollection.createIndex(new Document("status", 1));
-            finesCollection.createIndex(new Document("dueDate", 1));
+            ensureIndex(finesCollection, Indexes.ascending("fineId"), new IndexOptions().unique(true));
+            // Phạt chưa trả của user
+            ensureIndex(finesCollection, Indexes.ascending("userId", "status"), new IndexOptions());
+            ensureIndex(finesCollection,
+                Indexes.compoundIndex(Indexes.ascending("userId"), Indexes.descending("createdAt")), new IndexOptions());
+            // Phạt quá hạn (status + dueDate)
+            ensureIndex(finesCollection, Indexes.ascending("status", "dueDate"), new IndexOptions());
             
             LoggerUtil.info("Đã tạo các indexes thành công!");
             
         } catch (Exception e) {
             LoggerUtil.error("Lỗi tạo indexes: " + e.getMessage());
         }
+        
+        if (AppConfig.getBoolean("mongodb.index.selfcheck.enabled", true)) {
+            checkQueryPlans();
+        }
     }
+    
+    /**
+     * Tạo một index; lỗi của index này không chặn các index khác. Index unique thay cho index
+     * thường cùng trường đã có từ phiên bản trước: xóa index cũ rồi tạo lại, nếu dữ liệu
+     * đang bị trùng thì khôi phục index thường. Trả về false nếu không tạo được
+     */
+    private static boolean ensureIndex(MongoCollection<Document> collection, Bson keys, IndexOptions options) {
+        String collectionName = collection.getNamespace().getCollectionName();
+        try {
+            collection.createIndex(keys, options);
+            return true;
+        } catch (MongoCommandException e) {
+            if (options.isUnique() && (e.getErrorCode() == INDEX_OPTIONS_CONFLICT || e.getErrorCode() == INDEX_KEY_SPECS_CONFLICT)) {
+                LoggerUtil.info("Chuyển index " + keys.toBsonDocument() + " trên " + collectionName + " sang unique");
+                collection.dropIndex(keys);
+                try {
+                    collection.createIndex(keys, options);
+                    return true;
+                } catch (MongoException duplicate) {
+                    collection.createIndex(keys);
+                    LoggerUtil.error("Không tạo được index unique " + keys.toBsonDocument() + " trên " + collectionName
+                        + " (dữ liệu đang trùng?): " + duplicate.getMessage());
+                    return false;
+                }
+            }
+            LoggerUtil.warn("Không tạo được index " + keys.toBsonDocument() + " trên " + collectionName + ": " + e.getMessage());
+            return false;
+        } catch (MongoException e) {
+            LoggerUtil.warn("Không tạo được index " + keys.toBsonDocument() + " trên " + collectionName + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Đăng ký một dạng truy vấn để kiểm tra kế hoạch thực thi khi khởi động
+     * (giá trị trong filter chỉ là mẫu, chỉ dạng truy vấn là quan trọng)
+     */
+    public static void registerQueryShape(String collectionName, String label, Bson filter, Bson sort) {
+        queryShapes.add(new QueryShape(collectionName, label, filter, sort));
+    }
+    
+    /**
+     * Các truy vấn thường dùng của service
+     */
+    private static void registerDefaultQueryShapes() {
+        Date today = new Date();
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "getCurrentBorrows",
+            Filters.and(Filters.eq("userId", "u"), Filters.in("status", Arrays.asList("BORROWED", "OVERDUE"))),
+            Sorts.descending("borrowDate"));
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "getOverdueBooks(userId)",
+            Filters.and(Filters.eq("userId", "u"), Filters.eq("status", "OVERDUE")), null);
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "getBorrowHistory",
+            Filters.eq("userId", "u"), Sorts.descending("borrowDate"));
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "updateOverdueStatus",
+            Filters.and(Filters.eq("status", "BORROWED"), Filters.lt("expectedReturnDate", today)), null);
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "getAllOverdueBooks",
+            Filters.eq("status", "OVERDUE"), null);
+        registerQueryShape(COLLECTION_BORROW_RECORDS, "getBorrowRecordById",
+            Filters.eq("recordId", "r"), null);
+        registerQueryShape(COLLECTION_BOOK_COPIES, "getAvailableCopies",
+            Filters.and(Filters.eq("bookId", "b"), Filters.eq("status", "AVAILABLE")), null);
+        registerQueryShape(COLLECTION_BOOK_COPIES, "getBookCopyById",
+            Filters.eq("copyId", "c"), null);
+        registerQueryShape(COLLECTION_BOOKS, "getBookById",
+            Filters.eq("bookId", "b"), null);
+        registerQueryShape(COLLECTION_BOOKS, "getBookByISBN",
+            Filters.eq("isbn", "i"), null);
+        registerQueryShape(COLLECTION_BOOKS, "getBooks(category)",
+            Filters.eq("category", "c"), null);
+        registerQueryShape(COLLECTION_USERS, "getUserById",
+            Filters.eq("userId", "u"), null);
+        registerQueryShape(COLLECTION_USERS, "getUserByEmail",
+            Filters.eq("email", "e"), null);
+        registerQueryShape(COLLECTION_USERS, "getUserByStudentId",
+            Filters.eq("studentId", "s"), null);
+        registerQueryShape(COLLECTION_FINES, "getUnpaidFinesByUser",
+            Filters.and(Filters.eq("userId", "u"), Filters.eq("status", "PENDING")), null);
+        registerQueryShape(COLLECTION_FINES, "getFinesByUser",
+            Filters.eq("userId", "u"), Sorts.descending("createdAt"));
+        registerQueryShape(COLLECTION_FINES, "getOverdueFines",
+            Filters.and(Filters.eq("status", "PENDING"), Filters.lt("dueDate", today)), null);
+    }
+    
+    /**
+     * Chạy explain() cho từng truy vấn đã đăng ký, cảnh báo truy vấn phải quét toàn collection
+     */
+    private static void checkQueryPlans() {
+        synchronized (DatabaseConfig.class) {
+            if (!defaultQueryShapesRegistered) {
+                registerDefaultQueryShapes();
+                defaultQueryShapesRegistered = true;
+            }
+        }
+        int collectionScans = 0;
+        for (QueryShape shape : queryShapes) {
+            try {
+                FindIterable<Document> query = database.getCollection(shape.collectionName).find(shape.filter);
+                if (shape.sort != null) {
+                    query = query.sort(shape.sort);
+                }
+                Document plan = query.explain();
+                Object queryPlanner = plan.get("queryPlanner");
+                if (queryPlanner instanceof Document && containsStage(((Document) queryPlanner).get("winningPlan"), "COLLSCAN")) {
+                    collectionScans++;
+                    LoggerUtil.warn("Truy vấn " + shape.label + " trên " + shape.collectionName
+                        + " đang quét toàn collection (COLLSCAN), thiếu index phù hợp");
+                }
+            } catch (Exception e) {
+                LoggerUtil.warn("Không kiểm tra được kế hoạch truy vấn " + shape.label + ": " + e.getMessage());
+            }
+        }
+        LoggerUtil.info("Kiểm tra kế hoạch truy vấn: " + (queryShapes.size() - collectionScans) + "/"
+            + queryShapes.size() + " truy vấn dùng index");
+    }
+    
+    /**
+     * Tìm stage trong cây kế hoạch (inputStage/inputStages, hoặc queryPlan với engine SBE)
+     */
+    private static boolean containsStage(Object node, String stage) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (stage.equals(doc.get("stage"))) {
+                return true;
+            }
+            for (Object child : doc.values()) {
+                if (containsStage(child, stage)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object child : (List<?>) node) {
+                if (containsStage(child, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static final class QueryShape {
+        final String collectionName;
+        final String label;
+        final Bson filter;
+        final Bson sort;
+        
+        QueryShape(String collectionName, String label, Bson filter, Bson sort) {
+            this.collectionName = collectionName;
+            this.label = label;
+            this.filter = filter;
+            this.sort = sort;
+        }
+    }
+    
       /**
      * Khởi tạo dữ liệu mẫu
      */
@@ -183,14 +524,14 @@ public class DatabaseConfig {
                 "Y học", "Kỹ thuật", "Ngoại ngữ", "Tâm lý học", "Triết học"
             };
             
+            List<Document> categoryDocs = new ArrayList<>();
             for (String category : categories) {
-                Document categoryDoc = new Document()
+                categoryDocs.add(new Document()
                         .append("name", category)
                         .append("description", "Thể loại " + category)
-                        .append("createdAt", java.time.LocalDate.now());
-                
-                categoriesCollection.insertOne(categoryDoc);
+                        .append("createdAt", java.time.LocalDate.now()));
             }
+            categoriesCollection.insertMany(categoryDocs, new InsertManyOptions().ordered(false));
             
             LoggerUtil.info("Đã tạo " + categories.length + " categories mẫu");
             
@@ -203,23 +544,56 @@ public class DatabaseConfig {
      * Lấy database instance
      */
     public static MongoDatabase getDatabase() {
-        if (database == null) {
-            initialize();
+        MongoDatabase current = database;
+        if (current == null) {
+            synchronized (DatabaseConfig.class) {
+                if (database == null) {
+                    initialize();
+                }
+                current = database;
+            }
         }
-        return database;
+        return current;
     }
     
     /**
-     * Lấy collection theo tên
+     * Lấy MongoClient (để mở session/transaction)
+     */
+    public static MongoClient getClient() {
+        getDatabase();
+        return mongoClient;
+    }
+
+    /**
+     * Lấy collection theo tên, áp dụng read preference/write concern riêng nếu có cấu hình
      */
     public static MongoCollection<Document> getCollection(String collectionName) {
-        return getDatabase().getCollection(collectionName);
+        MongoDatabase db = getDatabase();
+        return collections.computeIfAbsent(collectionName, name -> {
+            MongoCollection<Document> collection = db.getCollection(name);
+            ReadPreference readPreference = parseReadPreference("mongodb.collection." + name + ".read.preference");
+            if (readPreference != null) {
+                collection = collection.withReadPreference(readPreference);
+            }
+            WriteConcern writeConcern = parseWriteConcern("mongodb.collection." + name + ".write.concern");
+            if (writeConcern != null) {
+                collection = collection.withWriteConcern(writeConcern);
+            }
+            return collection;
+        });
+    }
+    
+    /**
+     * Số liệu connection pool (thời gian chờ lấy connection, số lần thất bại, connection đang dùng)
+     */
+    public static Map<String, Object> getPoolStats() {
+        return poolMetrics.getStats();
     }
     
     /**
      * Đóng kết nối
      */
-    public static void close() {
+    public static synchronized void close() {
         if (mongoClient != null) {
             mongoClient.close();
             LoggerUtil.info("Đã đóng kết nối MongoDB");
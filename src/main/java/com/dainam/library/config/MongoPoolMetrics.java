@@ -0,0 +1,119 @@
+package com.dainam.library.config;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Số liệu connection pool MongoDB: thời gian chờ lấy connection, số lần lấy thất bại,
+ * số connection đang dùng/đang mở. Dùng để chỉnh mongodb.pool.max.size theo số worker của server
+ * (thời gian chờ tăng nghĩa là pool nhỏ hơn số thread cùng truy vấn).
+ */
+public class MongoPoolMetrics implements ConnectionPoolListener {
+
+    // Mốc histogram thời gian chờ (ms)
+    private static final long[] WAIT_BUCKETS_MS = { 1, 10, 100, 1000 };
+
+    private final LongAdder checkOutStarted = new LongAdder();
+    private final LongAdder checkedOut = new LongAdder();
+    private final LongAdder checkedIn = new LongAdder();
+    private final LongAdder checkOutFailed = new LongAdder();
+    private final LongAdder checkOutTimeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder[] waitHistogram = new LongAdder[WAIT_BUCKETS_MS.length + 1];
+
+    public MongoPoolMetrics() {
+        for (int i = 0; i < waitHistogram.length; i++) {
+            waitHistogram[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        checkOutStarted.increment();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOut.increment();
+        recordWait(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        checkOutFailed.increment();
+        if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+            checkOutTimeouts.increment();
+        }
+        recordWait(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedIn.increment();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        created.increment();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        closed.increment();
+    }
+
+    private void recordWait(long nanos) {
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < WAIT_BUCKETS_MS.length && millis >= WAIT_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        waitHistogram[bucket].increment();
+    }
+
+    /**
+     * Số liệu: số lần lấy connection (thành công/thất bại/quá hạn), đang chờ, đang dùng,
+     * đang mở, thời gian chờ trung bình/lớn nhất (ms) và phân bố thời gian chờ
+     */
+    public Map<String, Object> getStats() {
+        long out = checkedOut.sum();
+        long failed = checkOutFailed.sum();
+        long attempts = out + failed;
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        long previous = 0;
+        for (int i = 0; i < WAIT_BUCKETS_MS.length; i++) {
+            histogram.put(previous + "-" + WAIT_BUCKETS_MS[i] + "ms", waitHistogram[i].sum());
+            previous = WAIT_BUCKETS_MS[i];
+        }
+        histogram.put(">=" + previous + "ms", waitHistogram[WAIT_BUCKETS_MS.length].sum());
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("checkedOut", out);
+        stats.put("checkOutFailed", failed);
+        stats.put("checkOutTimeouts", checkOutTimeouts.sum());
+        stats.put("waitingNow", Math.max(0, checkOutStarted.sum() - attempts));
+        stats.put("inUseNow", Math.max(0, out - checkedIn.sum()));
+        stats.put("openConnections", Math.max(0, created.sum() - closed.sum()));
+        stats.put("avgWaitMs", attempts > 0 ? waitNanos.sum() / attempts / 1_000_000.0 : 0.0);
+        stats.put("maxWaitMs", maxWaitNanos.get() / 1_000_000.0);
+        stats.put("waitHistogram", histogram);
+        return stats;
+    }
+}
@@ -1,5 +1,6 @@
 package com.dainam.library.model;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.LocalDate;
 import java.util.Objects;
@@ -25,6 +26,7 @@ public class Book {
     private String publisher;
     
     @JsonProperty("publicationYear")
+    @JsonAlias("publishYear")
     private int publicationYear;
     
     @JsonProperty("category")
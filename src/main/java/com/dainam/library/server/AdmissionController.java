@@ -0,0 +1,327 @@
+package com.dainam.library.server;
+
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.service.SessionStore;
+import com.dainam.library.util.LoggerUtil;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kiểm soát tải cho request của client:
+ * - Token bucket theo session (hoặc theo kết nối khi chưa đăng nhập) cho từng nhóm action
+ *   (auth, search, write, report), cấu hình qua server.ratelimit.&lt;nhóm&gt;.rate/burst.
+ * - Giới hạn số request xử lý đồng thời toàn server, với hàng chờ có giới hạn và thời gian chờ ngắn.
+ * Request bị từ chối được trả lời ngay kèm retryAfterMs thay vì xếp hàng vô hạn.
+ * Khi server dừng (drain), request mới bị từ chối và server chờ các request đang xử lý xong.
+ */
+public class AdmissionController {
+
+    /**
+     * Nhóm action dùng chung một bucket
+     */
+    public enum ActionClass {
+        AUTH,
+        SEARCH,
+        WRITE,
+        REPORT,
+        OTHER
+    }
+
+    private static AdmissionController instance;
+
+    private final boolean rateLimitEnabled;
+    private final double[] ratePerSecond = new double[ActionClass.values().length];
+    private final double[] burst = new double[ActionClass.values().length];
+    // Bucket theo sessionId hoặc theo ClientHandler (khi chưa đăng nhập)
+    private final Map<Object, TokenBucket[]> buckets = new ConcurrentHashMap<>();
+
+    private final int maxConcurrent;
+    private final Semaphore concurrencyPermits;
+    private final int maxQueued;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final long queueTimeoutMs;
+    private final long overloadRetryAfterMs;
+    private volatile boolean draining = false;
+    private volatile long drainRetryAfterMs = 0;
+
+    // Số liệu
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final LongAdder[] rateLimitedByClass = new LongAdder[ActionClass.values().length];
+
+    private AdmissionController() {
+        this.rateLimitEnabled = AppConfig.getBoolean("server.ratelimit.enabled", true);
+        configure(ActionClass.AUTH, 1, 5);
+        configure(ActionClass.SEARCH, 20, 40);
+        configure(ActionClass.WRITE, 5, 10);
+        configure(ActionClass.REPORT, 2, 10);
+        for (int i = 0; i < rateLimitedByClass.length; i++) {
+            rateLimitedByClass[i] = new LongAdder();
+        }
+        this.maxConcurrent = Math.max(1, AppConfig.getInt("server.admission.max.concurrent", 64));
+        this.concurrencyPermits = new Semaphore(maxConcurrent);
+        this.maxQueued = Math.max(0, AppConfig.getInt("server.admission.queue.capacity", 128));
+        this.queueTimeoutMs = Math.max(0, AppConfig.getLong("server.admission.queue.timeout.ms", 500));
+        this.overloadRetryAfterMs = Math.max(1, AppConfig.getLong("server.admission.retry.after.ms", 1000));
+        // Session kết thúc thì bỏ bucket của nó
+        SessionStore.getInstance().addEndListener(buckets::remove);
+    }
+
+    private void configure(ActionClass actionClass, double defaultRate, double defaultBurst) {
+        String prefix = "server.ratelimit." + actionClass.name().toLowerCase(Locale.ROOT);
+        ratePerSecond[actionClass.ordinal()] = parseDouble(prefix + ".rate", defaultRate);
+        burst[actionClass.ordinal()] = Math.max(1, parseDouble(prefix + ".burst", defaultBurst));
+    }
+
+    private static double parseDouble(String key, double defaultValue) {
+        String value = AppConfig.getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            LoggerUtil.warn("Giá trị không hợp lệ cho " + key + ": " + value + ", dùng mặc định " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static synchronized AdmissionController getInstance() {
+        if (instance == null) {
+            instance = new AdmissionController();
+        }
+        return instance;
+    }
+
+    /**
+     * Phân nhóm action; action không có trong danh sách (ping, logout, subscribe...) không bị giới hạn tốc độ
+     */
+    public static ActionClass classify(String action) {
+        if (action == null) {
+            return ActionClass.OTHER;
+        }
+        switch (action) {
+            case "login":
+            case "register":
+            case "resume":
+                return ActionClass.AUTH;
+            case "getAllBooks":
+            case "getBooks":
+            case "getBookById":
+            case "searchBooks":
+            case "openCursor":
+            case "fetchNext":
+            case "getBorrowHistory":
+            case "getCurrentBorrows":
+            case "getUserById":
+                return ActionClass.SEARCH;
+            case "createUser":
+            case "addUser":
+            case "updateUser":
+            case "deleteUser":
+            case "createBook":
+            case "addBook":
+            case "updateBook":
+            case "deleteBook":
+            case "borrowBook":
+            case "returnBook":
+            case "extendBorrow":
+                return ActionClass.WRITE;
+            case "getAllUsers":
+            case "getUsers":
+            case "getBorrowRecords":
+            case "getStats":
+            case "getTotalBooks":
+            case "getAvailableBooks":
+            case "getTotalUsers":
+            case "getPendingUsers":
+            case "getTotalBorrows":
+            case "getBorrowedBooks":
+            case "getOverdueBooks":
+            case "getTotalFines":
+                return ActionClass.REPORT;
+            default:
+                return ActionClass.OTHER;
+        }
+    }
+
+    /**
+     * Lấy một token của nhóm action cho client (sessionId hoặc handler).
+     * Trả về 0 nếu được phép, ngược lại là số ms nên chờ trước khi thử lại
+     */
+    public long tryAcquireRate(Object clientKey, String action) {
+        ActionClass actionClass = classify(action);
+        if (!rateLimitEnabled || actionClass == ActionClass.OTHER || ratePerSecond[actionClass.ordinal()] <= 0) {
+            return 0;
+        }
+        TokenBucket[] clientBuckets = buckets.computeIfAbsent(clientKey, k -> new TokenBucket[ActionClass.values().length]);
+        TokenBucket bucket;
+        synchronized (clientBuckets) {
+            bucket = clientBuckets[actionClass.ordinal()];
+            if (bucket == null) {
+                bucket = new TokenBucket(ratePerSecond[actionClass.ordinal()], burst[actionClass.ordinal()]);
+                clientBuckets[actionClass.ordinal()] = bucket;
+            }
+        }
+        long retryAfterMs = bucket.tryTake();
+        if (retryAfterMs > 0) {
+            rateLimited.increment();
+            rateLimitedByClass[actionClass.ordinal()].increment();
+        }
+        return retryAfterMs;
+    }
+
+    /**
+     * Bỏ bucket của client (kết nối đóng khi chưa đăng nhập)
+     */
+    public void forget(Object clientKey) {
+        buckets.remove(clientKey);
+    }
+
+    /**
+     * Xin một chỗ xử lý; chờ tối đa server.admission.queue.timeout.ms nếu hàng chờ còn chỗ.
+     * Trả về false nếu quá tải (phải gọi release() sau khi xử lý xong nếu true)
+     */
+    public boolean tryEnter() {
+        if (concurrencyPermits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            overloaded.increment();
+            return false;
+        }
+        try {
+            if (concurrencyPermits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                admitted.increment();
+                return true;
+            }
+            overloaded.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Xin một chỗ xử lý, không chờ (request pipelined giữ chỗ trước khi xếp vào pool,
+     * trên thread không được chặn). Trả về false nếu quá tải
+     */
+    public boolean tryEnterNow() {
+        if (concurrencyPermits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+        overloaded.increment();
+        return false;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void release() {
+        concurrencyPermits.release();
+    }
+
+    /**
+     * Bắt đầu drain: từ chối request mới (kiểm tra bằng isDraining() trước tryEnter()),
+     * báo client thử lại sau retryAfterMs
+     */
+    public void startDrain(long retryAfterMs) {
+        drainRetryAfterMs = retryAfterMs;
+        draining = true;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public long getDrainRetryAfterMs() {
+        return drainRetryAfterMs;
+    }
+
+    /**
+     * Chờ tới khi không còn request nào đang xử lý; false nếu hết thời gian chờ
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        try {
+            if (concurrencyPermits.tryAcquire(maxConcurrent, timeoutMs, TimeUnit.MILLISECONDS)) {
+                concurrencyPermits.release(maxConcurrent);
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public long getOverloadRetryAfterMs() {
+        return overloadRetryAfterMs;
+    }
+
+    /**
+     * Số liệu: số request được nhận/bị giới hạn tốc độ (theo nhóm)/bị từ chối vì quá tải,
+     * số request đang xử lý và đang chờ
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> byClass = new HashMap<>();
+        for (ActionClass actionClass : ActionClass.values()) {
+            if (actionClass != ActionClass.OTHER) {
+                byClass.put(actionClass.name().toLowerCase(Locale.ROOT), rateLimitedByClass[actionClass.ordinal()].sum());
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("admitted", admitted.sum());
+        stats.put("rateLimited", rateLimited.sum());
+        stats.put("rateLimitedByClass", byClass);
+        stats.put("overloaded", overloaded.sum());
+        stats.put("inFlight", maxConcurrent - concurrencyPermits.availablePermits());
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("queued", queued.get());
+        stats.put("trackedClients", buckets.size());
+        stats.put("draining", draining);
+        return stats;
+    }
+
+    /**
+     * Token bucket: nạp ratePerSecond token mỗi giây, tối đa burst token
+     */
+    private static class TokenBucket {
+        private final double ratePerMs;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double ratePerSecond, double capacity) {
+            this.ratePerMs = ratePerSecond / 1000.0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        synchronized long tryTake() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerMs);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerMs));
+        }
+    }
+}
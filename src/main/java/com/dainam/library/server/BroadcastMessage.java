@@ -0,0 +1,51 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.JsonUtil;
+import com.dainam.library.util.WireFormat;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+
+/**
+ * Một message broadcast đã serialize, dùng chung cho mọi client nhận nó:
+ * JSON được dựng một lần, bản Smile được tạo ở lần đầu có client nhị phân cần rồi cache lại,
+ * nên mỗi sự kiện chỉ được encode một lần cho mỗi định dạng wire.
+ */
+final class BroadcastMessage {
+
+    private final String json;
+    // Cây JSON gốc nếu có (encode Smile thẳng từ cây, không parse lại chuỗi)
+    private final JsonNode tree;
+    private volatile byte[] smile;
+
+    private BroadcastMessage(String json, JsonNode tree) {
+        this.json = json;
+        this.tree = tree;
+    }
+
+    static BroadcastMessage of(String json) {
+        return new BroadcastMessage(json, null);
+    }
+
+    static BroadcastMessage of(JsonNode tree) throws JsonProcessingException {
+        return new BroadcastMessage(JsonUtil.getMapper().writeValueAsString(tree), tree);
+    }
+
+    String json() {
+        return json;
+    }
+
+    /**
+     * Payload Smile của message (frame cho client nhị phân)
+     */
+    byte[] smile() throws IOException {
+        byte[] result = smile;
+        if (result == null) {
+            JsonNode source = tree != null ? tree : JsonUtil.getMapper().readTree(json);
+            result = JsonUtil.getMapper(WireFormat.SMILE).writeValueAsBytes(source);
+            smile = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.JsonUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Sự kiện thay đổi dạng delta: chỉ mang key của đối tượng và các field đã đổi.
+ * Các sự kiện cùng đối tượng có thể gộp (merge) thành một, field sau ghi đè field trước.
+ */
+public class ChangeEvent {
+    
+    public static final String ENTITY_BOOK = "book";
+    public static final String ENTITY_USER = "user";
+    public static final String ENTITY_BORROW = "borrow";
+    
+    private final String eventType;
+    private final String entity;
+    private final String key;
+    private final ObjectNode changes;
+    private final boolean deleted;
+    // Key dùng để định tuyến tới topic (bookId, userId)
+    private final Map<String, String> routeKeys;
+    private volatile BroadcastMessage message;
+    
+    private ChangeEvent(String eventType, String entity, String key, ObjectNode changes,
+                        boolean deleted, Map<String, String> routeKeys) {
+        this.eventType = eventType;
+        this.entity = entity;
+        this.key = key;
+        this.changes = changes;
+        this.deleted = deleted;
+        this.routeKeys = routeKeys;
+    }
+    
+    /**
+     * Đối tượng mới: delta là toàn bộ field của đối tượng
+     */
+    public static ChangeEvent created(String eventType, String entity, String key, Object value) {
+        return new ChangeEvent(eventType, entity, key, JsonUtil.getMapper().valueToTree(value), false, routes(entity, key));
+    }
+    
+    /**
+     * Đối tượng cập nhật: delta là các field khác nhau giữa before và after
+     * (before null thì gửi toàn bộ after)
+     */
+    public static ChangeEvent updated(String eventType, String entity, String key, Object before, Object after) {
+        ObjectNode afterTree = JsonUtil.getMapper().valueToTree(after);
+        ObjectNode changes = before != null ? diff(JsonUtil.getMapper().valueToTree(before), afterTree) : afterTree;
+        return new ChangeEvent(eventType, entity, key, changes, false, routes(entity, key));
+    }
+    
+    /**
+     * Delta với các field cho sẵn
+     */
+    public static ChangeEvent patch(String eventType, String entity, String key, Map<String, ?> fields) {
+        return new ChangeEvent(eventType, entity, key, JsonUtil.getMapper().valueToTree(fields), false, routes(entity, key));
+    }
+    
+    public static ChangeEvent deleted(String eventType, String entity, String key) {
+        return new ChangeEvent(eventType, entity, key, null, true, routes(entity, key));
+    }
+    
+    private static Map<String, String> routes(String entity, String key) {
+        Map<String, String> routeKeys = new HashMap<>();
+        if (ENTITY_BOOK.equals(entity)) {
+            routeKeys.put("bookId", key);
+        } else if (ENTITY_USER.equals(entity)) {
+            routeKeys.put("userId", key);
+        }
+        return routeKeys;
+    }
+    
+    /**
+     * Thêm key định tuyến (ví dụ userId của phiếu mượn)
+     */
+    public ChangeEvent withRouteKey(String name, String value) {
+        routeKeys.put(name, value);
+        return this;
+    }
+    
+    private static ObjectNode diff(ObjectNode before, ObjectNode after) {
+        ObjectNode changes = JsonUtil.getMapper().createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = after.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().equals(before.get(field.getKey()))) {
+                changes.set(field.getKey(), field.getValue());
+            }
+        }
+        return changes;
+    }
+    
+    /**
+     * Gộp với sự kiện xảy ra sau trên cùng đối tượng
+     */
+    public ChangeEvent merge(ChangeEvent later) {
+        if (later.deleted || deleted) {
+            return later;
+        }
+        ObjectNode merged = changes.deepCopy();
+        merged.setAll(later.changes);
+        Map<String, String> mergedRoutes = new HashMap<>(routeKeys);
+        mergedRoutes.putAll(later.routeKeys);
+        return new ChangeEvent(later.eventType, entity, key, merged, false, mergedRoutes);
+    }
+    
+    /**
+     * Key để gộp các sự kiện cùng đối tượng
+     */
+    public String getCoalesceKey() {
+        return entity + ":" + key;
+    }
+    
+    /**
+     * Message data_change dạng JSON (chỉ serialize một lần cho mọi client)
+     */
+    public String toJson() throws Exception {
+        return toMessage().json();
+    }
+    
+    /**
+     * Message data_change đã serialize, dùng chung cho mọi client (JSON và Smile mỗi loại một lần)
+     */
+    BroadcastMessage toMessage() throws Exception {
+        BroadcastMessage result = message;
+        if (result == null) {
+            ObjectNode tree = JsonUtil.getMapper().createObjectNode();
+            tree.put("type", "data_change");
+            tree.put("eventType", eventType);
+            tree.put("entity", entity);
+            tree.put("key", key);
+            tree.put("deleted", deleted);
+            if (changes != null) {
+                tree.set("changes", changes);
+            }
+            result = BroadcastMessage.of(tree);
+            message = result;
+        }
+        return result;
+    }
+    
+    public String getEventType() { return eventType; }
+    public String getEntity() { return entity; }
+    public String getKey() { return key; }
+    public boolean isDeleted() { return deleted; }
+    public String getRouteKey(String name) { return routeKeys.get(name); }
+}
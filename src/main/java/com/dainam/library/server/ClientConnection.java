@@ -0,0 +1,62 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.WireFormat;
+
+/**
+ * Kênh gửi dữ liệu tới một client, độc lập với transport bên dưới
+ * (blocking socket hoặc NIO selector)
+ */
+public interface ClientConnection {
+    
+    /**
+     * Gửi một message (một dòng JSON) tới client
+     */
+    void send(String message);
+    
+    /**
+     * Gửi một frame nhị phân (transport tự thêm header độ dài)
+     */
+    void sendFrame(byte[] payload);
+    
+    /**
+     * Đổi định dạng frame sau handshake; compressionThreshold là kích thước payload
+     * tối thiểu để nén frame gửi đi (FrameIO.NO_COMPRESSION nếu không nén)
+     */
+    void setWireFormat(WireFormat format, int compressionThreshold);
+
+    /**
+     * false khi dữ liệu chờ ghi đã vượt giới hạn (client đọc chậm); send vẫn nhận
+     * response nhưng broadcast nên chờ listener của setWritableListener
+     */
+    boolean isWritable();
+
+    /**
+     * Còn dữ liệu đã xếp hàng nhưng chưa ghi ra socket
+     */
+    boolean hasPendingWrites();
+
+    /**
+     * Listener được gọi khi kết nối hết đầy (trên thread ghi, không được chặn)
+     */
+    void setWritableListener(Runnable listener);
+
+    /**
+     * Một request của kết nối được chuyển sang pool xử lý: transport tính nó như frame
+     * chưa xử lý xong (NIO ngừng đọc khi quá nhiều) cho tới requestCompleted()
+     */
+    default void requestDeferred() {
+    }
+
+    default void requestCompleted() {
+    }
+
+    /**
+     * Đóng kết nối ngay, kể cả khi đang có lần ghi bị kẹt (bỏ dữ liệu chưa ghi)
+     */
+    void close();
+    
+    /**
+     * Địa chỉ của client để ghi log
+     */
+    String getRemoteAddress();
+}
@@ -1,116 +1,470 @@
 package com.dainam.library.server;
 
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.config.DatabaseConfig;
 import com.dainam.library.model.*;
 import com.dainam.library.service.*;
+import com.dainam.library.util.EventBus;
+import com.dainam.library.util.FrameIO;
+import com.dainam.library.util.JsonUtil;
 import com.dainam.library.util.LoggerUtil;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.dainam.library.util.PasswordVerifier;
+import com.dainam.library.util.WireFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.NullNode;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Xử lý kết nối từ client với hỗ trợ multi-user
  */
 public class ClientHandler implements Runnable {
     
+    // Reader/writer dùng chung cho mọi kết nối (thread-safe, đã cache cấu hình)
+    private static final ObjectReader REQUEST_READER = JsonUtil.readerFor(Request.class);
+    private static final ObjectWriter RESPONSE_WRITER = JsonUtil.writerFor(Response.class);
+    private static final ObjectReader SMILE_REQUEST_READER = JsonUtil.readerFor(Request.class, WireFormat.SMILE);
+    private static final ObjectWriter SMILE_RESPONSE_WRITER = JsonUtil.writerFor(Response.class, WireFormat.SMILE);
+    
+    // Cùng charset với BufferedReader/PrintWriter của ServerConnection để tương thích wire
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final int MAX_FRAME_BYTES = AppConfig.getInt("server.nio.max.frame.bytes", 16 * 1024 * 1024);
+    private static final boolean BINARY_ENABLED = AppConfig.getBoolean("server.protocol.binary.enabled", true);
+    private static final boolean COMPRESSION_ENABLED = AppConfig.getBoolean("server.compression.enabled", true);
+    private static final int COMPRESSION_THRESHOLD = AppConfig.getInt("server.compression.threshold.bytes", 8192);
+    
+    // Số request pipelined tối đa đang xử lý cùng lúc trên một kết nối
+    private static final int MAX_INFLIGHT = Math.max(1, AppConfig.getInt("server.pipeline.max.inflight", 32));
+    // Số sub-request tối đa trong một batch
+    private static final int MAX_BATCH_SIZE = Math.max(1, AppConfig.getInt("server.batch.max.size", 50));
+    // Cursor: số cursor mở tối đa mỗi kết nối, kích thước trang tối đa và số dòng mỗi message stream
+    private static final int MAX_CURSORS = Math.max(1, AppConfig.getInt("server.cursor.max.open", 8));
+    private static final int MAX_CURSOR_PAGE_SIZE = Math.max(1, AppConfig.getInt("server.cursor.max.page.size", 500));
+    private static final int CURSOR_CHUNK_ROWS = Math.max(1, AppConfig.getInt("server.cursor.chunk.rows", 50));
+    
     private final Socket clientSocket;
-    private final ObjectMapper objectMapper;
-    private final Map<String, User> activeSessions;
+    private final ClientConnection connection;
     private final SessionManager sessionManager;
-    private PrintWriter writer;
-    private String currentSessionId;
+    private final AdmissionController admission;
+    private final AtomicBoolean cleanedUp = new AtomicBoolean(false);
+    private volatile String currentSessionId;
+    // Định dạng wire của kết nối, đổi một lần qua action negotiate
+    private volatile WireFormat wireFormat = WireFormat.JSON;
+    // Giữ định dạng không đổi giữa lúc chọn encoder và lúc ghi: response, dòng cursor
+    // và broadcast từ writer pool không thể chen một message JSON vào sau khi đã chuyển sang Smile
+    private final ReentrantLock sendLock = new ReentrantLock();
+    // Cursor đang mở của kết nối, theo cursorId
+    private final Map<String, BookCursor> cursors = new ConcurrentHashMap<>();
+    
+    // Request có requestId được xử lý song song, response trả về theo thứ tự hoàn thành
+    private final ExecutorService requestExecutor;
+    private final ExecutorService loginExecutor;
+    private final Semaphore inflightPermits = new Semaphore(MAX_INFLIGHT);
     
     // Services
     private final UserService userService;
     private final BookService bookService;
     private final BorrowService borrowService;
-      public ClientHandler(Socket clientSocket) {
+    private final FineService fineService;
+    
+    /**
+     * Handler cho socket blocking (chạy bằng run() trên thread riêng)
+     */
+    public ClientHandler(Socket clientSocket) {
+        this(clientSocket, new SocketClientConnection(clientSocket));
+    }
+    
+    /**
+     * Handler cho transport không dùng thread riêng (NIO): frame được đẩy vào qua handleMessage()
+     */
+    public ClientHandler(ClientConnection connection) {
+        this(null, connection);
+    }
+    
+    private ClientHandler(Socket clientSocket, ClientConnection connection) {
         this.clientSocket = clientSocket;
-        this.objectMapper = new ObjectMapper();
-        // Configure ObjectMapper to handle Java 8 time types
-        this.objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
-        this.objectMapper.disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-        
-        this.activeSessions = new ConcurrentHashMap<>();
+        this.connection = connection;
         this.sessionManager = SessionManager.getInstance();
+        this.admission = AdmissionController.getInstance();
         
-        // Initialize services
-        this.userService = new UserService();
-        this.bookService = new BookService();
-        this.borrowService = new BorrowService();
+        // Services dùng chung cho mọi kết nối
+        ServiceRegistry services = ServiceRegistry.getInstance();
+        this.userService = services.getUserService();
+        this.bookService = services.getBookService();
+        this.borrowService = services.getBorrowService();
+        this.fineService = services.getFineService();
+        this.requestExecutor = services.getRequestExecutor();
+        this.loginExecutor = services.getLoginExecutor();
         
         // Register with session manager
         sessionManager.registerClient(this);
+        // Kết nối hết đầy: outbox ghi tiếp broadcast đang chờ
+        connection.setWritableListener(() -> sessionManager.onClientWritable(this));
     }
     
     @Override
     public void run() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-            this.writer = new PrintWriter(clientSocket.getOutputStream(), true);
-            
-            String inputLine;
-            while ((inputLine = reader.readLine()) != null) {
-                try {
-                    // Parse request
-                    Request request = objectMapper.readValue(inputLine, Request.class);
-                    LoggerUtil.debug("Nhận request: " + request.getAction());
-                    
-                    // Update session activity if exists
-                    if (currentSessionId != null) {
-                        SessionManager.ClientSession session = sessionManager.getSession(currentSessionId);
-                        if (session != null) {
-                            session.updateActivity();
-                        }
+        if (clientSocket == null) {
+            throw new IllegalStateException("ClientHandler không gắn với socket blocking");
+        }
+        SocketClientConnection socketConnection = (SocketClientConnection) connection;
+        long idleTimeoutMs = ConnectionSettings.getInstance().getIdleTimeoutMs();
+        try (InputStream in = new BufferedInputStream(clientSocket.getInputStream())) {
+            while (true) {
+                // Client chưa đọc hết response: chưa nhận request mới (giới hạn bộ nhớ chờ ghi)
+                if (!socketConnection.awaitWritable(idleTimeoutMs)) {
+                    LoggerUtil.warn("Client " + connection.getRemoteAddress() + " không đọc dữ liệu, đóng kết nối");
+                    break;
+                }
+                if (wireFormat.isBinary()) {
+                    byte[] frame = FrameIO.readFrame(in, MAX_FRAME_BYTES);
+                    if (frame == null) {
+                        break;
                     }
-                    
-                    // Process request
-                    Response response = processRequest(request);
-                    
-                    // Send response
-                    String responseJson = objectMapper.writeValueAsString(response);
-                    writer.println(responseJson);
-                    
-                } catch (Exception e) {
-                    LoggerUtil.error("Lỗi xử lý request: " + e.getMessage());
-                    Response errorResponse = new Response(false, "Lỗi xử lý request: " + e.getMessage(), null);
-                    sendMessage(objectMapper.writeValueAsString(errorResponse));
+                    handleBinaryMessage(frame);
+                } else {
+                    String inputLine = FrameIO.readLine(in, CHARSET, MAX_FRAME_BYTES);
+                    if (inputLine == null) {
+                        break;
+                    }
+                    handleMessage(inputLine);
                 }
             }
             
+        } catch (SocketTimeoutException e) {
+            // Không nhận được gì (kể cả heartbeat) trong server.connection.idle.timeout.ms
+            LoggerUtil.info("Đóng kết nối rảnh: " + connection.getRemoteAddress());
+            ConnectionSettings.getInstance().recordIdleClose();
         } catch (IOException e) {
             LoggerUtil.error("Lỗi kết nối client: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             cleanup();
         }
     }
+    
+    /**
+     * Xử lý một dòng request JSON và gửi response về client.
+     * Request không có requestId được xử lý tuần tự như trước; request có requestId
+     * được đưa sang pool để client có thể pipeline nhiều request trên một kết nối.
+     */
+    public void handleMessage(String inputLine) {
+        if (inputLine.isEmpty()) {
+            // Heartbeat: trả lại ngay, không parse
+            ConnectionSettings.getInstance().recordHeartbeat();
+            connection.send("");
+            return;
+        }
+        Request request;
+        try {
+            request = REQUEST_READER.readValue(inputLine);
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi xử lý request: " + e.getMessage());
+            sendResponse(new Response(false, "Lỗi xử lý request: " + e.getMessage(), null));
+            return;
+        }
+        dispatch(request);
+    }
+    
+    /**
+     * Xử lý một frame request nhị phân (Smile) sau khi đã negotiate
+     */
+    public void handleBinaryMessage(byte[] payload) {
+        if (payload.length == 0) {
+            ConnectionSettings.getInstance().recordHeartbeat();
+            connection.sendFrame(payload);
+            return;
+        }
+        Request request;
+        try {
+            request = SMILE_REQUEST_READER.readValue(payload);
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi xử lý request: " + e.getMessage());
+            sendResponse(new Response(false, "Lỗi xử lý request: " + e.getMessage(), null));
+            return;
+        }
+        dispatch(request);
+    }
+    
+    private void dispatch(Request request) {
+        if ("negotiate".equals(request.getAction())) {
+            handleNegotiate(request);
+            return;
+        }
+        if (request.getRequestId() == null) {
+            handleRequest(request);
+            return;
+        }
+        
+        // Transport blocking: chặn thread đọc riêng của kết nối khi client gửi quá nhiều request
+        // chưa hoàn thành. NIO: không chặn worker dùng chung, transport tính request đang chạy
+        // vào số frame chờ xử lý và ngừng đọc kết nối khi vượt server.nio.max.pending.frames
+        boolean blocking = clientSocket != null;
+        if (blocking) {
+            try {
+                inflightPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        connection.requestDeferred();
+        
+        // Kiểm tra tốc độ và giữ chỗ xử lý trước khi xếp vào pool: quá tải thì trả lời
+        // retryAfterMs ngay thay vì để request nằm trong hàng đợi của pool.
+        // Login giữ chỗ trên login worker (pool riêng)
+        boolean login = "login".equals(request.getAction());
+        boolean slotHeld = !login && !"ping".equals(request.getAction());
+        Response rejected = checkRate(request);
+        if (rejected == null && slotHeld && !admission.tryEnterNow()) {
+            rejected = retryLater("Máy chủ đang quá tải, vui lòng thử lại sau", admission.getOverloadRetryAfterMs());
+        }
+        if (rejected == null) {
+            try {
+                (login ? loginExecutor : requestExecutor).execute(() -> {
+                    try {
+                        handleRequest(request, true, slotHeld);
+                    } finally {
+                        completeDeferred(blocking);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                if (slotHeld) {
+                    admission.release();
+                }
+                // Hàng đợi của pool đầy hoặc server đang dừng: báo client thử lại thay vì chiếm thread đọc
+                rejected = retryLater(login ? "Hệ thống đang bận xác thực, vui lòng thử lại"
+                    : "Máy chủ đang bận, vui lòng thử lại sau", admission.getOverloadRetryAfterMs());
+            }
+        }
+        completeDeferred(blocking);
+        rejected.setRequestId(request.getRequestId());
+        sendResponse(rejected);
+    }
+    
+    private void completeDeferred(boolean blocking) {
+        if (blocking) {
+            inflightPermits.release();
+        }
+        connection.requestCompleted();
+    }
+    
+    private void handleRequest(Request request) {
+        handleRequest(request, false, false);
+    }
+    
+    /**
+     * rateChecked: dispatch đã kiểm tra drain/tốc độ; slotHeld: dispatch đã giữ chỗ xử lý
+     * (được trả lại ở đây)
+     */
+    private void handleRequest(Request request, boolean rateChecked, boolean slotHeld) {
+        Response response;
+        try {
+            LoggerUtil.debug("Nhận request: " + request.getAction()
+                + (request.getRequestId() != null ? " #" + request.getRequestId() : ""));
+            
+            // Update session activity if exists
+            if (currentSessionId != null) {
+                SessionManager.ClientSession session = sessionManager.getSession(currentSessionId);
+                if (session != null) {
+                    session.updateActivity();
+                }
+            }
+            
+            // Process request (qua giới hạn tốc độ và giới hạn xử lý đồng thời)
+            if (slotHeld) {
+                response = processRequest(request);
+            } else if (rateChecked) {
+                response = enterAndProcess(request);
+            } else {
+                response = admitAndProcess(request);
+            }
+            
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi xử lý request: " + e.getMessage());
+            response = new Response(false, "Lỗi xử lý request: " + e.getMessage(), null);
+        } finally {
+            if (slotHeld) {
+                admission.release();
+            }
+        }
+        response.setRequestId(request.getRequestId());
+        sendResponse(response);
+    }
+    
+    /**
+     * Giới hạn tốc độ theo session/kết nối và số request xử lý đồng thời toàn server;
+     * vượt giới hạn thì trả lời ngay kèm retryAfterMs
+     */
+    private Response admitAndProcess(Request request) {
+        Response rejected = checkRate(request);
+        return rejected != null ? rejected : enterAndProcess(request);
+    }
+    
+    /**
+     * Từ chối khi server đang drain hoặc client vượt giới hạn tốc độ; null nếu được qua
+     */
+    private Response checkRate(Request request) {
+        if (admission.isDraining() && !"ping".equals(request.getAction())) {
+            // Server đang dừng: không bắt đầu thao tác mới (mượn/trả dở dang khi tắt)
+            return retryLater("Máy chủ đang khởi động lại, vui lòng thử lại sau",
+                admission.getDrainRetryAfterMs());
+        }
+        long retryAfterMs = admission.tryAcquireRate(rateLimitKey(), request.getAction());
+        if (retryAfterMs > 0) {
+            return retryLater("Thao tác quá nhanh, vui lòng thử lại sau", retryAfterMs);
+        }
+        return null;
+    }
+    
+    /**
+     * Xin chỗ xử lý (chờ ngắn theo hàng chờ của AdmissionController) rồi xử lý
+     */
+    private Response enterAndProcess(Request request) {
+        if ("ping".equals(request.getAction())) {
+            return processRequest(request);
+        }
+        if (!admission.tryEnter()) {
+            return retryLater("Máy chủ đang quá tải, vui lòng thử lại sau", admission.getOverloadRetryAfterMs());
+        }
+        try {
+            return processRequest(request);
+        } finally {
+            admission.release();
+        }
+    }
+    
+    /**
+     * Bucket theo session đã gắn với kết nối này, hoặc theo kết nối khi chưa đăng nhập
+     * (không dùng sessionId client tự gửi để tránh đổi id lấy bucket mới)
+     */
+    private Object rateLimitKey() {
+        String sessionId = currentSessionId;
+        return sessionId != null ? sessionId : this;
+    }
+    
+    private static Response retryLater(String message, long retryAfterMs) {
+        return new Response(false, message, Map.of("retryAfterMs", retryAfterMs));
+    }
+    
+    private void sendResponse(Response response) {
+        sendLock.lock();
+        try {
+            if (wireFormat.isBinary()) {
+                connection.sendFrame(SMILE_RESPONSE_WRITER.writeValueAsBytes(response));
+            } else {
+                connection.send(RESPONSE_WRITER.writeValueAsString(response));
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi gửi response: " + e.getMessage());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    
+    /**
+     * Handshake chọn định dạng wire: data.formats là danh sách theo thứ tự ưu tiên của client,
+     * data.compression là các thuật toán nén client hỗ trợ (chỉ áp dụng với frame nhị phân).
+     * Response luôn gửi bằng JSON, sau đó cả hai phía chuyển sang định dạng đã chọn.
+     * Việc gửi response và đổi định dạng nằm trong sendLock nên broadcast không xen vào giữa.
+     */
+    private void handleNegotiate(Request request) {
+        WireFormat selected = WireFormat.JSON;
+        RequestData data = new RequestData(request.getData(), request.getSessionId());
+        JsonNode formats = data.getNode("formats");
+        if (BINARY_ENABLED && formats != null && formats.isArray()) {
+            for (JsonNode format : formats) {
+                WireFormat candidate = WireFormat.fromId(format.asText());
+                if (candidate != null) {
+                    selected = candidate;
+                    break;
+                }
+            }
+        }
+        
+        boolean compress = false;
+        JsonNode compression = data.getNode("compression");
+        if (COMPRESSION_ENABLED && selected.isBinary() && compression != null && compression.isArray()) {
+            for (JsonNode algorithm : compression) {
+                compress |= "deflate".equalsIgnoreCase(algorithm.asText());
+            }
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("format", selected.getId());
+        // Client hỗ trợ thì gửi heartbeat (dòng/frame rỗng) theo chu kỳ này
+        result.put("heartbeatIntervalMs", ConnectionSettings.getInstance().getHeartbeatIntervalMs());
+        if (compress) {
+            result.put("compression", "deflate");
+            result.put("compressionThreshold", COMPRESSION_THRESHOLD);
+        }
+        
+        Response response = new Response(true, "Đã chọn định dạng " + selected.getId(), result);
+        response.setRequestId(request.getRequestId());
+        sendLock.lock();
+        try {
+            // Đổi định dạng đọc trước khi client có thể gửi frame mới
+            connection.setWireFormat(selected, compress ? COMPRESSION_THRESHOLD : FrameIO.NO_COMPRESSION);
+            sendResponse(response);
+            wireFormat = selected;
+        } finally {
+            sendLock.unlock();
+        }
+        LoggerUtil.info("Client " + connection.getRemoteAddress() + " dùng định dạng " + selected.getId()
+            + (compress ? " + deflate" : ""));
+    }
+    
+    /**
+     * Được transport gọi khi client ngắt kết nối
+     */
+    public void onDisconnect() {
+        cleanup();
+    }
       /**
      * Xử lý request từ client
      */
     private Response processRequest(Request request) {
         String action = request.getAction();
-        Map<String, Object> data = request.getData();
-        String sessionId = request.getSessionId();
-        
-        // Add sessionId to data for handler methods to use
-        if (data == null) {
-            data = new HashMap<>();
-        }
-        data.put("sessionId", sessionId);
+        RequestData data = new RequestData(request.getData(), request.getSessionId());
           try {
             switch (action) {
                 case "login":
                     return handleLogin(data);
+                case "resume":
+                    return handleResume(data);
                 case "logout":
                     return handleLogout(data);
                 case "register":
                     return handleRegister(data);
                 case "ping":
                     return handlePing(data);
+                case "batch":
+                    return handleBatch(data);
+                case "subscribe":
+                    return handleSubscribe(data);
+                case "unsubscribe":
+                    return handleUnsubscribe(data);
                     
                 // User management
                 case "getAllUsers":
@@ -135,6 +489,12 @@ public class ClientHandler implements Runnable {
                     return handleGetBooks(data);
                 case "getBookById":
                     return handleGetBookById(data);
+                case "openCursor":
+                    return handleOpenCursor(data);
+                case "fetchNext":
+                    return handleFetchNext(data);
+                case "closeCursor":
+                    return handleCloseCursor(data);
                 case "searchBooks":
                     return handleSearchBooks(data);
                 case "createBook":
@@ -163,6 +523,15 @@ public class ClientHandler implements Runnable {
                 // Statistics
                 case "getStats":
                     return handleGetStats(data);
+                case "getTotalBooks":
+                case "getAvailableBooks":
+                case "getTotalUsers":
+                case "getPendingUsers":
+                case "getTotalBorrows":
+                case "getBorrowedBooks":
+                case "getOverdueBooks":
+                case "getTotalFines":
+                    return handleGetStatistic(action, data);
                 default:
                     return new Response(false, "Action không được hỗ trợ: " + action, null);
             }
@@ -173,25 +542,26 @@ public class ClientHandler implements Runnable {
     }
     
     // Authentication handlers
-    private Response handleLogin(Map<String, Object> data) {
+    private Response handleLogin(RequestData data) {
         try {
-            String email = (String) data.get("email");
-            String password = (String) data.get("password");
+            String email = data.getString("email");
+            String password = data.getString("password");
             
             User user = userService.authenticate(email, password);
             if (user != null) {
-                // Tạo session
-                String sessionId = generateSessionId();
-                activeSessions.put(sessionId, user);
-                
-                // Register with session manager
-                sessionManager.createSession(user.getUserId(), sessionId, this);
+                // Session do SessionStore tạo khi xác thực, gắn với kết nối này
+                String sessionId = user.getSessionId();
+                SessionManager.ClientSession session = sessionManager.createSession(user, sessionId, this);
+                if (session == null) {
+                    return new Response(false, "Tài khoản vừa đăng nhập ở nơi khác, vui lòng thử lại", null);
+                }
                 currentSessionId = sessionId;
                 
                 Map<String, Object> responseData = Map.of(
                     "sessionId", sessionId,
                     "user", user,
-                    "connectedUsers", sessionManager.getActiveUserCount()
+                    "connectedUsers", sessionManager.getActiveUserCount(),
+                    "resumeToken", sessionManager.issueResumeToken(session)
                 );
                 
                 LoggerUtil.info("User logged in: " + user.getEmail() + " (Session: " + sessionId + ")");
@@ -204,10 +574,28 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleLogout(Map<String, Object> data) {
-        String sessionId = (String) data.get("sessionId");
-        if (sessionId != null) {
-            activeSessions.remove(sessionId);
+    /**
+     * Khôi phục session sau khi kết nối lại bằng token nhận lúc đăng nhập (không kiểm tra mật khẩu)
+     */
+    private Response handleResume(RequestData data) {
+        SessionManager.ClientSession session = sessionManager.resumeSession(data.getString("resumeToken"), this);
+        if (session == null) {
+            return new Response(false, "Phiên đăng nhập đã hết hạn, vui lòng đăng nhập lại", null);
+        }
+        currentSessionId = session.getSessionId();
+        
+        Map<String, Object> responseData = Map.of(
+            "sessionId", session.getSessionId(),
+            "user", session.getUser(),
+            "connectedUsers", sessionManager.getActiveUserCount(),
+            "resumeToken", sessionManager.issueResumeToken(session)
+        );
+        return new Response(true, "Khôi phục phiên đăng nhập thành công", responseData);
+    }
+    
+    private Response handleLogout(RequestData data) {
+        String sessionId = data.getSessionId();
+        if (sessionId != null && sessionUser(sessionId) != null) {
             sessionManager.removeSession(sessionId);
             if (sessionId.equals(currentSessionId)) {
                 currentSessionId = null;
@@ -216,11 +604,12 @@ public class ClientHandler implements Runnable {
         return new Response(true, "Đăng xuất thành công", null);
     }
     
-    private Response handleRegister(Map<String, Object> data) {
+    private Response handleRegister(RequestData data) {
         try {
-            User user = objectMapper.convertValue(data.get("user"), User.class);
+            User user = data.getObject("user", User.class);
             boolean success = userService.register(user);
             if (success) {
+                publishChange(EventBus.Events.USER_ADDED, userChange(EventBus.Events.USER_ADDED, user.getUserId()));
                 return new Response(true, "Đăng ký thành công", null);
             } else {
                 return new Response(false, "Email đã tồn tại", null);
@@ -231,10 +620,10 @@ public class ClientHandler implements Runnable {
     }
     
     // Book handlers
-    private Response handleGetBooks(Map<String, Object> data) {
+    private Response handleGetBooks(RequestData data) {
         try {
-            int page = (Integer) data.getOrDefault("page", 1);
-            int size = (Integer) data.getOrDefault("size", 10);
+            int page = data.getInt("page", 1);
+            int size = data.getInt("size", 10);
             List<Book> books = bookService.getAllBooks(page, size);
             return new Response(true, "Lấy danh sách sách thành công", books);
         } catch (Exception e) {
@@ -242,9 +631,99 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleSearchBooks(Map<String, Object> data) {
+    /**
+     * Mở cursor duyệt sách theo keyset bookId. Server chỉ giữ vị trí (bookId cuối),
+     * không giữ dữ liệu, nên bộ nhớ mỗi cursor là cố định.
+     */
+    private Response handleOpenCursor(RequestData data) {
+        String collection = data.getString("collection");
+        if (collection != null && !"books".equals(collection)) {
+            return new Response(false, "Cursor chưa hỗ trợ collection: " + collection, null);
+        }
+        if (cursors.size() >= MAX_CURSORS) {
+            return new Response(false, "Đã mở quá " + MAX_CURSORS + " cursor", null);
+        }
+        int pageSize = Math.min(Math.max(1, data.getInt("pageSize", 100)), MAX_CURSOR_PAGE_SIZE);
+        String cursorId = "cursor_" + UUID.randomUUID().toString().substring(0, 8);
+        cursors.put(cursorId, new BookCursor(pageSize));
+        return new Response(true, "Mở cursor thành công", Map.of("cursorId", cursorId, "pageSize", pageSize));
+    }
+    
+    /**
+     * Đọc trang tiếp theo của cursor. Các dòng được gửi ngay khi đọc ra từ Mongo
+     * bằng message {type: cursor_rows} theo từng nhóm CURSOR_CHUNK_ROWS dòng;
+     * response cuối cho biết số dòng đã gửi và còn dữ liệu hay không.
+     */
+    private Response handleFetchNext(RequestData data) {
+        String cursorId = data.getString("cursorId");
+        BookCursor cursor = cursorId != null ? cursors.get(cursorId) : null;
+        if (cursor == null) {
+            return new Response(false, "Cursor không tồn tại hoặc đã đóng", null);
+        }
+        
+        synchronized (cursor) {
+            List<Book> chunk = new ArrayList<>(CURSOR_CHUNK_ROWS);
+            int[] count = {0};
+            String lastBookId;
+            try {
+                lastBookId = bookService.streamBooksAfter(cursor.lastBookId, cursor.pageSize, book -> {
+                    chunk.add(book);
+                    count[0]++;
+                    if (chunk.size() >= CURSOR_CHUNK_ROWS) {
+                        sendCursorRows(cursorId, chunk);
+                        chunk.clear();
+                    }
+                });
+            } catch (Exception e) {
+                // Trang đọc dở: đóng cursor, client phải coi kết quả đã nhận là không đầy đủ
+                cursors.remove(cursorId);
+                return new Response(false, "Lỗi đọc dữ liệu cursor: " + e.getMessage(),
+                    Map.of("cursorId", cursorId, "count", count[0], "hasMore", false));
+            }
+            if (!chunk.isEmpty()) {
+                sendCursorRows(cursorId, chunk);
+            }
+            if (lastBookId != null) {
+                cursor.lastBookId = lastBookId;
+            }
+            
+            boolean hasMore = count[0] == cursor.pageSize;
+            if (!hasMore) {
+                cursors.remove(cursorId);
+            }
+            return new Response(true, "Lấy dữ liệu cursor thành công",
+                Map.of("cursorId", cursorId, "count", count[0], "hasMore", hasMore));
+        }
+    }
+    
+    private Response handleCloseCursor(RequestData data) {
+        String cursorId = data.getString("cursorId");
+        boolean closed = cursorId != null && cursors.remove(cursorId) != null;
+        return new Response(true, closed ? "Đã đóng cursor" : "Cursor đã đóng trước đó", null);
+    }
+    
+    private void sendCursorRows(String cursorId, List<Book> rows) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "cursor_rows");
+        message.put("cursorId", cursorId);
+        message.put("rows", rows);
+        sendLock.lock();
         try {
-            String query = (String) data.get("query");
+            if (wireFormat.isBinary()) {
+                connection.sendFrame(JsonUtil.getMapper(wireFormat).writeValueAsBytes(message));
+            } else {
+                connection.send(JsonUtil.getMapper().writeValueAsString(message));
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi gửi dữ liệu cursor: " + e.getMessage());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+    
+    private Response handleSearchBooks(RequestData data) {
+        try {
+            String query = data.getString("query");
             List<Book> books = bookService.searchBooks(query);
             return new Response(true, "Tìm kiếm thành công", books);
         } catch (Exception e) {
@@ -252,9 +731,9 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleGetBookById(Map<String, Object> data) {
+    private Response handleGetBookById(RequestData data) {
         try {
-            String bookId = (String) data.get("bookId");
+            String bookId = data.getString("bookId");
             Book book = bookService.getBookById(bookId);
             return new Response(true, "Lấy thông tin sách thành công", book);
         } catch (Exception e) {
@@ -263,39 +742,53 @@ public class ClientHandler implements Runnable {
     }
     
     // Admin-only book operations
-    private Response handleAddBook(Map<String, Object> data) {
+    private Response handleAddBook(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            Book book = objectMapper.convertValue(data.get("book"), Book.class);
+            Book book = data.getObject("book", Book.class);
             boolean success = bookService.addBook(book);
+            if (success) {
+                publishChange(EventBus.Events.BOOK_ADDED,
+                    ChangeEvent.created(EventBus.Events.BOOK_ADDED, ChangeEvent.ENTITY_BOOK, book.getBookId(), book));
+            }
             return new Response(success, success ? "Thêm sách thành công" : "Lỗi thêm sách", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi thêm sách: " + e.getMessage(), null);
         }
     }
     
-    private Response handleUpdateBook(Map<String, Object> data) {
+    private Response handleUpdateBook(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            Book book = objectMapper.convertValue(data.get("book"), Book.class);
+            Book book = data.getObject("book", Book.class);
+            Book before = bookService.getBookById(book.getBookId());
             boolean success = bookService.updateBook(book);
+            if (success) {
+                Book after = bookService.getBookById(book.getBookId());
+                publishChange(EventBus.Events.BOOK_UPDATED, ChangeEvent.updated(EventBus.Events.BOOK_UPDATED,
+                    ChangeEvent.ENTITY_BOOK, book.getBookId(), before, after != null ? after : book));
+            }
             return new Response(success, success ? "Cập nhật sách thành công" : "Lỗi cập nhật sách", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi cập nhật sách: " + e.getMessage(), null);
         }
     }
     
-    private Response handleDeleteBook(Map<String, Object> data) {
+    private Response handleDeleteBook(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            String bookId = (String) data.get("bookId");
+            String bookId = data.getString("bookId");
             boolean success = bookService.deleteBook(bookId);
+            if (success) {
+                publishChange(EventBus.Events.BOOK_DELETED,
+                    ChangeEvent.deleted(EventBus.Events.BOOK_DELETED, ChangeEvent.ENTITY_BOOK, bookId));
+            }
             return new Response(success, success ? "Xóa sách thành công" : "Lỗi xóa sách", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi xóa sách: " + e.getMessage(), null);
@@ -303,54 +796,63 @@ public class ClientHandler implements Runnable {
     }
     
     // Borrow handlers
-    private Response handleBorrowBook(Map<String, Object> data) {
+    private Response handleBorrowBook(RequestData data) {
         try {
             User user = getCurrentUser(data);
             if (user == null) {
                 return new Response(false, "Vui lòng đăng nhập", null);
             }
             
-            String bookId = (String) data.get("bookId");
-            String copyId = (String) data.get("copyId");
+            String bookId = data.getString("bookId");
+            String copyId = data.getString("copyId");
             
             BorrowRecord record = borrowService.borrowBook(user.getUserId(), bookId, copyId);
+            if (record != null) {
+                publishBorrowChange(EventBus.Events.BOOK_BORROWED, record);
+            }
             return new Response(true, "Mượn sách thành công", record);
         } catch (Exception e) {
             return new Response(false, "Lỗi mượn sách: " + e.getMessage(), null);
         }
     }
     
-    private Response handleReturnBook(Map<String, Object> data) {
+    private Response handleReturnBook(RequestData data) {
         try {
             User user = getCurrentUser(data);
             if (user == null) {
                 return new Response(false, "Vui lòng đăng nhập", null);
             }
             
-            String recordId = (String) data.get("recordId");
+            String recordId = data.getString("recordId");
             boolean success = borrowService.returnBook(recordId);
+            if (success) {
+                publishBorrowChange(EventBus.Events.BOOK_RETURNED, borrowService.getBorrowRecordById(recordId));
+            }
             return new Response(success, success ? "Trả sách thành công" : "Lỗi trả sách", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi trả sách: " + e.getMessage(), null);
         }
     }
     
-    private Response handleExtendBorrow(Map<String, Object> data) {
+    private Response handleExtendBorrow(RequestData data) {
         try {
             User user = getCurrentUser(data);
             if (user == null) {
                 return new Response(false, "Vui lòng đăng nhập", null);
             }
             
-            String recordId = (String) data.get("recordId");
+            String recordId = data.getString("recordId");
             boolean success = borrowService.extendBorrow(recordId);
+            if (success) {
+                publishBorrowChange(EventBus.Events.BORROW_RECORD_UPDATED, borrowService.getBorrowRecordById(recordId));
+            }
             return new Response(success, success ? "Gia hạn thành công" : "Lỗi gia hạn", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi gia hạn: " + e.getMessage(), null);
         }
     }
     
-    private Response handleGetBorrowHistory(Map<String, Object> data) {
+    private Response handleGetBorrowHistory(RequestData data) {
         try {
             User user = getCurrentUser(data);
             if (user == null) {
@@ -364,7 +866,7 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleGetCurrentBorrows(Map<String, Object> data) {
+    private Response handleGetCurrentBorrows(RequestData data) {
         try {
             User user = getCurrentUser(data);
             if (user == null) {
@@ -378,7 +880,7 @@ public class ClientHandler implements Runnable {
     }
     
     // User management (Admin only)
-    private Response handleGetUsers(Map<String, Object> data) {
+    private Response handleGetUsers(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
@@ -390,52 +892,62 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleAddUser(Map<String, Object> data) {
+    private Response handleAddUser(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            User user = objectMapper.convertValue(data.get("user"), User.class);
+            User user = data.getObject("user", User.class);
             boolean success = userService.addUser(user);
+            if (success) {
+                publishChange(EventBus.Events.USER_ADDED, userChange(EventBus.Events.USER_ADDED, user.getUserId()));
+            }
             return new Response(success, success ? "Thêm user thành công" : "Lỗi thêm user", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi thêm user: " + e.getMessage(), null);
         }
     }
     
-    private Response handleUpdateUser(Map<String, Object> data) {
+    private Response handleUpdateUser(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            User user = objectMapper.convertValue(data.get("user"), User.class);
+            User user = data.getObject("user", User.class);
             boolean success = userService.updateUser(user);
+            if (success) {
+                publishChange(EventBus.Events.USER_UPDATED, userChange(EventBus.Events.USER_UPDATED, user.getUserId()));
+            }
             return new Response(success, success ? "Cập nhật user thành công" : "Lỗi cập nhật user", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi cập nhật user: " + e.getMessage(), null);
         }
     }
     
-    private Response handleDeleteUser(Map<String, Object> data) {
+    private Response handleDeleteUser(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            String userId = (String) data.get("userId");
+            String userId = data.getString("userId");
             boolean success = userService.deleteUser(userId);
+            if (success) {
+                publishChange(EventBus.Events.USER_DELETED,
+                    ChangeEvent.deleted(EventBus.Events.USER_DELETED, ChangeEvent.ENTITY_USER, userId));
+            }
             return new Response(success, success ? "Xóa user thành công" : "Lỗi xóa user", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi xóa user: " + e.getMessage(), null);
         }
     }
     
-    private Response handleGetBorrowRecords(Map<String, Object> data) {
+    private Response handleGetBorrowRecords(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            int page = (Integer) data.getOrDefault("page", 1);
-            int size = (Integer) data.getOrDefault("size", 10);
+            int page = data.getInt("page", 1);
+            int size = data.getInt("size", 10);
             List<BorrowRecord> records = borrowService.getAllBorrowRecords(page, size);
             return new Response(true, "Lấy danh sách mượn/trả thành công", records);
         } catch (Exception e) {
@@ -443,19 +955,27 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleGetStats(Map<String, Object> data) {
+    private Response handleGetStats(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            Map<String, Object> stats = Map.of(
-                "totalUsers", userService.getTotalUsers(),
-                "totalBooks", bookService.getTotalBooks(),
-                "borrowedBooks", borrowService.getBorrowedBooks(),
-                "overdueBooks", borrowService.getOverdueBooks(),
-                "totalBorrows", borrowService.getTotalBorrows(),
-                "connectedUsers", sessionManager.getActiveUserCount()
-            );
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("totalUsers", userService.getTotalUsers());
+            stats.put("totalBooks", bookService.getTotalBooks());
+            stats.put("borrowedBooks", borrowService.getBorrowedBooks());
+            stats.put("overdueBooks", borrowService.getOverdueBooks());
+            stats.put("totalBorrows", borrowService.getTotalBorrows());
+            stats.put("connectedUsers", sessionManager.getActiveUserCount());
+            stats.put("broadcast", sessionManager.getBroadcastStats());
+            stats.put("eventBus", EventBus.getInstance().getStats());
+            stats.put("sessions", sessionManager.getSessionStats());
+            stats.put("auth", PasswordVerifier.getInstance().getStats());
+            stats.put("admission", admission.getStats());
+            stats.put("connections", ConnectionSettings.getInstance().getStats());
+            stats.put("mongoPool", DatabaseConfig.getPoolStats());
+            stats.put("borrow", borrowService.getBorrowStats());
+            stats.put("inventory", bookService.getReconcileStats());
             
             return new Response(true, "Lấy thống kê thành công", stats);
         } catch (Exception e) {
@@ -463,13 +983,173 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    /**
+     * Một chỉ số thống kê riêng lẻ (để dashboard gộp nhiều chỉ số trong một batch)
+     */
+    private Response handleGetStatistic(String action, RequestData data) {
+        if (!isAdmin(data)) {
+            return new Response(false, "Không có quyền thực hiện", null);
+        }
+        Object value;
+        switch (action) {
+            case "getTotalBooks": value = bookService.getTotalBooks(); break;
+            case "getAvailableBooks": value = bookService.getAvailableBooks(); break;
+            case "getTotalUsers": value = userService.getTotalUsers(); break;
+            case "getPendingUsers": value = userService.getPendingUsers(); break;
+            case "getTotalBorrows": value = borrowService.getTotalBorrows(); break;
+            case "getBorrowedBooks": value = borrowService.getBorrowedBooks(); break;
+            case "getOverdueBooks": value = borrowService.getOverdueBooks(); break;
+            default: value = fineService.getTotalFines(); break;
+        }
+        return new Response(true, "Lấy thống kê thành công", Map.of("value", value));
+    }
+    
+    /**
+     * Thực thi nhiều action trong một round trip.
+     * data.requests là mảng {action, data}; các sub-request độc lập chạy song song
+     * trên request pool, kết quả trả về theo đúng thứ tự trong mảng.
+     */
+    private Response handleBatch(RequestData data) {
+        JsonNode requests = data.getNode("requests");
+        if (requests == null || !requests.isArray()) {
+            return new Response(false, "Batch cần mảng requests", null);
+        }
+        if (requests.size() > MAX_BATCH_SIZE) {
+            return new Response(false, "Batch vượt quá " + MAX_BATCH_SIZE + " request", null);
+        }
+        
+        List<FutureTask<Response>> tasks = new ArrayList<>(requests.size());
+        for (JsonNode node : requests) {
+            Request subRequest = new Request(node.path("action").asText(null), node.get("data"));
+            subRequest.setSessionId(data.getSessionId());
+            tasks.add(new FutureTask<>(() -> processBatchItem(subRequest)));
+        }
+        for (FutureTask<Response> task : tasks) {
+            try {
+                requestExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Task sẽ được chạy trực tiếp ở vòng dưới
+            }
+        }
+        
+        List<Response> responses = new ArrayList<>(tasks.size());
+        for (FutureTask<Response> task : tasks) {
+            // Tự chạy các task pool chưa nhận để batch không bị kẹt khi pool đã đầy
+            task.run();
+            try {
+                responses.add(task.get());
+            } catch (Exception e) {
+                responses.add(new Response(false, "Lỗi xử lý: " + e.getMessage(), null));
+            }
+        }
+        return new Response(true, "Thực thi batch thành công", Map.of("responses", responses));
+    }
+    
+    private Response processBatchItem(Request request) {
+        if (request.getAction() == null) {
+            return new Response(false, "Thiếu action", null);
+        }
+        if ("batch".equals(request.getAction())) {
+            return new Response(false, "Không hỗ trợ batch lồng nhau", null);
+        }
+        // Mỗi request trong batch tính vào giới hạn tốc độ như request riêng lẻ
+        long retryAfterMs = admission.tryAcquireRate(rateLimitKey(), request.getAction());
+        if (retryAfterMs > 0) {
+            return retryLater("Thao tác quá nhanh, vui lòng thử lại sau", retryAfterMs);
+        }
+        return processRequest(request);
+    }
+    
+    /**
+     * Đăng ký nhận sự kiện: data.topic (books, users, borrows, system) và data.key tùy chọn
+     * (bookId hoặc userId). Topic users/borrows với user khác chỉ dành cho admin.
+     */
+    private Response handleSubscribe(RequestData data) {
+        String topic = data.getString("topic");
+        String key = data.getString("key");
+        Response denied = checkSubscription(data, topic, key);
+        if (denied != null) {
+            return denied;
+        }
+        if (!sessionManager.subscribe(this, topic, key)) {
+            return new Response(false, "Đã đạt giới hạn số đăng ký", null);
+        }
+        Map<String, Object> result = idPayload("topic", topic);
+        result.put("key", key != null ? key : SubscriptionIndex.ANY_KEY);
+        return new Response(true, "Đăng ký nhận sự kiện thành công", result);
+    }
+    
+    private Response handleUnsubscribe(RequestData data) {
+        String topic = data.getString("topic");
+        if (!SubscriptionIndex.isKnownTopic(topic)) {
+            return new Response(false, "Topic không hợp lệ: " + topic, null);
+        }
+        sessionManager.unsubscribe(this, topic, data.getString("key"));
+        return new Response(true, "Hủy đăng ký thành công", null);
+    }
+    
+    private Response checkSubscription(RequestData data, String topic, String key) {
+        if (!SubscriptionIndex.isKnownTopic(topic)) {
+            return new Response(false, "Topic không hợp lệ: " + topic, null);
+        }
+        if (SubscriptionIndex.TOPIC_USERS.equals(topic) || SubscriptionIndex.TOPIC_BORROWS.equals(topic)) {
+            User user = getCurrentUser(data);
+            if (user == null) {
+                return new Response(false, "Vui lòng đăng nhập", null);
+            }
+            boolean own = key != null && key.equals(user.getUserId());
+            if (!own && user.getRole() != User.Role.ADMIN) {
+                return new Response(false, "Không có quyền thực hiện", null);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Phát sự kiện thay đổi dữ liệu để SessionManager gửi tới client đã đăng ký
+     */
+    private void publishChange(String eventType, Object data) {
+        EventBus.getInstance().publish(eventType, data);
+    }
+    
+    /**
+     * Phát delta của phiếu mượn (định tuyến theo userId) và số bản còn lại của sách
+     */
+    private void publishBorrowChange(String eventType, BorrowRecord record) {
+        if (record == null) {
+            return;
+        }
+        publishChange(eventType, ChangeEvent.created(eventType, ChangeEvent.ENTITY_BORROW, record.getRecordId(), record)
+            .withRouteKey("userId", record.getUserId()));
+        Book book = bookService.getBookById(record.getBookId());
+        if (book != null) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("availableCopies", book.getAvailableCopies());
+            fields.put("totalCopies", book.getTotalCopies());
+            publishChange(eventType, ChangeEvent.patch(eventType, ChangeEvent.ENTITY_BOOK, book.getBookId(), fields));
+        }
+    }
+    
+    /**
+     * Delta của user chỉ mang userId, không gửi thông tin cá nhân
+     */
+    private static ChangeEvent userChange(String eventType, String userId) {
+        return ChangeEvent.patch(eventType, ChangeEvent.ENTITY_USER, userId, Collections.emptyMap());
+    }
+    
+    private static Map<String, Object> idPayload(String field, String value) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(field, value);
+        return payload;
+    }
+    
     // Ping handler for connection testing
-    private Response handlePing(Map<String, Object> data) {
+    private Response handlePing(RequestData data) {
         return new Response(true, "Server is alive", Map.of("timestamp", System.currentTimeMillis()));
     }
     
     // Additional User handlers for TCP support
-    private Response handleGetAllUsers(Map<String, Object> data) {
+    private Response handleGetAllUsers(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
@@ -481,31 +1161,32 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private Response handleGetUserById(Map<String, Object> data) {
+    private Response handleGetUserById(RequestData data) {
         try {
-            String userId = (String) data.get("userId");
+            String userId = data.getString("userId");
             User user = userService.getUserById(userId);
             return new Response(true, "Lấy thông tin người dùng thành công", Map.of("user", user));
         } catch (Exception e) {
             return new Response(false, "Lỗi lấy thông tin người dùng: " + e.getMessage(), null);
         }
     }
-      private Response handleCreateUser(Map<String, Object> data) {
+      private Response handleCreateUser(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> userData = (Map<String, Object>) data.get("user");
-            User user = convertMapToUser(userData);
+            User user = data.getObject("user", User.class);
             boolean success = userService.register(user);
+            if (success) {
+                publishChange(EventBus.Events.USER_ADDED, userChange(EventBus.Events.USER_ADDED, user.getUserId()));
+            }
             return new Response(success, success ? "Tạo người dùng thành công" : "Email đã tồn tại", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi tạo người dùng: " + e.getMessage(), null);
         }
     }
       // Additional Book handlers
-    private Response handleGetAllBooks(Map<String, Object> data) {
+    private Response handleGetAllBooks(RequestData data) {
         try {
             List<Book> books = bookService.getAllBooks(1, 1000); // Get first 1000 books
             return new Response(true, "Lấy danh sách sách thành công", Map.of("books", books));
@@ -513,153 +1194,152 @@ public class ClientHandler implements Runnable {
             return new Response(false, "Lỗi lấy danh sách sách: " + e.getMessage(), null);
         }
     }
-      private Response handleCreateBook(Map<String, Object> data) {
+      private Response handleCreateBook(RequestData data) {
         if (!isAdmin(data)) {
             return new Response(false, "Không có quyền thực hiện", null);
         }
         try {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> bookData = (Map<String, Object>) data.get("book");
-            Book book = convertMapToBook(bookData);
+            Book book = data.getObject("book", Book.class);
             boolean success = bookService.addBook(book);
+            if (success) {
+                publishChange(EventBus.Events.BOOK_ADDED,
+                    ChangeEvent.created(EventBus.Events.BOOK_ADDED, ChangeEvent.ENTITY_BOOK, book.getBookId(), book));
+            }
             return new Response(success, success ? "Tạo sách thành công" : "Lỗi tạo sách", null);
         } catch (Exception e) {
             return new Response(false, "Lỗi tạo sách: " + e.getMessage(), null);
         }
-    }    // Helper method to convert Map to User
-    private User convertMapToUser(Map<String, Object> data) {
-        if (data == null) return null;
-        
-        User user = new User();
-        user.setUserId((String) data.get("userId"));
-        user.setEmail((String) data.get("email"));
-        user.setFullName((String) data.get("fullName"));
-        user.setStudentId((String) data.get("studentId"));
-        user.setPhone((String) data.get("phone"));
-        user.setFaculty((String) data.get("faculty"));
-        
-        String role = (String) data.get("role");
-        if (role != null) {
-            user.setRole(User.Role.valueOf(role));
-        }
-        
-        String status = (String) data.get("status");
-        if (status != null) {
-            user.setStatus(User.Status.valueOf(status));
-        }
-        
-        return user;
-    }
-      // Helper method to convert Map to Book
-    private Book convertMapToBook(Map<String, Object> data) {
-        if (data == null) return null;
-        
-        Book book = new Book();
-        book.setBookId((String) data.get("bookId"));
-        book.setTitle((String) data.get("title"));
-        book.setAuthor((String) data.get("author"));
-        book.setIsbn((String) data.get("isbn"));
-        book.setCategory((String) data.get("category"));
-        book.setPublisher((String) data.get("publisher"));
-        book.setDescription((String) data.get("description"));
-          Integer publishYear = (Integer) data.get("publishYear");
-        if (publishYear != null) {
-            book.setPublicationYear(publishYear);
-        }
-        
-        Integer totalCopies = (Integer) data.get("totalCopies");
-        if (totalCopies != null) {
-            book.setTotalCopies(totalCopies);
-        }
-        
-        Integer availableCopies = (Integer) data.get("availableCopies");
-        if (availableCopies != null) {
-            book.setAvailableCopies(availableCopies);
-        }
-        
-        return book;
     }
     
     /**
-     * Tạo session ID ngẫu nhiên
+     * Gửi message tới client
      */
-    private String generateSessionId() {
-        return "session_" + UUID.randomUUID().toString().substring(0, 8);
+    public void sendMessage(String message) {
+        sendBroadcast(BroadcastMessage.of(message));
     }
     
     /**
-     * Gửi message tới client
+     * Gửi message broadcast đã serialize; client nhị phân nhận bản Smile được encode
+     * một lần cho mọi client
      */
-    public void sendMessage(String message) {
-        if (writer != null) {
-            writer.println(message);
+    void sendBroadcast(BroadcastMessage message) {
+        sendLock.lock();
+        try {
+            if (!wireFormat.isBinary()) {
+                connection.send(message.json());
+                return;
+            }
+            connection.sendFrame(message.smile());
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi chuyển đổi message broadcast: " + e.getMessage());
+        } finally {
+            sendLock.unlock();
         }
     }
       /**
      * Cleanup khi client disconnect
      */
     private void cleanup() {
+        if (!cleanedUp.compareAndSet(false, true)) {
+            return;
+        }
         try {
             // Logout user if currently logged in
             if (currentSessionId != null) {
-                User currentUser = activeSessions.get(currentSessionId);
+                User currentUser = sessionUser(currentSessionId);
                 if (currentUser != null) {
-                    userService.logout(currentUser.getUserId());
-                    LoggerUtil.info("Auto logout user on disconnect: " + currentUser.getEmail());
+                    LoggerUtil.info("User disconnected: " + currentUser.getEmail());
                 }
             }
             
-            // Remove from session manager
+            // Remove from session manager (session được giữ tạm chờ khôi phục, hoặc kết thúc)
             sessionManager.unregisterClient(this);
             
-            // Remove current session
-            if (currentSessionId != null) {
-                sessionManager.removeSession(currentSessionId);
-                activeSessions.remove(currentSessionId);
-            }
-            
-            // Close socket
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
-            }
+            // Cursor chỉ giữ vị trí, bỏ đi cùng kết nối
+            cursors.clear();
+            admission.forget(this);
             
-            // Close writer
-            if (writer != null) {
-                writer.close();
-            }
+            // Close connection
+            connection.close();
             
             LoggerUtil.info("Client cleanup completed");
             
-        } catch (IOException e) {
+        } catch (Exception e) {
             LoggerUtil.error("Lỗi cleanup client: " + e.getMessage());
         }
     }
     
+    /**
+     * Đóng kết nối từ phía server (khi dừng server); cleanup chạy khi vòng đọc kết thúc
+     */
+    void disconnect() {
+        connection.close();
+    }
+    
+    /**
+     * Kết nối còn nhận thêm broadcast (dữ liệu chờ ghi chưa vượt giới hạn)
+     */
+    boolean isWritable() {
+        return connection.isWritable();
+    }
+    
+    boolean hasPendingWrites() {
+        return connection.hasPendingWrites();
+    }
+    
+    /**
+     * Session của kết nối đã kết thúc (đăng xuất, đăng nhập nơi khác, hết hạn)
+     */
+    void expireSession(String sessionId) {
+        if (sessionId.equals(currentSessionId)) {
+            currentSessionId = null;
+        }
+    }
+    
+    /**
+     * Kết nối đang đăng nhập là user userId hoặc admin: được nhận sự kiện riêng của user đó
+     */
+    boolean canReceiveUserEvents(String userId) {
+        String sessionId = currentSessionId;
+        User user = sessionId != null ? sessionUser(sessionId) : null;
+        return user != null && (user.getRole() == User.Role.ADMIN || (userId != null && userId.equals(user.getUserId())));
+    }
+    
     // Helper methods for authorization
-    private boolean isAdmin(Map<String, Object> data) {
-        String sessionId = (String) data.get("sessionId");
+    private boolean isAdmin(RequestData data) {
+        String sessionId = data.getSessionId();
         if (sessionId == null) return false;
         
-        User user = activeSessions.get(sessionId);
+        User user = sessionUser(sessionId);
         return user != null && user.getRole() == User.Role.ADMIN;
     }
     
-    private User getCurrentUser(Map<String, Object> data) {
-        String sessionId = (String) data.get("sessionId");
+    private User getCurrentUser(RequestData data) {
+        String sessionId = data.getSessionId();
         if (sessionId == null) return null;
         
-        return activeSessions.get(sessionId);    }
+        return sessionUser(sessionId);
+    }
+    
+    /**
+     * User của session nếu session còn hiệu lực và thuộc kết nối này
+     */
+    private User sessionUser(String sessionId) {
+        SessionManager.ClientSession session = sessionManager.getSession(sessionId);
+        return session != null && session.getClientHandler() == this ? session.getUser() : null;
+    }
     
     // Request and Response classes
     
     public static class Request {
         private String action;
-        private Map<String, Object> data;
+        private JsonNode data;
         private String sessionId;
+        private String requestId;
         
         public Request() {}
         
-        public Request(String action, Map<String, Object> data) {
+        public Request(String action, JsonNode data) {
             this.action = action;
             this.data = data;
         }
@@ -667,17 +1347,22 @@ public class ClientHandler implements Runnable {
         public String getAction() { return action; }
         public void setAction(String action) { this.action = action; }
         
-        public Map<String, Object> getData() { return data; }
-        public void setData(Map<String, Object> data) { this.data = data; }
+        public JsonNode getData() { return data; }
+        public void setData(JsonNode data) { this.data = data; }
         
         public String getSessionId() { return sessionId; }
         public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+        
+        public String getRequestId() { return requestId; }
+        public void setRequestId(String requestId) { this.requestId = requestId; }
     }
     
     public static class Response {
         private boolean success;
         private String message;
         private Object data;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private String requestId;
         
         public Response() {}
         
@@ -695,5 +1380,58 @@ public class ClientHandler implements Runnable {
         
         public Object getData() { return data; }
         public void setData(Object data) { this.data = data; }
+        
+        public String getRequestId() { return requestId; }
+        public void setRequestId(String requestId) { this.requestId = requestId; }
+    }
+    
+    /**
+     * Vị trí của một cursor duyệt sách (bookId cuối đã gửi)
+     */
+    private static class BookCursor {
+        private final int pageSize;
+        private String lastBookId;
+        
+        BookCursor(int pageSize) {
+            this.pageSize = pageSize;
+        }
+    }
+    
+    /**
+     * Payload của request: đọc field trực tiếp từ cây JSON và bind object
+     * vào model bằng ObjectReader đã cache (không qua Map trung gian)
+     */
+    public static class RequestData {
+        private final JsonNode node;
+        private final String sessionId;
+        
+        public RequestData(JsonNode node, String sessionId) {
+            this.node = node != null ? node : NullNode.getInstance();
+            this.sessionId = sessionId;
+        }
+        
+        public String getSessionId() { return sessionId; }
+        
+        public JsonNode getNode(String field) {
+            return node.get(field);
+        }
+        
+        public String getString(String field) {
+            JsonNode value = node.get(field);
+            return value == null || value.isNull() ? null : value.asText();
+        }
+        
+        public int getInt(String field, int defaultValue) {
+            JsonNode value = node.get(field);
+            return value != null && value.canConvertToInt() ? value.asInt() : defaultValue;
+        }
+        
+        public <T> T getObject(String field, Class<T> type) throws IOException {
+            JsonNode value = node.get(field);
+            if (value == null || value.isNull()) {
+                return null;
+            }
+            return JsonUtil.readerFor(type).readValue(value);
+        }
     }
 }
@@ -0,0 +1,241 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.LoggerUtil;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hàng đợi broadcast có giới hạn của một client.
+ * Writer pool dùng chung chỉ chuyển message sang hàng đợi ghi của kết nối (không ghi socket
+ * trực tiếp), nên thread phát sự kiện và writer pool không bị chặn bởi một client đọc chậm.
+ * Khi kết nối đã đầy (client không đọc), outbox ngừng chuyển và chờ kết nối báo hết đầy;
+ * message mới dồn lại trong hàng đợi này và policy client chậm được áp dụng.
+ */
+public class ClientOutbox {
+    
+    /**
+     * Cách xử lý khi hàng đợi của client chậm đã đầy
+     */
+    public enum SlowConsumerPolicy {
+        DROP,       // Bỏ message cũ nhất
+        COALESCE,   // Đầy thì gộp vào message đang chờ của cùng đối tượng, không có thì bỏ message cũ nhất
+        DISCONNECT  // Ngắt kết nối client
+    }
+    
+    // Báo client rằng đã mất sự kiện, cần tải lại dữ liệu
+    static final BroadcastMessage RESYNC_MESSAGE = BroadcastMessage.of("{\"type\":\"resync\"}");
+    
+    private final ClientHandler client;
+    private final Executor writerPool;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final SessionManager.BroadcastStats stats;
+    
+    // Các field dưới đây được bảo vệ bởi lock của object
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private boolean drainScheduled = false;
+    // Kết nối đang đầy, chờ onWritable() để ghi tiếp
+    private boolean waitingForWritable = false;
+    private boolean closed = false;
+    // Đã bỏ message nào đó: client cần tải lại toàn bộ thay vì áp delta
+    private boolean needsResync = false;
+    
+    ClientOutbox(ClientHandler client, Executor writerPool, int capacity,
+                 SlowConsumerPolicy policy, SessionManager.BroadcastStats stats) {
+        this.client = client;
+        this.writerPool = writerPool;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.stats = stats;
+    }
+    
+    /**
+     * Đưa message vào hàng đợi; coalesceKey (đối tượng mà message thay thế toàn bộ,
+     * null nếu không được gộp) dùng cho policy COALESCE
+     */
+    public void offer(String message, String coalesceKey) {
+        offer(BroadcastMessage.of(message), coalesceKey);
+    }
+    
+    /**
+     * Như offer(String, String) với message đã dựng sẵn, dùng chung giữa các client
+     */
+    void offer(BroadcastMessage message, String coalesceKey) {
+        enqueue(new Entry(message, null, coalesceKey));
+    }
+    
+    /**
+     * Đưa sự kiện delta vào hàng đợi; với policy COALESCE, khi hàng đợi đầy delta cùng
+     * đối tượng đang chờ được gộp thành một (JSON chỉ được tạo khi ghi ra)
+     */
+    public void offer(ChangeEvent event) {
+        enqueue(new Entry(null, event, event.getCoalesceKey()));
+    }
+    
+    private void enqueue(Entry newEntry) {
+        boolean schedule = false;
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() >= capacity) {
+                // Chỉ gộp khi bị dồn hàng; client theo kịp nhận đủ từng message
+                if (policy == SlowConsumerPolicy.COALESCE && coalesceInto(newEntry)) {
+                    stats.coalesced.increment();
+                    return;
+                }
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    closed = true;
+                    disconnect = true;
+                    queue.clear();
+                } else {
+                    queue.pollFirst();
+                    stats.dropped.increment();
+                    needsResync = true;
+                }
+            }
+            if (!closed) {
+                queue.addLast(newEntry);
+                stats.enqueued.increment();
+                stats.recordDepth(queue.size());
+                if (!drainScheduled && !waitingForWritable) {
+                    drainScheduled = true;
+                    schedule = true;
+                }
+            }
+        }
+        
+        if (disconnect) {
+            stats.disconnected.increment();
+            LoggerUtil.warn("Client đọc chậm, hàng đợi broadcast đầy (" + capacity + "), ngắt kết nối");
+            execute(client::onDisconnect);
+        } else if (schedule) {
+            execute(this::drain);
+        }
+    }
+    
+    /**
+     * Gộp vào message đang chờ của cùng đối tượng (gọi khi giữ lock)
+     */
+    private boolean coalesceInto(Entry newEntry) {
+        if (newEntry.key == null) {
+            return false;
+        }
+        for (Entry entry : queue) {
+            if (newEntry.key.equals(entry.key) && (entry.event == null) == (newEntry.event == null)) {
+                if (entry.event != null) {
+                    entry.event = entry.event.merge(newEntry.event);
+                } else {
+                    entry.message = newEntry.message;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void execute(Runnable task) {
+        try {
+            writerPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Server đang dừng
+            synchronized (this) {
+                drainScheduled = false;
+            }
+        }
+    }
+    
+    /**
+     * Kết nối vừa hết đầy: ghi tiếp các message đang chờ
+     */
+    public void onWritable() {
+        synchronized (this) {
+            if (!waitingForWritable) {
+                return;
+            }
+            waitingForWritable = false;
+            if (closed || drainScheduled || queue.isEmpty()) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        execute(this::drain);
+    }
+    
+    /**
+     * Chuyển lần lượt các message đang chờ sang kết nối (chạy trên writer pool, mỗi outbox
+     * tối đa một task); dừng khi kết nối đầy
+     */
+    private void drain() {
+        while (true) {
+            Entry entry;
+            boolean resync;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    drainScheduled = false;
+                    return;
+                }
+                if (!client.isWritable()) {
+                    // Kết nối báo hết đầy sau khi ta đặt cờ (cùng lock), nên không lỡ lần đánh thức
+                    drainScheduled = false;
+                    waitingForWritable = true;
+                    return;
+                }
+                entry = queue.pollFirst();
+                resync = needsResync;
+                needsResync = false;
+            }
+            try {
+                if (resync) {
+                    client.sendBroadcast(RESYNC_MESSAGE);
+                }
+                client.sendBroadcast(entry.event != null ? entry.event.toMessage() : entry.message);
+                stats.delivered.increment();
+            } catch (Exception e) {
+                LoggerUtil.error("Error broadcasting to client: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Số message đang chờ gửi
+     */
+    public synchronized int depth() {
+        return queue.size();
+    }
+    
+    /**
+     * Không còn message chờ và kết nối đã ghi hết ra socket
+     */
+    public boolean isIdle() {
+        synchronized (this) {
+            if (!queue.isEmpty() || drainScheduled) {
+                return false;
+            }
+        }
+        return !client.hasPendingWrites();
+    }
+    
+    /**
+     * Bỏ các message còn lại khi client ngắt kết nối
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+    }
+    
+    private static class Entry {
+        private BroadcastMessage message;
+        private ChangeEvent event;
+        private final String key;
+        
+        Entry(BroadcastMessage message, ChangeEvent event, String key) {
+            this.message = message;
+            this.event = event;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.dainam.library.server;
+
+import com.dainam.library.config.AppConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tùy chọn TCP cho kết nối client (server.tcp.*) và phát hiện kết nối chết.
+ * Heartbeat là một dòng rỗng (JSON) hoặc frame rỗng (Smile): server trả lại ngay,
+ * không qua parse JSON, session hay switch action. Kết nối không gửi byte nào trong
+ * server.connection.idle.timeout.ms bị đóng để giải phóng thread/handler.
+ */
+public class ConnectionSettings {
+
+    private static ConnectionSettings instance;
+
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int receiveBufferBytes;
+    private final int sendBufferBytes;
+    private final long idleTimeoutMs;
+    private final long heartbeatIntervalMs;
+
+    // Số liệu
+    private final LongAdder heartbeats = new LongAdder();
+    private final LongAdder idleClosed = new LongAdder();
+
+    private ConnectionSettings() {
+        this.tcpNoDelay = AppConfig.getBoolean("server.tcp.nodelay", true);
+        this.keepAlive = AppConfig.getBoolean("server.tcp.keepalive", true);
+        this.receiveBufferBytes = Math.max(0, AppConfig.getInt("server.tcp.receive.buffer.bytes", 0));
+        this.sendBufferBytes = Math.max(0, AppConfig.getInt("server.tcp.send.buffer.bytes", 0));
+        this.idleTimeoutMs = Math.max(0, AppConfig.getLong("server.connection.idle.timeout.ms", 90000));
+        this.heartbeatIntervalMs = Math.max(1000, AppConfig.getLong("server.heartbeat.interval.ms", 30000));
+    }
+
+    public static synchronized ConnectionSettings getInstance() {
+        if (instance == null) {
+            instance = new ConnectionSettings();
+        }
+        return instance;
+    }
+
+    /**
+     * Áp dụng trước khi bind, để socket được accept thừa hưởng kích thước buffer nhận
+     */
+    void configure(ServerSocket serverSocket) throws SocketException {
+        if (receiveBufferBytes > 0) {
+            serverSocket.setReceiveBufferSize(receiveBufferBytes);
+        }
+    }
+
+    void configure(ServerSocketChannel serverChannel) throws IOException {
+        if (receiveBufferBytes > 0) {
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        }
+    }
+
+    /**
+     * Socket blocking: ngoài tùy chọn TCP, SO_TIMEOUT bằng idle timeout để thread đọc không bị giữ mãi
+     */
+    void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (receiveBufferBytes > 0) {
+            socket.setReceiveBufferSize(receiveBufferBytes);
+        }
+        if (sendBufferBytes > 0) {
+            socket.setSendBufferSize(sendBufferBytes);
+        }
+        socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeoutMs));
+    }
+
+    void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+        if (receiveBufferBytes > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        }
+        if (sendBufferBytes > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferBytes);
+        }
+    }
+
+    /**
+     * 0 = không đóng kết nối rảnh
+     */
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    /**
+     * Chu kỳ heartbeat gợi ý cho client (gửi trong response negotiate)
+     */
+    public long getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    void recordHeartbeat() {
+        heartbeats.increment();
+    }
+
+    void recordIdleClose() {
+        idleClosed.increment();
+    }
+
+    /**
+     * Số liệu: số heartbeat đã trả lời, số kết nối bị đóng vì rảnh và cấu hình hiện tại
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("heartbeats", heartbeats.sum());
+        stats.put("idleClosed", idleClosed.sum());
+        stats.put("idleTimeoutMs", idleTimeoutMs);
+        stats.put("heartbeatIntervalMs", heartbeatIntervalMs);
+        stats.put("tcpNoDelay", tcpNoDelay);
+        stats.put("keepAlive", keepAlive);
+        return stats;
+    }
+}
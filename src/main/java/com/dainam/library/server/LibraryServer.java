@@ -1,49 +1,171 @@
 package com.dainam.library.server;
 
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.service.SessionStore;
 import com.dainam.library.util.LoggerUtil;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.charset.Charset;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * TCP Server cho hệ thống quản lý thư viện
+ * TCP Server cho hệ thống quản lý thư viện.
+ * Khi dừng, server drain: ngừng nhận kết nối, báo client kết nối lại sau (có jitter),
+ * từ chối request mới và chờ request đang xử lý (mượn/trả nhiều bước) xong trong
+ * server.drain.timeout.ms rồi mới đóng kết nối. Với server.socket.reuseport=true,
+ * tiến trình mới có thể mở cùng port trong lúc tiến trình cũ đang drain.
  */
 public class LibraryServer {
     
-    private static final int PORT = 8888;
-    private static final int MAX_CLIENTS = 100;
+    private static final String OVERLOADED_RESPONSE =
+        "{\"success\":false,\"message\":\"Server đã đạt số kết nối tối đa, vui lòng thử lại sau\",\"data\":null}";
     
+    /**
+     * Kiểu transport mạng của server
+     */
+    public enum Transport {
+        BLOCKING, // Mỗi client một thread, đọc bằng socket blocking
+        NIO       // Selector non-blocking, frame được xử lý trên worker pool
+    }
+    
+    /**
+     * Loại thread chạy ClientHandler / worker
+     */
+    public enum ExecutionMode {
+        PLATFORM, // Thread pool cố định gồm server.max.clients thread
+        VIRTUAL   // Mỗi client một virtual thread, tối đa server.virtual.max.connections (cần Java 21+)
+    }
+    
+    private final int port;
+    private final int maxClients;
+    private final int connectionLimit;
+    private final Transport transport;
+    private final ExecutionMode executionMode;
+    private final Semaphore connectionPermits;
+    private final boolean reusePort;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
     private ServerSocket serverSocket;
+    private NioServerTransport nioTransport;
     private ExecutorService clientThreadPool;
     private AtomicBoolean isRunning;
     
     public LibraryServer() {
-        this.clientThreadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
+        this.port = AppConfig.getInt("server.port", 8888);
+        this.maxClients = AppConfig.getInt("server.max.clients", 100);
+        this.transport = parseEnum(Transport.class, "server.transport", Transport.BLOCKING);
+        this.reusePort = AppConfig.getBoolean("server.socket.reuseport", false);
+        
+        ExecutionMode mode = parseEnum(ExecutionMode.class, "server.execution.mode", ExecutionMode.PLATFORM);
+        ExecutorService virtualExecutor = mode == ExecutionMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executionMode = ExecutionMode.VIRTUAL;
+            this.clientThreadPool = virtualExecutor;
+            // Virtual thread rẻ nên giới hạn kết nối riêng, lớn hơn nhiều so với server.max.clients
+            // (0 = không giới hạn); giới hạn chỉ để chặn cạn file descriptor/bộ nhớ
+            int virtualLimit = AppConfig.getInt("server.virtual.max.connections", 10000);
+            this.connectionLimit = virtualLimit > 0 ? virtualLimit : 0;
+            this.connectionPermits = virtualLimit > 0 ? new Semaphore(virtualLimit) : null;
+        } else {
+            this.executionMode = ExecutionMode.PLATFORM;
+            this.connectionLimit = maxClients;
+            this.connectionPermits = null;
+            if (transport == Transport.NIO) {
+                int workerThreads = AppConfig.getInt("server.nio.worker.threads",
+                    Math.max(4, Runtime.getRuntime().availableProcessors() * 4));
+                this.clientThreadPool = Executors.newFixedThreadPool(workerThreads);
+            } else {
+                this.clientThreadPool = Executors.newFixedThreadPool(maxClients);
+            }
+        }
         this.isRunning = new AtomicBoolean(false);
+        LoggerUtil.info("Server transport: " + transport + ", execution mode: " + executionMode
+            + ", max clients: " + (connectionLimit > 0 ? connectionLimit : "không giới hạn"));
+    }
+    
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String key, E defaultValue) {
+        String value = AppConfig.getString(key, defaultValue.name());
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LoggerUtil.warn(key + " không hợp lệ: " + value + ", dùng " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Tạo executor virtual-thread-per-task nếu JVM hỗ trợ (Java 21+).
+     * Dùng reflection để project vẫn build với target Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LoggerUtil.warn("JVM hiện tại (" + System.getProperty("java.version")
+                + ") không hỗ trợ virtual thread, dùng thread pool cố định");
+            return null;
+        }
     }
     
     /**
      * Khởi chạy server
      */
     public void start() throws IOException {
+        // Khởi tạo service dùng chung trước khi nhận kết nối đầu tiên
+        ServiceRegistry.getInstance();
+        
+        if (transport == Transport.NIO) {
+            startNio();
+            return;
+        }
         try {
-            serverSocket = new ServerSocket(PORT);
+            ConnectionSettings connectionSettings = ConnectionSettings.getInstance();
+            serverSocket = new ServerSocket();
+            connectionSettings.configure(serverSocket);
+            if (reusePort) {
+                if (serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                } else {
+                    LoggerUtil.warn("Hệ điều hành không hỗ trợ SO_REUSEPORT");
+                }
+            }
+            serverSocket.bind(new InetSocketAddress(port));
             isRunning.set(true);
             
-            LoggerUtil.info("Library Management Server đã khởi chạy trên port " + PORT);
+            LoggerUtil.info("Library Management Server đã khởi chạy trên port " + port);
             LoggerUtil.info("Đang chờ kết nối từ client...");
             
             while (isRunning.get()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
                     LoggerUtil.info("Client kết nối từ: " + clientSocket.getInetAddress().getHostAddress());
+                    connectionSettings.configure(clientSocket);
                     
-                    // Xử lý client trong thread riêng
-                    ClientHandler clientHandler = new ClientHandler(clientSocket);
-                    clientThreadPool.submit(clientHandler);
+                    if (connectionPermits != null && !connectionPermits.tryAcquire()) {
+                        rejectClient(clientSocket);
+                        continue;
+                    }
+                    
+                    // Xử lý client trong thread riêng (handler được tạo trên thread đó,
+                    // để constructor truy cập MongoDB không chặn vòng accept)
+                    clientThreadPool.submit(() -> {
+                        try {
+                            new ClientHandler(clientSocket).run();
+                        } finally {
+                            if (connectionPermits != null) {
+                                connectionPermits.release();
+                            }
+                        }
+                    });
                     
                 } catch (IOException e) {
                     if (isRunning.get()) {
@@ -59,11 +181,59 @@ public class LibraryServer {
     }
     
     /**
-     * Dừng server
+     * Từ chối client khi đã đủ số kết nối tối đa
+     */
+    private void rejectClient(Socket clientSocket) {
+        LoggerUtil.warn("Từ chối kết nối từ " + clientSocket.getInetAddress().getHostAddress()
+            + ": đã đạt " + connectionLimit + " kết nối");
+        // Ghi thẳng trên thread accept: message nhỏ, socket mới còn trống buffer gửi
+        try (Socket socket = clientSocket) {
+            OutputStream out = socket.getOutputStream();
+            out.write((OVERLOADED_RESPONSE + "\n").getBytes(Charset.defaultCharset()));
+            out.flush();
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi từ chối kết nối: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Khởi chạy server với NIO transport
+     */
+    private void startNio() throws IOException {
+        int ioThreads = AppConfig.getInt("server.nio.io.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int maxFrameBytes = AppConfig.getInt("server.nio.max.frame.bytes", 16 * 1024 * 1024);
+        int maxPendingFrames = AppConfig.getInt("server.nio.max.pending.frames", 64);
+        
+        nioTransport = new NioServerTransport(port, ioThreads, maxFrameBytes, maxPendingFrames, clientThreadPool, reusePort);
+        isRunning.set(true);
+        LoggerUtil.info("Library Management Server (NIO) đang khởi chạy trên port " + port);
+        try {
+            nioTransport.start();
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi khởi chạy server: " + e.getMessage());
+            throw e;
+        } finally {
+            isRunning.set(false);
+        }
+    }
+    
+    /**
+     * Dừng server (drain rồi đóng)
      */
     public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         isRunning.set(false);
+        long drainTimeoutMs = Math.max(0, AppConfig.getLong("server.drain.timeout.ms", 30000));
+        long reconnectDelayMs = Math.max(0, AppConfig.getLong("server.drain.reconnect.delay.ms", 5000));
+        long reconnectJitterMs = Math.max(0, AppConfig.getLong("server.drain.reconnect.jitter.ms", 10000));
         
+        // 1. Ngừng nhận kết nối mới (tiến trình mới có thể đã nghe cùng port nhờ SO_REUSEPORT)
+        if (nioTransport != null) {
+            nioTransport.stopAccepting();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -72,7 +242,31 @@ public class LibraryServer {
             LoggerUtil.error("Lỗi đóng server socket: " + e.getMessage());
         }
         
+        // 2. Từ chối request mới, báo client kết nối lại sau, chờ request đang xử lý
+        AdmissionController admission = AdmissionController.getInstance();
+        SessionManager sessionManager = SessionManager.getInstance();
+        admission.startDrain(reconnectDelayMs);
+        sessionManager.announceDrain(reconnectDelayMs, reconnectJitterMs);
+        LoggerUtil.info("Server đang drain, chờ tối đa " + drainTimeoutMs + " ms cho request đang xử lý");
+        if (admission.awaitIdle(drainTimeoutMs)) {
+            LoggerUtil.info("Đã xử lý xong các request đang chạy");
+        } else {
+            LoggerUtil.warn("Hết thời gian drain, vẫn còn request đang xử lý");
+        }
+        
+        // 3. Ghi trạng thái session, gửi nốt broadcast đang chờ rồi đóng kết nối
+        SessionStore.getInstance().flush();
+        sessionManager.awaitBroadcastsFlushed(2000);
+        sessionManager.disconnectAll();
+        if (nioTransport != null) {
+            nioTransport.stop();
+        }
         clientThreadPool.shutdown();
+        try {
+            clientThreadPool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         LoggerUtil.info("Server đã dừng");
     }
     
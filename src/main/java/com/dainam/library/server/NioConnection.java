@@ -0,0 +1,406 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.FrameIO;
+import com.dainam.library.util.LoggerUtil;
+import com.dainam.library.util.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Một kết nối client trên NIO transport.
+ * Đọc/ghi chỉ chạy trên I/O thread sở hữu selector; các frame hoàn chỉnh
+ * được xử lý tuần tự trên worker pool để giữ đúng thứ tự request/response.
+ * Heartbeat (dòng/frame rỗng) được trả lời ngay trên I/O thread, không qua worker.
+ */
+public class NioConnection implements ClientConnection {
+
+    // Cùng charset với BufferedReader/PrintWriter của ServerConnection để tương thích wire
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final SocketChannel channel;
+    private final NioServerTransport.IoLoop ioLoop;
+    private final Executor workerPool;
+    private final int maxFrameBytes;
+    private final int maxPendingFrames;
+    private final String remoteAddress;
+
+    private ClientHandler handler;
+    private SelectionKey key;
+
+    // Dữ liệu chỉ truy cập trên I/O thread (dòng JSON chưa đủ)
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+    // Frame nhị phân đang đọc dở (I/O thread): header, rồi payload đã cấp phát đủ độ dài
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FrameIO.HEADER_BYTES);
+    private int pendingHeader;
+    private byte[] framePayload;
+    private int frameFilled;
+    private volatile boolean readPaused = false;
+    // Lần cuối nhận được dữ liệu, dùng để đóng kết nối rảnh (I/O thread)
+    private long lastReadNanos = System.nanoTime();
+    // Đổi từ worker thread khi handshake, trước khi response handshake được gửi
+    private volatile WireFormat wireFormat = WireFormat.JSON;
+    private volatile int compressionThreshold = FrameIO.NO_COMPRESSION;
+
+    // Hàng đợi ghi (nhiều thread ghi, I/O thread đọc), giới hạn theo byte bởi watermark
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final OutboundWatermark watermark = new OutboundWatermark();
+
+    // Hàng đợi task chạy tuần tự trên worker pool
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    NioConnection(SocketChannel channel, NioServerTransport.IoLoop ioLoop, Executor workerPool,
+                  int maxFrameBytes, int maxPendingFrames) {
+        this.channel = channel;
+        this.ioLoop = ioLoop;
+        this.workerPool = workerPool;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingFrames = maxPendingFrames;
+        this.remoteAddress = resolveRemoteAddress(channel);
+    }
+
+    /**
+     * Gắn selection key và tạo ClientHandler trên worker pool
+     * (constructor của handler có thể gọi MongoDB nên không chạy trên I/O thread)
+     */
+    void attach(SelectionKey key) {
+        this.key = key;
+        submit(() -> handler = new ClientHandler(this));
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Đọc dữ liệu từ channel và tách thành các frame theo định dạng hiện tại (I/O thread)
+     */
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastReadNanos = System.nanoTime();
+        readBuffer.flip();
+
+        if (wireFormat.isBinary()) {
+            readBinaryFrames(readBuffer);
+        } else {
+            readLines(readBuffer);
+        }
+
+        // Backpressure: tạm ngừng đọc khi client gửi nhanh hơn worker xử lý
+        if (pendingFrames.get() >= maxPendingFrames && !readPaused) {
+            readPaused = true;
+            updateInterestOps();
+        }
+    }
+
+    /**
+     * Tách frame theo ký tự xuống dòng
+     */
+    private void readLines(ByteBuffer readBuffer) {
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                String line = decodeLine();
+                if (line.isEmpty()) {
+                    replyHeartbeat(NEWLINE);
+                    continue;
+                }
+                dispatch(handler -> handler.handleMessage(line));
+            } else {
+                lineBuffer.write(b);
+                if (lineBuffer.size() > maxFrameBytes) {
+                    LoggerUtil.warn("Frame vượt quá " + maxFrameBytes + " bytes từ " + remoteAddress + ", đóng kết nối");
+                    close();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tách frame nhị phân có tiền tố độ dài 4 byte. Payload được cấp phát một lần khi đã
+     * biết độ dài và điền dần theo từng lần đọc, không chép lại phần đã nhận
+     */
+    private void readBinaryFrames(ByteBuffer readBuffer) {
+        while (readBuffer.hasRemaining()) {
+            if (framePayload == null) {
+                while (frameHeader.hasRemaining() && readBuffer.hasRemaining()) {
+                    frameHeader.put(readBuffer.get());
+                }
+                if (frameHeader.hasRemaining()) {
+                    return;
+                }
+                int header = FrameIO.readHeader(frameHeader.array(), 0);
+                frameHeader.clear();
+                int length = FrameIO.frameLength(header);
+                if (length > maxFrameBytes) {
+                    LoggerUtil.warn("Frame không hợp lệ (" + length + " bytes) từ " + remoteAddress + ", đóng kết nối");
+                    close();
+                    return;
+                }
+                if (length == 0) {
+                    replyHeartbeat(FrameIO.toFrame(new byte[0]));
+                    continue;
+                }
+                pendingHeader = header;
+                framePayload = new byte[length];
+                frameFilled = 0;
+            }
+            int count = Math.min(readBuffer.remaining(), framePayload.length - frameFilled);
+            readBuffer.get(framePayload, frameFilled, count);
+            frameFilled += count;
+            if (frameFilled < framePayload.length) {
+                return;
+            }
+            int header = pendingHeader;
+            byte[] raw = framePayload;
+            framePayload = null;
+            // Giải nén (tới maxFrameBytes) trên worker cùng lúc decode Smile, không chặn selector
+            dispatch(handler -> {
+                byte[] payload;
+                try {
+                    payload = FrameIO.isCompressed(header) ? FrameIO.decodePayload(header, raw, 0, maxFrameBytes) : raw;
+                } catch (IOException e) {
+                    LoggerUtil.warn("Frame lỗi từ " + remoteAddress + ": " + e.getMessage() + ", đóng kết nối");
+                    close();
+                    return;
+                }
+                handler.handleBinaryMessage(payload);
+            });
+        }
+    }
+
+    /**
+     * Trả lại heartbeat trên I/O thread
+     */
+    private void replyHeartbeat(byte[] reply) {
+        ConnectionSettings.getInstance().recordHeartbeat();
+        enqueue(ByteBuffer.wrap(reply));
+        updateInterestOps();
+    }
+
+    /**
+     * Số ms từ lần cuối nhận được dữ liệu (I/O thread)
+     */
+    long getIdleMillis(long nowNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nowNanos - lastReadNanos);
+    }
+
+    /**
+     * Ghi dữ liệu đang chờ ra channel (I/O thread)
+     */
+    void onWritable() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = outbound.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                // Socket buffer đầy, chờ OP_WRITE tiếp theo
+                return;
+            }
+            outbound.poll();
+            watermark.written(buffer.limit());
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Cập nhật interest ops theo trạng thái hiện tại (I/O thread)
+     */
+    void updateInterestOps() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        if (readPaused && pendingFrames.get() < maxPendingFrames / 2) {
+            readPaused = false;
+        }
+        // Client không đọc response thì cũng không đọc thêm request của nó
+        boolean readable = !readPaused && watermark.isWritable();
+        int ops = (readable ? SelectionKey.OP_READ : 0)
+            | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        key.interestOps(ops);
+    }
+
+    private String decodeLine() {
+        byte[] bytes = lineBuffer.toByteArray();
+        lineBuffer.reset();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, CHARSET);
+    }
+
+    private void dispatch(Consumer<ClientHandler> frameHandler) {
+        pendingFrames.incrementAndGet();
+        submit(() -> {
+            try {
+                if (handler != null) {
+                    frameHandler.accept(handler);
+                }
+            } finally {
+                requestCompleted();
+            }
+        });
+    }
+
+    /**
+     * Request pipelined đang chạy trên pool vẫn được tính vào số frame chờ,
+     * nên client gửi dồn làm kết nối ngừng đọc thay vì chiếm worker
+     */
+    @Override
+    public void requestDeferred() {
+        pendingFrames.incrementAndGet();
+    }
+
+    @Override
+    public void requestCompleted() {
+        if (pendingFrames.decrementAndGet() < maxPendingFrames / 2 && readPaused) {
+            ioLoop.requestInterestUpdate(this);
+        }
+    }
+
+    /**
+     * Đưa task vào hàng đợi tuần tự của kết nối này
+     */
+    private void submit(Runnable task) {
+        tasks.add(task);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                workerPool.execute(this::drainTasks);
+            } catch (Exception e) {
+                drainScheduled.set(false);
+                LoggerUtil.error("Worker pool từ chối task: " + e.getMessage());
+            }
+        }
+    }
+
+    private void drainTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LoggerUtil.error("Lỗi xử lý frame từ " + remoteAddress + ": " + e.getMessage());
+            }
+        }
+        drainScheduled.set(false);
+        if (!tasks.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    @Override
+    public void send(String message) {
+        if (closed.get()) {
+            return;
+        }
+        enqueue(ByteBuffer.wrap((message + "\n").getBytes(CHARSET)));
+        ioLoop.requestInterestUpdate(this);
+    }
+
+    @Override
+    public void sendFrame(byte[] payload) {
+        if (closed.get()) {
+            return;
+        }
+        enqueue(ByteBuffer.wrap(FrameIO.toFrame(payload, compressionThreshold)));
+        ioLoop.requestInterestUpdate(this);
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        watermark.added(buffer.limit());
+        outbound.add(buffer);
+    }
+
+    @Override
+    public boolean isWritable() {
+        return watermark.isWritable();
+    }
+
+    @Override
+    public boolean hasPendingWrites() {
+        return watermark.hasPendingBytes();
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        watermark.setWritableListener(listener);
+    }
+
+    @Override
+    public void setWireFormat(WireFormat format, int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        this.wireFormat = format;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        watermark.close();
+        ioLoop.requestClose(this);
+        // Cleanup chạy sau các frame còn lại, trên worker pool (có thể gọi MongoDB)
+        submit(() -> {
+            if (handler != null) {
+                handler.onDisconnect();
+            }
+        });
+    }
+
+    /**
+     * Đóng channel thực sự (I/O thread)
+     */
+    void closeChannel() {
+        try {
+            if (key != null) {
+                key.cancel();
+            }
+            channel.close();
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi đóng channel: " + e.getMessage());
+        }
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    private static String resolveRemoteAddress(SocketChannel channel) {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.LoggerUtil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transport non-blocking dựa trên java.nio Selector.
+ * Một acceptor + vài I/O thread phục vụ hàng nghìn kết nối, các frame JSON
+ * hoàn chỉnh được chuyển sang worker pool để ClientHandler xử lý.
+ * Giao thức giữ nguyên: mỗi request/response là một dòng JSON kết thúc bằng '\n'.
+ * Heartbeat được trả lời ngay trên I/O thread; mỗi I/O thread định kỳ đóng các
+ * kết nối không gửi gì quá server.connection.idle.timeout.ms.
+ */
+public class NioServerTransport {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final int port;
+    private final int ioThreadCount;
+    private final int maxFrameBytes;
+    private final int maxPendingFrames;
+    private final ExecutorService workerPool;
+    private final ConnectionSettings connectionSettings = ConnectionSettings.getInstance();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final boolean reusePort;
+
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private IoLoop[] ioLoops;
+    private int nextLoop = 0;
+
+    public NioServerTransport(int port, int ioThreadCount, int maxFrameBytes, int maxPendingFrames,
+                              ExecutorService workerPool, boolean reusePort) {
+        this.port = port;
+        this.ioThreadCount = Math.max(1, ioThreadCount);
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingFrames = Math.max(2, maxPendingFrames);
+        this.workerPool = workerPool;
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Mở cổng và chạy vòng lặp accept trên thread hiện tại (block cho tới khi stop)
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        connectionSettings.configure(serverChannel);
+        if (reusePort) {
+            if (serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            } else {
+                LoggerUtil.warn("Hệ điều hành không hỗ trợ SO_REUSEPORT");
+            }
+        }
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        ioLoops = new IoLoop[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            ioLoops[i] = new IoLoop(Selector.open());
+            Thread thread = new Thread(ioLoops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        running.set(true);
+        LoggerUtil.info("NIO transport đã khởi chạy trên port " + port + " với " + ioThreadCount + " I/O thread");
+
+        try {
+            while (running.get() && acceptSelector.isOpen()) {
+                acceptSelector.select();
+                Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        acceptConnections();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Selector đã đóng do stopAccepting()/stop()
+        } catch (IOException e) {
+            if (running.get()) {
+                throw e;
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                connectionSettings.configure(channel);
+                IoLoop loop = ioLoops[nextLoop];
+                nextLoop = (nextLoop + 1) % ioLoops.length;
+                loop.register(new NioConnection(channel, loop, workerPool, maxFrameBytes, maxPendingFrames));
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi chấp nhận kết nối: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ngừng nhận kết nối mới; các kết nối hiện có vẫn được phục vụ (drain)
+     */
+    public void stopAccepting() {
+        try {
+            if (acceptSelector != null) {
+                acceptSelector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi đóng server channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Dừng transport và đóng toàn bộ kết nối
+     */
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        stopAccepting();
+        if (ioLoops != null) {
+            for (IoLoop loop : ioLoops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Vòng lặp selector cho một nhóm kết nối
+     */
+    class IoLoop implements Runnable {
+
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<NioConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingInterestUpdates = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingCloses = new ConcurrentLinkedQueue<>();
+        private volatile boolean active = true;
+        private long lastIdleSweep = System.nanoTime();
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(NioConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        void requestInterestUpdate(NioConnection connection) {
+            pendingInterestUpdates.add(connection);
+            selector.wakeup();
+        }
+
+        void requestClose(NioConnection connection) {
+            pendingCloses.add(connection);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            active = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long idleTimeoutMs = connectionSettings.getIdleTimeoutMs();
+            // Quét kết nối rảnh khoảng 10 lần trong một idle timeout (tối đa mỗi giây một lần)
+            long sweepIntervalMs = idleTimeoutMs > 0 ? Math.max(1000, idleTimeoutMs / 10) : 0;
+            try {
+                while (active) {
+                    selector.select(sweepIntervalMs);
+                    processPendingOperations();
+                    if (sweepIntervalMs > 0) {
+                        closeIdleConnections(idleTimeoutMs, sweepIntervalMs);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            LoggerUtil.info("Client ngắt kết nối: " + connection.getRemoteAddress() + " (" + e.getMessage() + ")");
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LoggerUtil.error("Lỗi I/O loop: " + e.getMessage());
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void processPendingOperations() {
+            NioConnection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                    connection.attach(key);
+                    LoggerUtil.info("Client kết nối từ: " + connection.getRemoteAddress());
+                } catch (IOException e) {
+                    LoggerUtil.error("Lỗi đăng ký kết nối: " + e.getMessage());
+                    connection.closeChannel();
+                }
+            }
+            while ((connection = pendingInterestUpdates.poll()) != null) {
+                if (!connection.isClosed()) {
+                    connection.updateInterestOps();
+                }
+            }
+            while ((connection = pendingCloses.poll()) != null) {
+                // Cố gắng ghi nốt dữ liệu còn lại trước khi đóng
+                try {
+                    connection.onWritable();
+                } catch (IOException e) {
+                    // Bỏ qua, channel sẽ bị đóng
+                }
+                connection.closeChannel();
+            }
+        }
+
+        private void closeIdleConnections(long idleTimeoutMs, long sweepIntervalMs) {
+            long now = System.nanoTime();
+            if (TimeUnit.NANOSECONDS.toMillis(now - lastIdleSweep) < sweepIntervalMs) {
+                return;
+            }
+            lastIdleSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!connection.isClosed() && connection.getIdleMillis(now) > idleTimeoutMs) {
+                        LoggerUtil.info("Đóng kết nối rảnh: " + connection.getRemoteAddress());
+                        connectionSettings.recordIdleClose();
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    NioConnection connection = (NioConnection) key.attachment();
+                    connection.close();
+                    connection.closeChannel();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LoggerUtil.error("Lỗi đóng selector: " + e.getMessage());
+            }
+        }
+    }
+}
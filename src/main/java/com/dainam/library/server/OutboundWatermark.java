@@ -0,0 +1,138 @@
+package com.dainam.library.server;
+
+import com.dainam.library.config.AppConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Đếm số byte đã xếp hàng nhưng chưa ghi ra socket của một kết nối.
+ * Khi vượt server.connection.max.outbound.bytes kết nối bị coi là đầy: outbox ngừng ghi
+ * broadcast (hàng đợi của nó đầy dần và policy client chậm được áp dụng) và server ngừng đọc
+ * request mới của client đó. Ghi bớt xuống dưới một nửa thì hết đầy và listener được gọi.
+ * Dùng ReentrantLock để không pin virtual thread khi chờ.
+ */
+class OutboundWatermark {
+
+    private static final long DEFAULT_MAX_BYTES =
+        Math.max(1024, AppConfig.getLong("server.connection.max.outbound.bytes", 4 * 1024 * 1024));
+
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writable = lock.newCondition();
+    // Các field dưới đây được bảo vệ bởi lock
+    private long pendingBytes = 0;
+    private boolean full = false;
+    private boolean closed = false;
+    private Runnable writableListener;
+
+    OutboundWatermark() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    OutboundWatermark(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    void setWritableListener(Runnable listener) {
+        lock.lock();
+        try {
+            this.writableListener = listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ghi nhận bytes vừa xếp hàng chờ ghi
+     */
+    void added(int bytes) {
+        lock.lock();
+        try {
+            pendingBytes += bytes;
+            if (pendingBytes >= maxBytes) {
+                full = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ghi nhận bytes đã ghi ra socket (hoặc bị bỏ); gọi listener nếu vừa hết đầy
+     */
+    void written(int bytes) {
+        Runnable listener = null;
+        lock.lock();
+        try {
+            pendingBytes = Math.max(0, pendingBytes - bytes);
+            if (full && pendingBytes < maxBytes / 2) {
+                full = false;
+                writable.signalAll();
+                listener = writableListener;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    boolean isWritable() {
+        lock.lock();
+        try {
+            return !full;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chờ tới khi hết đầy hoặc kết nối đóng; false nếu hết timeoutMs mà vẫn đầy (0 = chờ mãi)
+     */
+    boolean awaitWritable(long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (full && !closed) {
+                if (timeoutMs <= 0) {
+                    writable.await();
+                } else {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = writable.awaitNanos(remaining);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Kết nối đã đóng: bỏ số đếm và đánh thức thread đang chờ
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pendingBytes = 0;
+            full = false;
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
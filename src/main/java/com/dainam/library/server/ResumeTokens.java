@@ -0,0 +1,76 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.LoggerUtil;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Token khôi phục session: base64url(sessionId|userId|hạn) + "." + HMAC-SHA256 của phần đó.
+ * Khóa ký sinh ngẫu nhiên theo tiến trình vì session chỉ nằm trong bộ nhớ;
+ * token chỉ chứng minh client từng giữ session, session vẫn phải còn hiệu lực khi khôi phục.
+ */
+class ResumeTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMs;
+
+    ResumeTokens(long ttlMs) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMs = ttlMs;
+    }
+
+    String issue(String sessionId, String userId) {
+        String payload = sessionId + "|" + userId + "|" + (System.currentTimeMillis() + ttlMs);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * Kiểm tra chữ ký và hạn; trả về {sessionId, userId} hoặc null nếu token không hợp lệ
+     */
+    String[] verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            byte[] payloadBytes = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payloadBytes))) {
+                return null;
+            }
+            String[] parts = new String(payloadBytes, StandardCharsets.UTF_8).split("\\|");
+            if (parts.length != 3 || Long.parseLong(parts[2]) < System.currentTimeMillis()) {
+                return null;
+            }
+            return new String[] { parts[0], parts[1] };
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi ký token khôi phục session: " + e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+}
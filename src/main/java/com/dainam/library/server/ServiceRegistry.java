@@ -0,0 +1,130 @@
+package com.dainam.library.server;
+
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.service.BookService;
+import com.dainam.library.service.BorrowService;
+import com.dainam.library.service.FineService;
+import com.dainam.library.service.UserService;
+import com.dainam.library.util.LoggerUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry giữ một instance dùng chung của mỗi service phía server.
+ * Các service chỉ giữ MongoCollection (thread-safe) nên có thể dùng đồng thời
+ * từ mọi ClientHandler, thay vì tạo cả cây service cho mỗi kết nối.
+ */
+public class ServiceRegistry {
+    
+    private static ServiceRegistry instance;
+    
+    private final UserService userService;
+    private final BookService bookService;
+    private final FineService fineService;
+    private final BorrowService borrowService;
+    
+    // Pool xử lý các request pipelined (có requestId) song song
+    private final ExecutorService requestExecutor;
+    // Pool riêng cho login pipelined, để đợt đăng nhập dồn dập không chiếm request-worker
+    private final ExecutorService loginExecutor;
+    
+    private ServiceRegistry() {
+        long start = System.currentTimeMillis();
+        this.userService = new UserService();
+        this.bookService = new BookService();
+        this.fineService = new FineService();
+        this.borrowService = new BorrowService(bookService, userService, fineService);
+        this.requestExecutor = createRequestExecutor(AdmissionController.getInstance().getMaxConcurrent());
+        this.loginExecutor = createLoginExecutor(AppConfig.getInt("server.auth.login.threads", 8),
+            AppConfig.getInt("server.auth.login.queue.capacity", 512));
+        // Đối chiếu định kỳ totalCopies/availableCopies với trạng thái bản sao
+        scheduleInventoryReconcile(bookService);
+        LoggerUtil.info("Khởi tạo service registry trong " + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    public static synchronized ServiceRegistry getInstance() {
+        if (instance == null) {
+            instance = new ServiceRegistry();
+        }
+        return instance;
+    }
+    
+    /**
+     * Request pipelined đã giữ chỗ trong AdmissionController trước khi được xếp vào pool,
+     * nên pool có ít nhất server.admission.max.concurrent thread (request được nhận chạy ngay)
+     * và hàng đợi có giới hạn; pool từ chối thì client nhận retryAfterMs
+     */
+    private static ExecutorService createRequestExecutor(int maxConcurrent) {
+        int threads = AppConfig.getInt("server.pipeline.threads", maxConcurrent);
+        if (threads < maxConcurrent) {
+            LoggerUtil.warn("server.pipeline.threads (" + threads + ") nhỏ hơn server.admission.max.concurrent ("
+                + maxConcurrent + "), request đã được nhận sẽ phải chờ trong hàng đợi");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, maxConcurrent)), runnable -> {
+                Thread thread = new Thread(runnable, "request-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+    
+    private static void scheduleInventoryReconcile(BookService bookService) {
+        long intervalMs = AppConfig.getLong("inventory.reconcile.interval.ms", 600000);
+        if (intervalMs <= 0) {
+            return;
+        }
+        long initialDelayMs = Math.max(0, AppConfig.getLong("inventory.reconcile.initial.delay.ms", 60000));
+        int batchSize = Math.max(1, AppConfig.getInt("inventory.reconcile.batch.size", 500));
+        long settleMs = Math.max(0, AppConfig.getLong("inventory.reconcile.settle.ms", 2000));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> bookService.reconcileCopyCounts(batchSize, settleMs),
+            initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private static ExecutorService createLoginExecutor(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        int size = Math.max(1, threads);
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                Thread thread = new Thread(runnable, "login-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+    
+    public UserService getUserService() {
+        return userService;
+    }
+    
+    public BookService getBookService() {
+        return bookService;
+    }
+    
+    public FineService getFineService() {
+        return fineService;
+    }
+    
+    public BorrowService getBorrowService() {
+        return borrowService;
+    }
+    
+    public ExecutorService getRequestExecutor() {
+        return requestExecutor;
+    }
+    
+    public ExecutorService getLoginExecutor() {
+        return loginExecutor;
+    }
+}
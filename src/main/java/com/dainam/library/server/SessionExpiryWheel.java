@@ -0,0 +1,115 @@
+package com.dainam.library.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel cho việc hết hạn session.
+ * Mỗi session nằm trong ô ứng với thời điểm hết hạn; cập nhật hoạt động chỉ đổi
+ * lastActivity (O(1)), khi tới ô của mình session mới được kiểm tra lại và chuyển
+ * sang ô mới nếu vẫn còn hoạt động. Mỗi tick chỉ duyệt một ô thay vì mọi session.
+ */
+class SessionExpiryWheel {
+
+    private final long tickMs;
+    private final long idleTimeoutMs;
+    private final List<Set<SessionManager.ClientSession>> slots;
+    private long currentTick;
+
+    // Số liệu (được bảo vệ bởi lock của wheel)
+    private long expiredTotal = 0;
+    private long rescheduledTotal = 0;
+    private int lastTickVisited = 0;
+
+    SessionExpiryWheel(long tickMs, long idleTimeoutMs, long now) {
+        this.tickMs = Math.max(1, tickMs);
+        this.idleTimeoutMs = idleTimeoutMs;
+        // Đủ ô để mọi hạn (tối đa idleTimeout tính từ hiện tại) không quay quá một vòng
+        int slotCount = (int) (idleTimeoutMs / this.tickMs) + 2;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new HashSet<>());
+        }
+        this.currentTick = now / this.tickMs;
+    }
+
+    /**
+     * Đưa session vào ô theo hạn hiện tại của nó
+     */
+    synchronized void add(SessionManager.ClientSession session) {
+        place(session, session.getLastActivity() + idleTimeoutMs);
+    }
+
+    synchronized void remove(SessionManager.ClientSession session) {
+        if (session.wheelSlot >= 0) {
+            slots.get(session.wheelSlot).remove(session);
+            session.wheelSlot = -1;
+        }
+    }
+
+    private void place(SessionManager.ClientSession session, long deadline) {
+        long tick = Math.max(deadline / tickMs, currentTick + 1);
+        int slot = (int) (tick % slots.size());
+        slots.get(slot).add(session);
+        session.wheelSlot = slot;
+    }
+
+    /**
+     * Tiến wheel tới thời điểm now, trả về các session đã hết hạn (đã bị gỡ khỏi wheel)
+     */
+    synchronized List<SessionManager.ClientSession> advance(long now) {
+        List<SessionManager.ClientSession> expired = new ArrayList<>();
+        long targetTick = now / tickMs;
+        int visited = 0;
+        // Nếu scheduler bị trễ hơn một vòng thì chỉ cần duyệt mỗi ô một lần
+        if (targetTick - currentTick > slots.size()) {
+            currentTick = targetTick - slots.size();
+        }
+        while (currentTick < targetTick) {
+            currentTick++;
+            Set<SessionManager.ClientSession> slot = slots.get((int) (currentTick % slots.size()));
+            List<SessionManager.ClientSession> moved = new ArrayList<>();
+            Iterator<SessionManager.ClientSession> iterator = slot.iterator();
+            while (iterator.hasNext()) {
+                SessionManager.ClientSession session = iterator.next();
+                visited++;
+                long deadline = session.getLastActivity() + idleTimeoutMs;
+                if (deadline <= now) {
+                    iterator.remove();
+                    session.wheelSlot = -1;
+                    expired.add(session);
+                } else {
+                    // Session vẫn hoạt động: chuyển tới ô của hạn mới (ít nhất là tick sau)
+                    iterator.remove();
+                    moved.add(session);
+                }
+            }
+            for (SessionManager.ClientSession session : moved) {
+                place(session, session.getLastActivity() + idleTimeoutMs);
+            }
+            rescheduledTotal += moved.size();
+        }
+        expiredTotal += expired.size();
+        lastTickVisited = visited;
+        return expired;
+    }
+
+    synchronized long getExpiredTotal() {
+        return expiredTotal;
+    }
+
+    synchronized long getRescheduledTotal() {
+        return rescheduledTotal;
+    }
+
+    synchronized int getLastTickVisited() {
+        return lastTickVisited;
+    }
+
+    int getSlotCount() {
+        return slots.size();
+    }
+}
@@ -1,29 +1,126 @@
 package com.dainam.library.server;
 
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.model.Book;
+import com.dainam.library.model.BorrowRecord;
+import com.dainam.library.model.User;
+import com.dainam.library.service.SessionStore;
+import com.dainam.library.util.JsonUtil;
 import com.dainam.library.util.LoggerUtil;
 import com.dainam.library.util.EventBus;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Quản lý session và broadcasting cho multiple clients
+ * Quản lý session và broadcasting cho multiple clients.
+ * Broadcast không ghi trực tiếp ra socket: mỗi client có một ClientOutbox giới hạn,
+ * được writer pool riêng ghi ra, nên client chậm không làm chậm thread phát sự kiện.
+ * Client đã gọi subscribe chỉ nhận sự kiện khớp topic/key đã đăng ký; client chưa
+ * đăng ký gì (client cũ) vẫn nhận sự kiện sách và hệ thống như trước. Sự kiện riêng
+ * của user (phiếu mượn, tài khoản) chỉ tới kết nối đang đăng nhập là chính user đó hoặc admin.
+ * Sự kiện delta (ChangeEvent) được gộp theo đối tượng trong một cửa sổ ngắn
+ * trước khi phát, nên một loạt cập nhật liên tiếp chỉ sinh một message.
+ * Session hết hạn theo thời gian rảnh qua timer wheel (mỗi tick chỉ xét một ô),
+ * và có chỉ mục userId -> session để kiểm tra online trong O(1).
+ * Session đăng nhập do SessionStore quản lý; ở đây chỉ gắn session với kết nối,
+ * và bị gỡ khi SessionStore kết thúc session (đăng xuất, đăng nhập nơi khác, hết hạn).
+ * Khi kết nối rớt, session được giữ tạm trong server.session.resume.grace.ms để client
+ * kết nối lại khôi phục bằng token đã ký thay vì đăng nhập lại.
  */
 public class SessionManager {
     
     private static SessionManager instance;
     private final Map<String, ClientSession> activeSessions;
-    private final List<ClientHandler> connectedClients;
+    private final Map<String, Set<String>> sessionsByUser = new ConcurrentHashMap<>();
+    // Session đang gắn với từng kết nối (không phải quét mọi session khi kết nối rớt)
+    private final Map<ClientHandler, Set<String>> sessionsByHandler = new ConcurrentHashMap<>();
+    private final SessionStore sessionStore;
+    private final Map<ClientHandler, ClientOutbox> connectedClients;
     private final EventBus eventBus;
     
+    // Fan-out broadcast
+    private final ExecutorService broadcastWriters;
+    private final int outboxCapacity;
+    private final ClientOutbox.SlowConsumerPolicy slowConsumerPolicy;
+    private final BroadcastStats broadcastStats = new BroadcastStats();
+    
+    // Định tuyến sự kiện theo đăng ký
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final Set<ClientHandler> unfilteredClients = ConcurrentHashMap.newKeySet();
+    private final int maxSubscriptionsPerClient = AppConfig.getInt("server.subscription.max.per.client", 200);
+    
+    // Cửa sổ gộp sự kiện delta (được bảo vệ bởi lock của pendingChanges)
+    private final long coalesceWindowMs = AppConfig.getLong("server.events.coalesce.window.ms", 100);
+    private final Map<String, ChangeEvent> pendingChanges = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+    
+    // Scheduler dùng chung cho gộp sự kiện và hết hạn session
+    private final ScheduledExecutorService scheduler;
+    private final long sessionIdleTimeoutMs = AppConfig.getLong("server.session.idle.timeout.ms", 1800000);
+    private final SessionExpiryWheel expiryWheel;
+    private volatile long lastExpiryTickNanos = 0;
+    
+    // Khôi phục session sau khi kết nối lại
+    private final long resumeGraceMs = AppConfig.getLong("server.session.resume.grace.ms", 120000);
+    private final ResumeTokens resumeTokens =
+        new ResumeTokens(Math.max(1000, AppConfig.getLong("server.session.resume.token.ttl.ms", 43200000)));
+    private final LongAdder suspendedTotal = new LongAdder();
+    private final LongAdder resumedTotal = new LongAdder();
+    private final LongAdder resumeRejected = new LongAdder();
+    
     private SessionManager() {
         this.activeSessions = new ConcurrentHashMap<>();
-        this.connectedClients = new CopyOnWriteArrayList<>();
+        this.connectedClients = new ConcurrentHashMap<>();
         this.eventBus = EventBus.getInstance();
+        this.sessionStore = SessionStore.getInstance();
+        sessionStore.addEndListener(this::detachSession);
+        this.outboxCapacity = AppConfig.getInt("server.broadcast.queue.capacity", 256);
+        this.slowConsumerPolicy = parsePolicy(AppConfig.getString("server.broadcast.policy", "coalesce"));
+        AtomicInteger writerCounter = new AtomicInteger();
+        this.broadcastWriters = Executors.newFixedThreadPool(
+            Math.max(1, AppConfig.getInt("server.broadcast.writer.threads", 4)), runnable -> {
+                Thread thread = new Thread(runnable, "broadcast-writer-" + writerCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        AtomicInteger schedulerCounter = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(
+            Math.max(1, AppConfig.getInt("server.scheduler.threads", 1)), runnable -> {
+                Thread thread = new Thread(runnable, "session-scheduler-" + schedulerCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        long tickMs = Math.max(10, AppConfig.getLong("server.session.expiry.tick.ms", 1000));
+        this.expiryWheel = new SessionExpiryWheel(tickMs, sessionIdleTimeoutMs, System.currentTimeMillis());
+        if (sessionIdleTimeoutMs > 0) {
+            scheduler.scheduleAtFixedRate(this::expireIdleSessions, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        }
         setupEventSubscriptions();
     }
     
+    private static ClientOutbox.SlowConsumerPolicy parsePolicy(String value) {
+        try {
+            return ClientOutbox.SlowConsumerPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LoggerUtil.warn("server.broadcast.policy không hợp lệ: " + value + ", dùng COALESCE");
+            return ClientOutbox.SlowConsumerPolicy.COALESCE;
+        }
+    }
+    
     public static synchronized SessionManager getInstance() {
         if (instance == null) {
             instance = new SessionManager();
@@ -35,40 +132,184 @@ public class SessionManager {
      * Đăng ký client handler mới
      */
     public void registerClient(ClientHandler clientHandler) {
-        connectedClients.add(clientHandler);
+        connectedClients.put(clientHandler, new ClientOutbox(clientHandler, broadcastWriters,
+            outboxCapacity, slowConsumerPolicy, broadcastStats));
+        unfilteredClients.add(clientHandler);
         LoggerUtil.info("Client registered. Total clients: " + connectedClients.size());
     }
     
+    /**
+     * Kết nối của client vừa hết đầy (gọi từ thread ghi, không chặn)
+     */
+    void onClientWritable(ClientHandler clientHandler) {
+        ClientOutbox outbox = connectedClients.get(clientHandler);
+        if (outbox != null) {
+            outbox.onWritable();
+        }
+    }
+    
     /**
      * Hủy đăng ký client handler
      */
     public void unregisterClient(ClientHandler clientHandler) {
-        connectedClients.remove(clientHandler);
-        // Remove associated sessions
-        activeSessions.entrySet().removeIf(entry -> 
-            entry.getValue().getClientHandler().equals(clientHandler));
+        ClientOutbox outbox = connectedClients.remove(clientHandler);
+        if (outbox != null) {
+            outbox.close();
+        }
+        unfilteredClients.remove(clientHandler);
+        subscriptions.removeClient(clientHandler);
+        // Session của kết nối: giữ tạm chờ khôi phục, hoặc kết thúc ngay nếu tắt khôi phục
+        Set<String> sessionIds = sessionsByHandler.remove(clientHandler);
+        if (sessionIds != null) {
+            for (String sessionId : sessionIds) {
+                ClientSession session = activeSessions.get(sessionId);
+                if (session == null || session.getClientHandler() != clientHandler) {
+                    continue;
+                }
+                if (resumeGraceMs > 0) {
+                    suspendSession(session, clientHandler);
+                } else {
+                    removeSession(sessionId);
+                }
+            }
+        }
         LoggerUtil.info("Client unregistered. Total clients: " + connectedClients.size());
     }
     
     /**
-     * Tạo session mới cho user
+     * Gắn session vừa tạo trong SessionStore với kết nối của client.
+     * Trả về null nếu session đã bị kết thúc trước khi kịp gắn (lần đăng nhập đồng thời
+     * khác của cùng user đã thay nó)
      */
-    public void createSession(String userId, String sessionId, ClientHandler clientHandler) {
-        ClientSession session = new ClientSession(userId, sessionId, clientHandler);
+    public ClientSession createSession(User user, String sessionId, ClientHandler clientHandler) {
+        String userId = user.getUserId();
+        ClientSession session = new ClientSession(user, sessionId, clientHandler);
         activeSessions.put(sessionId, session);
+        sessionsByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        indexHandler(clientHandler, sessionId);
+        if (sessionIdleTimeoutMs > 0) {
+            expiryWheel.add(session);
+        }
+        // Listener kết thúc có thể đã chạy trước khi session được gắn ở trên
+        if (sessionStore.getSession(sessionId) == null) {
+            detachSession(sessionId);
+            return null;
+        }
         LoggerUtil.info("Session created for user: " + userId + ", Session ID: " + sessionId);
+        return session;
+    }
+    
+    /**
+     * Token để client khôi phục session này sau khi kết nối lại
+     */
+    public String issueResumeToken(ClientSession session) {
+        return resumeTokens.issue(session.getSessionId(), session.getUserId());
     }
     
     /**
-     * Xóa session
+     * Gắn lại session với kết nối mới bằng token khôi phục (không kiểm tra mật khẩu).
+     * Kết nối cũ chưa bị phát hiện rớt (half-open) sẽ mất session. Trả về null nếu token
+     * sai/hết hạn hoặc session đã kết thúc.
+     */
+    public ClientSession resumeSession(String token, ClientHandler clientHandler) {
+        String[] claims = resumeTokens.verify(token);
+        ClientSession session = claims != null ? activeSessions.get(claims[0]) : null;
+        if (session == null || !session.getUserId().equals(claims[1])
+                || sessionStore.getSession(session.getSessionId()) == null) {
+            resumeRejected.increment();
+            return null;
+        }
+        ClientHandler previous;
+        synchronized (session) {
+            previous = session.getClientHandler();
+            session.attach(clientHandler);
+            unindexHandler(previous, session.getSessionId());
+            indexHandler(clientHandler, session.getSessionId());
+        }
+        session.updateActivity();
+        if (previous != null && previous != clientHandler) {
+            previous.expireSession(session.getSessionId());
+        }
+        resumedTotal.increment();
+        LoggerUtil.info("Session resumed for user: " + session.getUserId() + ", Session ID: " + session.getSessionId());
+        return session;
+    }
+    
+    /**
+     * Tách session khỏi kết nối vừa rớt; hết thời gian chờ mà chưa khôi phục thì kết thúc
+     */
+    private void suspendSession(ClientSession session, ClientHandler clientHandler) {
+        long suspension;
+        synchronized (session) {
+            if (session.getClientHandler() != clientHandler) {
+                return;
+            }
+            session.attach(null);
+            unindexHandler(clientHandler, session.getSessionId());
+            suspension = ++session.suspendCount;
+        }
+        suspendedTotal.increment();
+        scheduler.schedule(() -> {
+            // Bỏ qua nếu session đã được khôi phục (kể cả khi sau đó lại rớt lần nữa)
+            if (session.getClientHandler() == null && session.suspendCount == suspension
+                    && activeSessions.get(session.getSessionId()) == session) {
+                LoggerUtil.info("Session not resumed, removing: " + session.getSessionId());
+                removeSession(session.getSessionId());
+            }
+        }, resumeGraceMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Xóa session (kết thúc trong SessionStore, listener sẽ gỡ khỏi kết nối)
      */
     public void removeSession(String sessionId) {
+        if (!sessionStore.endSession(sessionId)) {
+            detachSession(sessionId);
+        }
+    }
+    
+    /**
+     * Gỡ session khỏi kết nối khi SessionStore kết thúc nó
+     */
+    private void detachSession(String sessionId) {
         ClientSession session = activeSessions.remove(sessionId);
         if (session != null) {
+            expiryWheel.remove(session);
+            unindex(session);
+            ClientHandler clientHandler;
+            synchronized (session) {
+                clientHandler = session.getClientHandler();
+                unindexHandler(clientHandler, sessionId);
+            }
+            if (clientHandler != null) {
+                clientHandler.expireSession(sessionId);
+            }
             LoggerUtil.info("Session removed for user: " + session.getUserId() + ", Session ID: " + sessionId);
         }
     }
     
+    private void unindex(ClientSession session) {
+        sessionsByUser.computeIfPresent(session.getUserId(), (userId, sessionIds) -> {
+            sessionIds.remove(session.getSessionId());
+            return sessionIds.isEmpty() ? null : sessionIds;
+        });
+    }
+    
+    private void indexHandler(ClientHandler clientHandler, String sessionId) {
+        if (clientHandler != null) {
+            sessionsByHandler.computeIfAbsent(clientHandler, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        }
+    }
+    
+    private void unindexHandler(ClientHandler clientHandler, String sessionId) {
+        if (clientHandler != null) {
+            sessionsByHandler.computeIfPresent(clientHandler, (handler, sessionIds) -> {
+                sessionIds.remove(sessionId);
+                return sessionIds.isEmpty() ? null : sessionIds;
+            });
+        }
+    }
+    
     /**
      * Lấy session theo ID
      */
@@ -77,40 +318,296 @@ public class SessionManager {
     }
     
     /**
-     * Broadcast message tới tất cả clients
+     * Broadcast message tới tất cả clients (chỉ xếp hàng, không chờ ghi socket)
      */
     public void broadcastToAll(String message) {
-        for (ClientHandler client : connectedClients) {
+        broadcastToAll(message, null);
+    }
+    
+    private void broadcastToAll(String message, String coalesceKey) {
+        // Một message dùng chung cho mọi client: Smile chỉ được encode một lần
+        BroadcastMessage shared = BroadcastMessage.of(message);
+        for (ClientOutbox outbox : connectedClients.values()) {
+            outbox.offer(shared, coalesceKey);
+        }
+    }
+    
+    /**
+     * Báo mọi client server sắp dừng: kết nối lại sau reconnectAfterMs cộng thêm
+     * một khoảng ngẫu nhiên tới jitterMs, để các client không kết nối lại cùng lúc
+     */
+    public void announceDrain(long reconnectAfterMs, long jitterMs) {
+        broadcastToAll("{\"type\":\"server_draining\",\"reconnectAfterMs\":" + reconnectAfterMs
+            + ",\"jitterMs\":" + jitterMs + "}");
+    }
+    
+    /**
+     * Chờ các hàng đợi broadcast ghi xong (tối đa timeoutMs), ví dụ để thông báo drain tới client
+     */
+    public void awaitBroadcastsFlushed(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            boolean idle = true;
+            for (ClientOutbox outbox : connectedClients.values()) {
+                idle &= outbox.isIdle();
+            }
+            if (idle) {
+                return;
+            }
             try {
-                client.sendMessage(message);
-            } catch (Exception e) {
-                LoggerUtil.error("Error broadcasting to client: " + e.getMessage());
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
     
+    /**
+     * Đóng kết nối của mọi client (bước cuối khi dừng server)
+     */
+    public void disconnectAll() {
+        for (ClientHandler clientHandler : new ArrayList<>(connectedClients.keySet())) {
+            clientHandler.disconnect();
+        }
+    }
+    
     /**
      * Broadcast message tới clients cụ thể (trừ sender)
      */
     public void broadcastToOthers(ClientHandler sender, String message) {
-        for (ClientHandler client : connectedClients) {
-            if (!client.equals(sender)) {
-                try {
-                    client.sendMessage(message);
-                } catch (Exception e) {
-                    LoggerUtil.error("Error broadcasting to client: " + e.getMessage());
-                }
+        BroadcastMessage shared = BroadcastMessage.of(message);
+        for (Map.Entry<ClientHandler, ClientOutbox> entry : connectedClients.entrySet()) {
+            if (!entry.getKey().equals(sender)) {
+                entry.getValue().offer(shared, null);
             }
         }
     }
     
     /**
-     * Broadcast event về thay đổi dữ liệu
+     * Đăng ký nhận sự kiện của topic (key null = mọi key).
+     * Từ lần đăng ký đầu tiên client chỉ nhận sự kiện khớp đăng ký.
+     */
+    public boolean subscribe(ClientHandler client, String topic, String key) {
+        if (!subscriptions.subscribe(client, topic, key, maxSubscriptionsPerClient)) {
+            return false;
+        }
+        unfilteredClients.remove(client);
+        return true;
+    }
+    
+    /**
+     * Hủy đăng ký topic/key
+     */
+    public void unsubscribe(ClientHandler client, String topic, String key) {
+        subscriptions.unsubscribe(client, topic, key);
+    }
+    
+    /**
+     * Broadcast event về thay đổi dữ liệu tới client đã đăng ký topic/key tương ứng
+     * và client chưa dùng đăng ký
      */
     public void broadcastDataChange(String eventType, Object data) {
-        String message = String.format("{\"type\":\"data_change\",\"eventType\":\"%s\",\"data\":%s}", 
-            eventType, data != null ? data.toString() : "null");
-        broadcastToAll(message);
+        if (data instanceof ChangeEvent) {
+            queueChange((ChangeEvent) data);
+            return;
+        }
+        BroadcastMessage message;
+        try {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("type", "data_change");
+            payload.put("eventType", eventType);
+            payload.put("data", data);
+            message = BroadcastMessage.of(JsonUtil.getMapper().writeValueAsString(payload));
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi tạo message sự kiện " + eventType + ": " + e.getMessage());
+            return;
+        }
+        
+        Set<ClientHandler> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Chỉ gộp message mà bản mới thay thế hoàn toàn bản cũ (cùng một đối tượng, hoặc yêu cầu tải lại)
+        String coalesceKey = null;
+        boolean userScoped = false;
+        switch (eventType) {
+            case EventBus.Events.BOOK_ADDED:
+            case EventBus.Events.BOOK_UPDATED:
+            case EventBus.Events.BOOK_DELETED:
+                subscriptions.collect(SubscriptionIndex.TOPIC_BOOKS, keyOf(data, "bookId"), targets);
+                coalesceKey = entityCoalesceKey(ChangeEvent.ENTITY_BOOK, keyOf(data, "bookId"));
+                break;
+            case EventBus.Events.BOOK_BORROWED:
+            case EventBus.Events.BOOK_RETURNED:
+                subscriptions.collect(SubscriptionIndex.TOPIC_BOOKS, keyOf(data, "bookId"), targets);
+                subscriptions.collect(SubscriptionIndex.TOPIC_BORROWS, keyOf(data, "userId"), targets);
+                userScoped = true;
+                break;
+            case EventBus.Events.USER_ADDED:
+            case EventBus.Events.USER_UPDATED:
+            case EventBus.Events.USER_DELETED:
+                subscriptions.collect(SubscriptionIndex.TOPIC_USERS, keyOf(data, "userId"), targets);
+                coalesceKey = entityCoalesceKey(ChangeEvent.ENTITY_USER, keyOf(data, "userId"));
+                userScoped = true;
+                break;
+            case EventBus.Events.BORROW_RECORD_UPDATED:
+                subscriptions.collect(SubscriptionIndex.TOPIC_BORROWS, keyOf(data, "userId"), targets);
+                userScoped = true;
+                break;
+            case EventBus.Events.DATA_REFRESH:
+                subscriptions.collect(SubscriptionIndex.TOPIC_SYSTEM, null, targets);
+                coalesceKey = eventType;
+                break;
+            default:
+                subscriptions.collect(SubscriptionIndex.TOPIC_SYSTEM, null, targets);
+                break;
+        }
+        String ownerId = userScoped ? keyOf(data, "userId") : null;
+        if (!userScoped) {
+            targets.addAll(unfilteredClients);
+        }
+        
+        for (ClientHandler client : targets) {
+            if (userScoped && !client.canReceiveUserEvents(ownerId)) {
+                continue;
+            }
+            ClientOutbox outbox = connectedClients.get(client);
+            if (outbox != null) {
+                outbox.offer(message, coalesceKey);
+            }
+        }
+    }
+    
+    /**
+     * Gộp delta vào cửa sổ hiện tại; delta cùng đối tượng được merge thành một
+     */
+    private void queueChange(ChangeEvent event) {
+        if (coalesceWindowMs <= 0) {
+            deliverChange(event);
+            return;
+        }
+        boolean schedule = false;
+        synchronized (pendingChanges) {
+            pendingChanges.merge(event.getCoalesceKey(), event, ChangeEvent::merge);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            scheduler.schedule(this::flushChanges, coalesceWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void flushChanges() {
+        List<ChangeEvent> events;
+        synchronized (pendingChanges) {
+            events = new ArrayList<>(pendingChanges.values());
+            pendingChanges.clear();
+            flushScheduled = false;
+        }
+        for (ChangeEvent event : events) {
+            try {
+                deliverChange(event);
+            } catch (Exception e) {
+                LoggerUtil.error("Lỗi phát sự kiện " + event.getEventType() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Gửi delta tới client đăng ký topic/key của đối tượng; client chưa dùng đăng ký
+     * chỉ nhận delta không thuộc riêng một user
+     */
+    private void deliverChange(ChangeEvent event) {
+        Set<ClientHandler> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        // userId chủ sở hữu của delta riêng tư (phiếu mượn, tài khoản), null nếu là dữ liệu chung
+        String ownerId = null;
+        boolean userScoped = false;
+        switch (event.getEntity()) {
+            case ChangeEvent.ENTITY_BOOK:
+                subscriptions.collect(SubscriptionIndex.TOPIC_BOOKS, event.getKey(), targets);
+                break;
+            case ChangeEvent.ENTITY_USER:
+                subscriptions.collect(SubscriptionIndex.TOPIC_USERS, event.getKey(), targets);
+                ownerId = event.getKey();
+                userScoped = true;
+                break;
+            case ChangeEvent.ENTITY_BORROW:
+                subscriptions.collect(SubscriptionIndex.TOPIC_BORROWS, event.getRouteKey("userId"), targets);
+                ownerId = event.getRouteKey("userId");
+                userScoped = true;
+                break;
+            default:
+                subscriptions.collect(SubscriptionIndex.TOPIC_SYSTEM, null, targets);
+                break;
+        }
+        if (!userScoped) {
+            targets.addAll(unfilteredClients);
+        }
+        
+        for (ClientHandler client : targets) {
+            // Đăng ký được kiểm tra lúc subscribe, nhưng session có thể đã đăng xuất/đổi user
+            if (userScoped && !client.canReceiveUserEvents(ownerId)) {
+                continue;
+            }
+            ClientOutbox outbox = connectedClients.get(client);
+            if (outbox != null) {
+                outbox.offer(event);
+            }
+        }
+    }
+    
+    private static String entityCoalesceKey(String entity, String key) {
+        return key != null ? entity + ":" + key : null;
+    }
+    
+    /**
+     * Lấy key định tuyến từ dữ liệu sự kiện (model, Map hoặc chuỗi id)
+     */
+    private static String keyOf(Object data, String field) {
+        if (data instanceof Map) {
+            Object value = ((Map<?, ?>) data).get(field);
+            return value != null ? value.toString() : null;
+        }
+        if (data instanceof Book) {
+            return "bookId".equals(field) ? ((Book) data).getBookId() : null;
+        }
+        if (data instanceof BorrowRecord) {
+            BorrowRecord record = (BorrowRecord) data;
+            return "bookId".equals(field) ? record.getBookId() : record.getUserId();
+        }
+        if (data instanceof User) {
+            return "userId".equals(field) ? ((User) data).getUserId() : null;
+        }
+        // Sự kiện cũ chỉ gửi kèm id của đối tượng chính
+        if (data instanceof String && "bookId".equals(field)) {
+            return (String) data;
+        }
+        return null;
+    }
+    
+    /**
+     * Số liệu fan-out broadcast: số message đã xếp hàng/đã gửi/bị bỏ/bị gộp,
+     * số client bị ngắt vì chậm, độ sâu hàng đợi hiện tại và lớn nhất
+     */
+    public Map<String, Object> getBroadcastStats() {
+        int totalDepth = 0;
+        int maxDepth = 0;
+        for (ClientOutbox outbox : connectedClients.values()) {
+            int depth = outbox.depth();
+            totalDepth += depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enqueued", broadcastStats.enqueued.sum());
+        stats.put("delivered", broadcastStats.delivered.sum());
+        stats.put("dropped", broadcastStats.dropped.sum());
+        stats.put("coalesced", broadcastStats.coalesced.sum());
+        stats.put("disconnected", broadcastStats.disconnected.sum());
+        stats.put("queuedNow", totalDepth);
+        stats.put("maxQueueDepthNow", maxDepth);
+        stats.put("maxQueueDepthSeen", broadcastStats.maxDepth.get());
+        stats.put("policy", slowConsumerPolicy.name());
+        return stats;
     }
     
     /**
@@ -131,8 +628,7 @@ public class SessionManager {
      * Kiểm tra user có đang online không
      */
     public boolean isUserOnline(String userId) {
-        return activeSessions.values().stream()
-            .anyMatch(session -> session.getUserId().equals(userId));
+        return sessionsByUser.containsKey(userId);
     }
     
     /**
@@ -162,32 +658,86 @@ public class SessionManager {
     }
     
     /**
-     * Cleanup inactive sessions
+     * Hết hạn các session rảnh quá server.session.idle.timeout.ms (chạy theo tick của scheduler)
      */
-    public void cleanupInactiveSessions() {
-        long currentTime = System.currentTimeMillis();
-        activeSessions.entrySet().removeIf(entry -> {
-            ClientSession session = entry.getValue();
-            boolean inactive = (currentTime - session.getLastActivity()) > 300000; // 5 minutes
-            if (inactive) {
-                LoggerUtil.info("Removing inactive session: " + entry.getKey());
+    private void expireIdleSessions() {
+        try {
+            long start = System.nanoTime();
+            for (ClientSession session : expiryWheel.advance(System.currentTimeMillis())) {
+                LoggerUtil.info("Removing inactive session: " + session.getSessionId());
+                removeSession(session.getSessionId());
             }
-            return inactive;
-        });
+            lastExpiryTickNanos = System.nanoTime() - start;
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi hết hạn session: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Số liệu session: số session/user online, số session đã hết hạn,
+     * số session đã chuyển ô, số session xét ở tick gần nhất và thời gian tick đó,
+     * số session đã tạm giữ/đang chờ/đã khôi phục và số token khôi phục bị từ chối
+     */
+    public Map<String, Object> getSessionStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeSessions", activeSessions.size());
+        stats.put("onlineUsers", sessionsByUser.size());
+        stats.put("idleTimeoutMs", sessionIdleTimeoutMs);
+        stats.put("wheelSlots", expiryWheel.getSlotCount());
+        stats.put("expired", expiryWheel.getExpiredTotal());
+        stats.put("rescheduled", expiryWheel.getRescheduledTotal());
+        stats.put("lastTickVisited", expiryWheel.getLastTickVisited());
+        stats.put("lastTickMicros", lastExpiryTickNanos / 1000);
+        int suspendedNow = 0;
+        for (ClientSession session : activeSessions.values()) {
+            if (session.getClientHandler() == null) {
+                suspendedNow++;
+            }
+        }
+        stats.put("resumeGraceMs", resumeGraceMs);
+        stats.put("suspended", suspendedTotal.sum());
+        stats.put("suspendedNow", suspendedNow);
+        stats.put("resumed", resumedTotal.sum());
+        stats.put("resumeRejected", resumeRejected.sum());
+        stats.put("store", sessionStore.getStats());
+        return stats;
+    }
+    
+    /**
+     * Bộ đếm dùng chung cho mọi ClientOutbox
+     */
+    static class BroadcastStats {
+        final LongAdder enqueued = new LongAdder();
+        final LongAdder delivered = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder coalesced = new LongAdder();
+        final LongAdder disconnected = new LongAdder();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        
+        void recordDepth(int depth) {
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
     }
     
     /**
      * Class đại diện cho session của client
      */
     public static class ClientSession {
+        private final User user;
         private final String userId;
         private final String sessionId;
-        private final ClientHandler clientHandler;
+        // null khi kết nối đã rớt và session đang chờ khôi phục
+        private volatile ClientHandler clientHandler;
         private final long createdTime;
         private volatile long lastActivity;
+        // Ô hiện tại trong SessionExpiryWheel (được bảo vệ bởi lock của wheel)
+        int wheelSlot = -1;
+        // Số lần bị tạm giữ, để timer của lần rớt trước không kết thúc session đã khôi phục
+        volatile long suspendCount = 0;
         
-        public ClientSession(String userId, String sessionId, ClientHandler clientHandler) {
-            this.userId = userId;
+        public ClientSession(User user, String sessionId, ClientHandler clientHandler) {
+            this.user = user;
+            this.userId = user.getUserId();
             this.sessionId = sessionId;
             this.clientHandler = clientHandler;
             this.createdTime = System.currentTimeMillis();
@@ -198,7 +748,12 @@ public class SessionManager {
             this.lastActivity = System.currentTimeMillis();
         }
         
+        void attach(ClientHandler clientHandler) {
+            this.clientHandler = clientHandler;
+        }
+        
         // Getters
+        public User getUser() { return user; }
         public String getUserId() { return userId; }
         public String getSessionId() { return sessionId; }
         public ClientHandler getClientHandler() { return clientHandler; }
@@ -0,0 +1,186 @@
+package com.dainam.library.server;
+
+import com.dainam.library.util.FrameIO;
+import com.dainam.library.util.LoggerUtil;
+import com.dainam.library.util.WireFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ClientConnection dùng socket blocking truyền thống (mỗi client một thread đọc).
+ * send chỉ xếp hàng; dữ liệu được ghi bởi một task ghi riêng của kết nối, nên lần ghi
+ * bị kẹt ở client không đọc chỉ giữ thread ghi của chính kết nối đó, không giữ request
+ * worker hay broadcast writer. Số byte chờ ghi được giới hạn bởi OutboundWatermark.
+ * Dùng ReentrantLock thay cho synchronized để không pin virtual thread.
+ */
+public class SocketClientConnection implements ClientConnection {
+
+    // Cùng charset với PrintWriter mặc định trước đây để tương thích wire
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // Mỗi kết nối tối đa một task ghi; thread chỉ được giữ khi kết nối có dữ liệu chờ ghi
+    private static final AtomicInteger WRITER_COUNTER = new AtomicInteger();
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "socket-writer-" + WRITER_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Socket socket;
+    private final OutboundWatermark watermark = new OutboundWatermark();
+    private final ReentrantLock queueLock = new ReentrantLock();
+    // Các field dưới đây được bảo vệ bởi queueLock
+    private final ArrayDeque<byte[]> outbound = new ArrayDeque<>();
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+    // Chỉ task ghi đang chạy dùng (mỗi lúc một task)
+    private OutputStream out;
+    private volatile int compressionThreshold = FrameIO.NO_COMPRESSION;
+
+    public SocketClientConnection(Socket socket) {
+        this.socket = socket;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public void send(String message) {
+        enqueue((message + "\n").getBytes(CHARSET));
+    }
+
+    @Override
+    public void sendFrame(byte[] payload) {
+        enqueue(FrameIO.toFrame(payload, compressionThreshold));
+    }
+
+    private void enqueue(byte[] bytes) {
+        boolean schedule = false;
+        queueLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            outbound.addLast(bytes);
+            watermark.added(bytes.length);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+        if (schedule) {
+            try {
+                WRITERS.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Ghi lần lượt dữ liệu đang chờ (task ghi của kết nối)
+     */
+    private void flush() {
+        while (true) {
+            byte[] bytes;
+            boolean last;
+            queueLock.lock();
+            try {
+                bytes = outbound.pollFirst();
+                if (bytes == null) {
+                    flushScheduled = false;
+                    return;
+                }
+                last = outbound.isEmpty();
+            } finally {
+                queueLock.unlock();
+            }
+            try {
+                if (out == null) {
+                    out = new BufferedOutputStream(socket.getOutputStream());
+                }
+                out.write(bytes);
+                if (last) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    LoggerUtil.error("Lỗi gửi message tới client: " + e.getMessage());
+                }
+                close();
+                return;
+            } finally {
+                watermark.written(bytes.length);
+            }
+        }
+    }
+
+    @Override
+    public void setWireFormat(WireFormat format, int compressionThreshold) {
+        // Vòng đọc blocking nằm trong ClientHandler.run() và tự đổi định dạng
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return watermark.isWritable();
+    }
+
+    @Override
+    public boolean hasPendingWrites() {
+        return watermark.hasPendingBytes();
+    }
+
+    @Override
+    public void setWritableListener(Runnable listener) {
+        watermark.setWritableListener(listener);
+    }
+
+    /**
+     * Thread đọc chờ client đọc bớt response trước khi nhận request mới;
+     * false nếu hết timeoutMs mà vẫn đầy (0 = chờ mãi)
+     */
+    boolean awaitWritable(long timeoutMs) throws InterruptedException {
+        return watermark.awaitWritable(timeoutMs);
+    }
+
+    /**
+     * Đóng socket không qua lock ghi: lần ghi đang bị kẹt nhận SocketException và thoát
+     */
+    @Override
+    public void close() {
+        queueLock.lock();
+        try {
+            closed = true;
+            outbound.clear();
+        } finally {
+            queueLock.unlock();
+        }
+        watermark.close();
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error("Lỗi đóng socket client: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : "unknown";
+    }
+}
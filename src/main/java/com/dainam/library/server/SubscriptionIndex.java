@@ -0,0 +1,113 @@
+package com.dainam.library.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chỉ mục topic → key → các client đã đăng ký, để sự kiện chỉ được gửi tới
+ * client quan tâm. Chi phí route một sự kiện tỉ lệ với số client khớp,
+ * không phải tổng số kết nối.
+ */
+public class SubscriptionIndex {
+    
+    // Topic hỗ trợ
+    public static final String TOPIC_BOOKS = "books";     // key: bookId (tình trạng sách)
+    public static final String TOPIC_USERS = "users";     // key: userId
+    public static final String TOPIC_BORROWS = "borrows"; // key: userId (phiếu mượn của user)
+    public static final String TOPIC_SYSTEM = "system";   // DATA_REFRESH
+    
+    // Key đại diện cho mọi key của topic
+    public static final String ANY_KEY = "*";
+    
+    private final Map<String, Map<String, Set<ClientHandler>>> index = new ConcurrentHashMap<>();
+    private final Map<ClientHandler, Set<String>> subscriptionsByClient = new ConcurrentHashMap<>();
+    
+    public static boolean isKnownTopic(String topic) {
+        return TOPIC_BOOKS.equals(topic) || TOPIC_USERS.equals(topic)
+            || TOPIC_BORROWS.equals(topic) || TOPIC_SYSTEM.equals(topic);
+    }
+    
+    /**
+     * Đăng ký client với topic/key; trả về false nếu vượt quá giới hạn đăng ký
+     */
+    public boolean subscribe(ClientHandler client, String topic, String key, int maxPerClient) {
+        String normalizedKey = key != null ? key : ANY_KEY;
+        Set<String> owned = subscriptionsByClient.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet());
+        String entry = topic + '|' + normalizedKey;
+        if (!owned.contains(entry) && owned.size() >= maxPerClient) {
+            return false;
+        }
+        owned.add(entry);
+        // Thêm trong compute để không lẫn với việc xóa set rỗng ở removeFromIndex
+        index.computeIfAbsent(topic, t -> new ConcurrentHashMap<>())
+            .compute(normalizedKey, (k, clients) -> {
+                Set<ClientHandler> result = clients != null ? clients : ConcurrentHashMap.newKeySet();
+                result.add(client);
+                return result;
+            });
+        return true;
+    }
+    
+    /**
+     * Hủy đăng ký topic/key của client
+     */
+    public void unsubscribe(ClientHandler client, String topic, String key) {
+        String normalizedKey = key != null ? key : ANY_KEY;
+        Set<String> owned = subscriptionsByClient.get(client);
+        if (owned != null) {
+            owned.remove(topic + '|' + normalizedKey);
+        }
+        removeFromIndex(client, topic, normalizedKey);
+    }
+    
+    /**
+     * Xóa mọi đăng ký của client khi ngắt kết nối
+     */
+    public void removeClient(ClientHandler client) {
+        Set<String> owned = subscriptionsByClient.remove(client);
+        if (owned == null) {
+            return;
+        }
+        for (String entry : owned) {
+            int separator = entry.indexOf('|');
+            removeFromIndex(client, entry.substring(0, separator), entry.substring(separator + 1));
+        }
+    }
+    
+    private void removeFromIndex(ClientHandler client, String topic, String key) {
+        Map<String, Set<ClientHandler>> byKey = index.get(topic);
+        if (byKey == null) {
+            return;
+        }
+        byKey.computeIfPresent(key, (k, clients) -> {
+            clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+    }
+    
+    /**
+     * Thêm các client đăng ký topic với key này (hoặc mọi key) vào tập kết quả
+     */
+    public void collect(String topic, String key, Set<ClientHandler> into) {
+        Map<String, Set<ClientHandler>> byKey = index.get(topic);
+        if (byKey == null) {
+            return;
+        }
+        Set<ClientHandler> any = byKey.get(ANY_KEY);
+        if (any != null) {
+            into.addAll(any);
+        }
+        if (key != null && !ANY_KEY.equals(key)) {
+            Set<ClientHandler> exact = byKey.get(key);
+            if (exact != null) {
+                into.addAll(exact);
+            }
+        }
+    }
+    
+    public int getSubscriptionCount(ClientHandler client) {
+        Set<String> owned = subscriptionsByClient.get(client);
+        return owned != null ? owned.size() : 0;
+    }
+}
@@ -3,10 +3,20 @@ package com.dainam.library.service;
 import com.dainam.library.config.DatabaseConfig;
 import com.dainam.library.model.Book;
 import com.dainam.library.model.BookCopy;
+import com.dainam.library.util.BulkWriter;
 import com.dainam.library.util.LoggerUtil;
 import com.dainam.library.util.ValidationUtil;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.TextSearchOptions;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
@@ -14,8 +24,13 @@ import org.bson.conversions.Bson;
 
 // import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Service class cho quản lý sách
@@ -25,6 +40,14 @@ public class BookService {
     private final MongoCollection<Document> booksCollection;
     private final MongoCollection<Document> bookCopiesCollection;
     
+    // Trường của bản sao cần để tính thay đổi số lượng
+    private static final Bson COPY_COUNT_FIELDS = Projections.include("bookId", "status");
+    
+    // Số liệu đối chiếu số lượng bản sao
+    private final LongAdder reconcileRuns = new LongAdder();
+    private final LongAdder reconcileRepairs = new LongAdder();
+    private volatile long lastReconcileAt = 0;
+    
     public BookService() {
         this.booksCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOKS);
         this.bookCopiesCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOK_COPIES);
@@ -57,6 +80,10 @@ public class BookService {
                 book.setBookId(generateBookId());
             }
             
+            // Số lượng chỉ tăng theo bản sao được thêm (addBookCopy)
+            book.setTotalCopies(0);
+            book.setAvailableCopies(0);
+            
             // Chuyển đổi sang Document và lưu
             Document bookDoc = bookToDocument(book);
             booksCollection.insertOne(bookDoc);
@@ -78,8 +105,11 @@ public class BookService {
             Bson filter = Filters.eq("bookId", book.getBookId());
             book.updateTimestamp();
             
+            // Không ghi đè số lượng bản sao: chúng được cập nhật bằng $inc theo bản sao
             Document bookDoc = bookToDocument(book);
-            booksCollection.replaceOne(filter, bookDoc);
+            bookDoc.remove("totalCopies");
+            bookDoc.remove("availableCopies");
+            booksCollection.updateOne(filter, new Document("$set", bookDoc));
             
             LoggerUtil.info("Cập nhật sách thành công: " + book.getBookId());
             return true;
@@ -233,7 +263,7 @@ public class BookService {
             bookCopiesCollection.insertOne(copyDoc);
             
             // Cập nhật số lượng sách
-            updateBookCopyCount(bookId);
+            incrementCopyCounts(bookId, 1, isAvailable(copy.getStatus().name()) ? 1 : 0);
             
             LoggerUtil.info("Thêm bản sao thành công: " + copy.getCopyId());
             return true;
@@ -244,24 +274,62 @@ public class BookService {
         }
     }
     
+    /**
+     * Ghi nhiều sách bằng bulkWrite (nạp dữ liệu). Giữ nguyên totalCopies/availableCopies đã đặt,
+     * người gọi phải ghi các bản sao tương ứng bằng addBookCopies. Trả về số sách đã ghi
+     */
+    public long addBooks(List<Book> books) {
+        try (BulkWriter writer = new BulkWriter(booksCollection)) {
+            for (Book book : books) {
+                if (book.getBookId() == null) {
+                    book.setBookId(generateBookId());
+                }
+                writer.insert(bookToDocument(book));
+            }
+            writer.flush();
+            return writer.getInsertedCount();
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi thêm sách hàng loạt: " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    /**
+     * Ghi nhiều bản sao bằng bulkWrite (nạp dữ liệu), không cập nhật số lượng của sách.
+     * Trả về số bản sao đã ghi
+     */
+    public long addBookCopies(List<BookCopy> copies) {
+        try (BulkWriter writer = new BulkWriter(bookCopiesCollection)) {
+            for (BookCopy copy : copies) {
+                if (copy.getCopyId() == null) {
+                    copy.setCopyId(generateCopyId());
+                }
+                writer.insert(bookCopyToDocument(copy));
+            }
+            writer.flush();
+            return writer.getInsertedCount();
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi thêm bản sao hàng loạt: " + e.getMessage());
+            return 0;
+        }
+    }
+    
     /**
      * Xóa bản sao sách
      */
     public boolean deleteBookCopy(String copyId) {
         try {
-            // Lấy thông tin bản sao
-            BookCopy copy = getBookCopyById(copyId);
-            if (copy == null) {
+            // Xóa bản sao, lấy lại sách và trạng thái cũ để trừ số lượng
+            Bson filter = Filters.eq("copyId", copyId);
+            Document deleted = bookCopiesCollection.findOneAndDelete(filter,
+                new FindOneAndDeleteOptions().projection(COPY_COUNT_FIELDS));
+            if (deleted == null) {
                 LoggerUtil.warn("Bản sao không tồn tại: " + copyId);
                 return false;
             }
             
-            // Xóa bản sao
-            Bson filter = Filters.eq("copyId", copyId);
-            bookCopiesCollection.deleteOne(filter);
-            
             // Cập nhật số lượng sách
-            updateBookCopyCount(copy.getBookId());
+            incrementCopyCounts(deleted.getString("bookId"), -1, isAvailable(deleted.getString("status")) ? -1 : 0);
             
             LoggerUtil.info("Xóa bản sao thành công: " + copyId);
             return true;
@@ -313,14 +381,21 @@ public class BookService {
     }
     
     /**
-     * Cập nhật trạng thái bản sao
+     * Cập nhật trạng thái bản sao; availableCopies của sách đổi theo bằng $inc
      */
     public boolean updateBookCopyStatus(String copyId, BookCopy.Status status) {
         try {
             Bson filter = Filters.eq("copyId", copyId);
             Bson update = Updates.set("status", status.name());
             
-            bookCopiesCollection.updateOne(filter, update);
+            Document previous = bookCopiesCollection.findOneAndUpdate(filter, update,
+                new FindOneAndUpdateOptions().projection(COPY_COUNT_FIELDS));
+            if (previous == null) {
+                LoggerUtil.warn("Bản sao không tồn tại: " + copyId);
+                return false;
+            }
+            incrementCopyCounts(previous.getString("bookId"), 0,
+                availabilityDelta(previous.getString("status"), status.name()));
             
             LoggerUtil.info("Cập nhật trạng thái bản sao thành công: " + copyId);
             return true;
@@ -353,32 +428,176 @@ public class BookService {
     }
     
     /**
-     * Cập nhật số lượng bản sao của sách
+     * Cộng dồn số lượng bản sao của sách (thay cho đếm lại mỗi lần bản sao thay đổi)
      */
-    public void updateBookCopyCount(String bookId) {
+    private void incrementCopyCounts(String bookId, int totalDelta, int availableDelta) {
+        if (bookId == null || (totalDelta == 0 && availableDelta == 0)) {
+            return;
+        }
+        List<Bson> updates = new ArrayList<>();
+        if (totalDelta != 0) {
+            updates.add(Updates.inc("totalCopies", totalDelta));
+        }
+        if (availableDelta != 0) {
+            updates.add(Updates.inc("availableCopies", availableDelta));
+        }
+        booksCollection.updateOne(Filters.eq("bookId", bookId), Updates.combine(updates));
+    }
+    
+    private static boolean isAvailable(String status) {
+        return BookCopy.Status.AVAILABLE.name().equals(status);
+    }
+    
+    private static int availabilityDelta(String fromStatus, String toStatus) {
+        return (isAvailable(toStatus) ? 1 : 0) - (isAvailable(fromStatus) ? 1 : 0);
+    }
+    
+    /**
+     * Đối chiếu totalCopies/availableCopies của mọi sách với trạng thái thật của bản sao
+     * và sửa chỗ lệch. Duyệt sách theo bookId từng lô, mỗi lô một aggregate trên book_copies.
+     * Một lần mượn/trả đang ở giữa hai bước ghi (đã đổi trạng thái bản sao, chưa $inc) cũng trông
+     * như lệch, nên sách lệch chỉ được sửa sau settleMs nếu cả số đếm lẫn giá trị đã lưu đều
+     * không đổi, và ghi bằng compare-and-set trên giá trị đã lưu: $inc đến sau lần đọc làm
+     * lần sửa bị bỏ qua thay vì bị cộng chồng lên. Trả về số sách đã sửa
+     */
+    public int reconcileCopyCounts(int batchSize, long settleMs) {
+        long startedAt = System.currentTimeMillis();
+        int checked = 0;
+        int repaired = 0;
         try {
-            // Đếm tổng số bản sao
-            long totalCopies = bookCopiesCollection.countDocuments(Filters.eq("bookId", bookId));
-            
-            // Đếm số bản sao có sẵn
-            long availableCopies = bookCopiesCollection.countDocuments(
-                Filters.and(
-                    Filters.eq("bookId", bookId),
-                    Filters.eq("status", "AVAILABLE")
-                )
-            );
-            
-            // Cập nhật sách
-            Bson filter = Filters.eq("bookId", bookId);
-            Bson update = Updates.combine(
-                Updates.set("totalCopies", (int) totalCopies),
-                Updates.set("availableCopies", (int) availableCopies)
-            );
+            // bookId -> {total đã lưu, available đã lưu, total thật, available thật}
+            Map<String, int[]> suspects = new HashMap<>();
+            String lastBookId = null;
+            while (true) {
+                Bson filter = lastBookId == null ? new Document() : Filters.gt("bookId", lastBookId);
+                Map<String, int[]> stored = new HashMap<>();
+                for (Document doc : booksCollection.find(filter)
+                        .projection(Projections.include("bookId", "totalCopies", "availableCopies"))
+                        .sort(Sorts.ascending("bookId"))
+                        .limit(batchSize)) {
+                    lastBookId = doc.getString("bookId");
+                    stored.put(lastBookId, new int[] {
+                        doc.getInteger("totalCopies", 0), doc.getInteger("availableCopies", 0) });
+                }
+                if (stored.isEmpty()) {
+                    break;
+                }
+                
+                Map<String, int[]> actual = new HashMap<>();
+                for (Document doc : bookCopiesCollection.aggregate(Arrays.asList(
+                        Aggregates.match(Filters.in("bookId", stored.keySet())),
+                        Aggregates.group("$bookId",
+                            Accumulators.sum("total", 1),
+                            Accumulators.sum("available", new Document("$cond", Arrays.asList(
+                                new Document("$eq", Arrays.asList("$status", BookCopy.Status.AVAILABLE.name())), 1, 0))))))) {
+                    actual.put(doc.getString("_id"), new int[] { doc.getInteger("total", 0), doc.getInteger("available", 0) });
+                }
+                
+                for (Map.Entry<String, int[]> entry : stored.entrySet()) {
+                    int[] saved = entry.getValue();
+                    int[] counts = actual.getOrDefault(entry.getKey(), new int[2]);
+                    if (counts[0] != saved[0] || counts[1] != saved[1]) {
+                        suspects.put(entry.getKey(), new int[] { saved[0], saved[1], counts[0], counts[1] });
+                    }
+                }
+                checked += stored.size();
+                if (stored.size() < batchSize || lastBookId == null) {
+                    break;
+                }
+            }
             
-            booksCollection.updateOne(filter, update);
+            if (!suspects.isEmpty() && settleMs > 0) {
+                // Chờ các lần mượn/trả đang dở ghi xong bước $inc
+                Thread.sleep(settleMs);
+            }
+            for (Map.Entry<String, int[]> entry : suspects.entrySet()) {
+                if (repairCopyCount(entry.getKey(), entry.getValue())) {
+                    repaired++;
+                }
+            }
+            reconcileRuns.increment();
+            reconcileRepairs.add(repaired);
+            lastReconcileAt = System.currentTimeMillis();
+            if (repaired > 0) {
+                LoggerUtil.warn("Đối chiếu số lượng bản sao: đã sửa " + repaired + "/" + checked + " sách");
+            }
+            LoggerUtil.debug("Đối chiếu số lượng bản sao " + checked + " sách trong "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi đối chiếu số lượng bản sao: " + e.getMessage());
+        }
+        return repaired;
+    }
+    
+    /**
+     * Sửa số lượng của một sách nếu số đếm thật vẫn như lần quan sát trước và giá trị đã lưu
+     * chưa bị $inc nào thay đổi. observed = {total đã lưu, available đã lưu, total thật, available thật}
+     */
+    private boolean repairCopyCount(String bookId, int[] observed) {
+        int[] counts = countCopies(bookId);
+        if (counts[0] != observed[2] || counts[1] != observed[3]) {
+            // Bản sao vẫn đang đổi trạng thái: để lần đối chiếu sau
+            return false;
+        }
+        Bson filter = Filters.and(
+            Filters.eq("bookId", bookId),
+            Filters.eq("totalCopies", observed[0]),
+            Filters.eq("availableCopies", observed[1])
+        );
+        Bson update = Updates.combine(
+            Updates.set("totalCopies", counts[0]),
+            Updates.set("availableCopies", counts[1])
+        );
+        return booksCollection.updateOne(filter, update).getModifiedCount() > 0;
+    }
+    
+    private int[] countCopies(String bookId) {
+        long totalCopies = bookCopiesCollection.countDocuments(Filters.eq("bookId", bookId));
+        long availableCopies = bookCopiesCollection.countDocuments(
+            Filters.and(
+                Filters.eq("bookId", bookId),
+                Filters.eq("status", "AVAILABLE")
+            )
+        );
+        return new int[] { (int) totalCopies, (int) availableCopies };
+    }
+    
+    /**
+     * Số liệu đối chiếu: số lần chạy, tổng số sách đã sửa, thời điểm chạy gần nhất
+     */
+    public Map<String, Object> getReconcileStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("runs", reconcileRuns.sum());
+        stats.put("repaired", reconcileRepairs.sum());
+        stats.put("lastRunAt", lastReconcileAt);
+        return stats;
+    }
+    
+    /**
+     * Đếm lại số lượng bản sao của một sách và sửa nếu lệch, bằng compare-and-set trên
+     * giá trị vừa đọc (không ghi đè $inc đến sau). Trả về true nếu đã sửa
+     */
+    public boolean updateBookCopyCount(String bookId) {
+        try {
+            Document stored = booksCollection.find(Filters.eq("bookId", bookId))
+                .projection(Projections.include("totalCopies", "availableCopies"))
+                .first();
+            if (stored == null) {
+                return false;
+            }
+            int[] counts = countCopies(bookId);
+            int savedTotal = stored.getInteger("totalCopies", 0);
+            int savedAvailable = stored.getInteger("availableCopies", 0);
+            if (counts[0] == savedTotal && counts[1] == savedAvailable) {
+                return false;
+            }
+            return repairCopyCount(bookId, new int[] { savedTotal, savedAvailable, counts[0], counts[1] });
             
         } catch (Exception e) {
             LoggerUtil.error("Lỗi cập nhật số lượng bản sao: " + e.getMessage());
+            return false;
         }
     }
     
@@ -563,6 +782,32 @@ public class BookService {
         }
     }
     
+    /**
+     * Duyệt sách theo keyset bookId (lớn hơn afterBookId), đẩy từng sách cho consumer
+     * ngay khi đọc ra từ Mongo cursor thay vì gom cả trang vào List.
+     * Trả về bookId cuối cùng đã đọc, null nếu không còn sách.
+     * Lỗi đọc giữa chừng được ném ra (MongoException) để nơi gọi không coi phần đã đọc là trọn trang
+     */
+    public String streamBooksAfter(String afterBookId, int limit, Consumer<Book> consumer) {
+        String lastBookId = null;
+        Bson filter = afterBookId != null ? Filters.gt("bookId", afterBookId) : new Document();
+        try (MongoCursor<Document> cursor = booksCollection.find(filter)
+                .sort(Sorts.ascending("bookId"))
+                .limit(limit)
+                .batchSize(Math.min(limit, 100))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Book book = documentToBook(cursor.next());
+                consumer.accept(book);
+                lastBookId = book.getBookId();
+            }
+        } catch (MongoException e) {
+            LoggerUtil.error("Lỗi duyệt danh sách sách sau " + lastBookId + ": " + e.getMessage());
+            throw e;
+        }
+        return lastBookId;
+    }
+    
     /**
      * Cập nhật bản sao sách
      */
@@ -571,7 +816,19 @@ public class BookService {
             Bson filter = Filters.eq("copyId", copy.getCopyId());
             Document doc = bookCopyToDocument(copy);
             
-            bookCopiesCollection.replaceOne(filter, doc);
+            Document previous = bookCopiesCollection.findOneAndReplace(filter, doc,
+                new FindOneAndReplaceOptions().projection(COPY_COUNT_FIELDS));
+            if (previous == null) {
+                return true;
+            }
+            String previousBookId = previous.getString("bookId");
+            if (previousBookId != null && previousBookId.equals(copy.getBookId())) {
+                incrementCopyCounts(previousBookId, 0, availabilityDelta(previous.getString("status"), copy.getStatus().name()));
+            } else {
+                // Bản sao chuyển sang sách khác
+                incrementCopyCounts(previousBookId, -1, isAvailable(previous.getString("status")) ? -1 : 0);
+                incrementCopyCounts(copy.getBookId(), 1, isAvailable(copy.getStatus().name()) ? 1 : 0);
+            }
             return true;
         } catch (Exception e) {
             LoggerUtil.error("Lỗi cập nhật bản sao sách: " + e.getMessage());
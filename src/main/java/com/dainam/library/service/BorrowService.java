@@ -1,14 +1,22 @@
 package com.dainam.library.service;
 
+import com.dainam.library.config.AppConfig;
 import com.dainam.library.config.DatabaseConfig;
 import com.dainam.library.model.Book;
 import com.dainam.library.model.BookCopy;
 import com.dainam.library.model.BorrowRecord;
 import com.dainam.library.model.User;
+import com.dainam.library.util.BulkWriter;
 import com.dainam.library.util.LoggerUtil;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
@@ -18,28 +26,66 @@ import java.time.LocalDate;
 // import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Service class cho quản lý mượn/trả sách
  */
 public class BorrowService {
     
+    // Số sách một user được mượn cùng lúc
+    private static final int MAX_CURRENT_BORROWS = 5;
+    
     private final MongoCollection<Document> borrowRecordsCollection;
+    private final MongoCollection<Document> booksCollection;
+    private final MongoCollection<Document> bookCopiesCollection;
+    private final MongoCollection<Document> usersCollection;
+    private final boolean useTransactions;
     private final BookService bookService;
     private final UserService userService;
+    private final FineService fineService;
+    
+    // Số liệu mượn sách
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder compensations = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
     
     public BorrowService() {
+        this(new BookService(), new UserService(), new FineService());
+    }
+    
+    /**
+     * Dùng chung các service đã có (server dùng một instance cho mọi kết nối)
+     */
+    public BorrowService(BookService bookService, UserService userService, FineService fineService) {
         this.borrowRecordsCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BORROW_RECORDS);
-        this.bookService = new BookService();
-        this.userService = new UserService();
+        this.booksCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOKS);
+        this.bookCopiesCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOK_COPIES);
+        this.usersCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS);
+        this.useTransactions = AppConfig.getBoolean("borrow.transactions.enabled", false);
+        this.bookService = bookService;
+        this.userService = userService;
+        this.fineService = fineService;
     }
     
     /**
-     * Mượn sách với validation đầy đủ
+     * Mượn sách với validation đầy đủ.
+     * Bản sao được giành bằng một findOneAndUpdate có điều kiện (AVAILABLE -> BORROWED) nên hai người
+     * không thể mượn cùng một bản sao; số lượng sách và số sách đang mượn cập nhật bằng $inc.
+     * Giới hạn 5 quyển được giữ bằng $inc có điều kiện trên user, "đã mượn sách này" bằng index
+     * unique từng phần (userId, bookId) của phiếu đang mượn; kiểm tra trước chỉ để báo lỗi sớm.
+     * Các bước ghi chạy trong transaction (borrow.transactions.enabled, cần replica set) hoặc
+     * theo kiểu saga: bước sau lỗi thì hoàn tác các bước trước.
      */
     public BorrowRecord borrowBook(String userId, String bookId, String copyId) {
+        long startedAt = System.nanoTime();
         try {
             // Kiểm tra user
             User user = userService.getUserById(userId);
@@ -54,78 +100,208 @@ public class BorrowService {
                 throw new RuntimeException("Tài khoản của bạn đã bị khóa");
             }
             
-            // Kiểm tra user có sách quá hạn không
-            List<BorrowRecord> overdueBooks = getOverdueBooks(userId);
-            if (!overdueBooks.isEmpty()) {
-                LoggerUtil.warn("User có sách quá hạn: " + userId);
-                throw new RuntimeException("Bạn có sách quá hạn. Vui lòng trả sách trước khi mượn mới");
+            // Sách đang mượn và quá hạn lấy trong cùng một truy vấn
+            List<BorrowRecord> currentBorrows = getCurrentBorrows(userId);
+            for (BorrowRecord existingRecord : currentBorrows) {
+                if (existingRecord.getStatus() == BorrowRecord.Status.OVERDUE) {
+                    LoggerUtil.warn("User có sách quá hạn: " + userId);
+                    throw new RuntimeException("Bạn có sách quá hạn. Vui lòng trả sách trước khi mượn mới");
+                }
             }
             
-            // Kiểm tra user có thể mượn không (tối đa 5 quyển)
-            List<BorrowRecord> currentBorrows = getCurrentBorrows(userId);
-            if (currentBorrows.size() >= 5) {
+            // Kiểm tra user có thể mượn không (tối đa 5 quyển); commitBorrow kiểm tra lại nguyên tử
+            if (currentBorrows.size() >= MAX_CURRENT_BORROWS) {
                 LoggerUtil.warn("User đã mượn tối đa số sách: " + userId + " - Số sách hiện tại: " + currentBorrows.size());
-                throw new RuntimeException("Bạn đã mượn tối đa 5 quyển sách");
+                throw borrowLimitReached();
             }
             
-            // Kiểm tra sách
-            Book book = bookService.getBookById(bookId);
-            if (book == null) {
-                LoggerUtil.warn("Sách không tồn tại: " + bookId);
-                throw new RuntimeException("Sách không tồn tại");
+            // Kiểm tra user đã mượn sách này chưa
+            for (BorrowRecord existingRecord : currentBorrows) {
+                if (bookId.equals(existingRecord.getBookId())) {
+                    LoggerUtil.warn("User đã mượn sách này: " + userId + " - Book: " + bookId);
+                    throw alreadyBorrowing(bookId);
+                }
             }
             
-            // Kiểm tra bản sao
-            BookCopy copy = bookService.getBookCopyById(copyId);
-            if (copy == null) {
-                LoggerUtil.warn("Bản sao không tồn tại: " + copyId);
-                throw new RuntimeException("Bản sao sách không tồn tại");
+            BorrowRecord record;
+            if (useTransactions) {
+                try (ClientSession session = DatabaseConfig.getClient().startSession()) {
+                    record = session.withTransaction(() -> commitBorrow(session, userId, bookId, copyId));
+                }
+            } else {
+                record = commitBorrow(null, userId, bookId, copyId);
             }
             
-            if (!copy.isAvailable()) {
-                LoggerUtil.warn("Bản sao không có sẵn: " + copyId);
-                throw new RuntimeException("Bản sao này không có sẵn để mượn");
+            long elapsed = System.nanoTime() - startedAt;
+            borrows.increment();
+            borrowNanos.add(elapsed);
+            maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+            LoggerUtil.info("Mượn sách thành công: " + record.getRecordId() + " - User: " + userId + " - Book: " + bookId);
+            return record;
+            
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi mượn sách: " + e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * Các bước ghi của một lần mượn. session != null: chạy trong transaction, lỗi thì driver abort;
+     * session == null: tự hoàn tác các bước đã ghi khi bước sau lỗi
+     */
+    private BorrowRecord commitBorrow(ClientSession session, String userId, String bookId, String copyId) {
+        // Giành bản sao: chỉ thành công nếu bản sao thuộc sách này và đang AVAILABLE
+        Document claimed = findOneAndUpdate(session, bookCopiesCollection,
+            Filters.and(
+                Filters.eq("copyId", copyId),
+                Filters.eq("bookId", bookId),
+                Filters.eq("status", BookCopy.Status.AVAILABLE.name())
+            ),
+            Updates.combine(
+                Updates.set("status", BookCopy.Status.BORROWED.name()),
+                Updates.set("updatedAt", java.sql.Date.valueOf(LocalDate.now()))
+            ),
+            new FindOneAndUpdateOptions().projection(Projections.include("copyId")));
+        if (claimed == null) {
+            throw new RuntimeException(copyUnavailableReason(bookId, copyId));
+        }
+        
+        boolean bookCounted = false;
+        boolean userCounted = false;
+        try {
+            Document book = findOneAndUpdate(session, booksCollection,
+                Filters.eq("bookId", bookId),
+                Updates.inc("availableCopies", -1),
+                new FindOneAndUpdateOptions().projection(Projections.include("title"))
+                    .returnDocument(ReturnDocument.AFTER));
+            if (book == null) {
+                LoggerUtil.warn("Sách không tồn tại: " + bookId);
+                throw new RuntimeException("Sách không tồn tại");
             }
+            bookCounted = true;
             
-            // Kiểm tra user đã mượn sách này chưa
-            for (BorrowRecord existingRecord : currentBorrows) {
-                if (bookId.equals(existingRecord.getBookId())) {
-                    LoggerUtil.warn("User đã mượn sách này: " + userId + " - Book: " + bookId);
-                    throw new RuntimeException("Bạn đã mượn sách '" + book.getTitle() + "' rồi. Bạn có chắc chắn muốn mượn thêm bản sao khác của sách này không?");
-                }
+            // Giữ một suất mượn của user: chỉ tăng khi chưa đủ 5 quyển (các lần mượn song song
+            // của cùng user không vượt giới hạn); không khớp thì hoàn tác bản sao
+            Bson userFilter = Filters.and(
+                Filters.eq("userId", userId),
+                Filters.lt("currentBorrowed", MAX_CURRENT_BORROWS)
+            );
+            Bson userUpdate = Updates.combine(Updates.inc("currentBorrowed", 1), Updates.inc("totalBorrowed", 1));
+            long matched = session != null
+                ? usersCollection.updateOne(session, userFilter, userUpdate).getMatchedCount()
+                : usersCollection.updateOne(userFilter, userUpdate).getMatchedCount();
+            if (matched == 0) {
+                LoggerUtil.warn("User đã mượn tối đa số sách: " + userId);
+                throw borrowLimitReached();
             }
+            userCounted = true;
             
-            // Tạo bản ghi mượn
+            // Tạo bản ghi mượn (index unique từng phần chặn hai phiếu đang mượn cùng sách)
             BorrowRecord record = new BorrowRecord();
             record.setRecordId(generateRecordId());
             record.setUserId(userId);
             record.setBookId(bookId);
             record.setCopyId(copyId);
-            record.setBorrowNotes("Mượn sách: " + book.getTitle());
+            record.setBorrowNotes("Mượn sách: " + book.getString("title"));
             
-            // Lưu bản ghi
             Document recordDoc = borrowRecordToDocument(record);
-            borrowRecordsCollection.insertOne(recordDoc);
-            
-            // Cập nhật trạng thái bản sao
-            bookService.updateBookCopyStatus(copyId, BookCopy.Status.BORROWED);
-            
-            // Cập nhật thông tin user
-            user.incrementCurrentBorrowed();
-            userService.updateUser(user);
-            
-            // Cập nhật số lượng sách
-            bookService.updateBookCopyCount(bookId);
-            
-            LoggerUtil.info("Mượn sách thành công: " + record.getRecordId() + " - User: " + userId + " - Book: " + bookId);
+            try {
+                if (session != null) {
+                    borrowRecordsCollection.insertOne(session, recordDoc);
+                } else {
+                    borrowRecordsCollection.insertOne(recordDoc);
+                }
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                LoggerUtil.warn("User đã mượn sách này: " + userId + " - Book: " + bookId);
+                throw alreadyBorrowing(bookId);
+            }
             return record;
             
-        } catch (Exception e) {
-            LoggerUtil.error("Lỗi mượn sách: " + e.getMessage());
+        } catch (RuntimeException e) {
+            if (session == null) {
+                compensateBorrow(userId, bookId, copyId, bookCounted, userCounted);
+            }
             throw e;
         }
     }
     
+    private static RuntimeException borrowLimitReached() {
+        return new RuntimeException("Bạn đã mượn tối đa " + MAX_CURRENT_BORROWS + " quyển sách");
+    }
+    
+    private RuntimeException alreadyBorrowing(String bookId) {
+        Book book = bookService.getBookById(bookId);
+        String title = book != null ? book.getTitle() : bookId;
+        return new RuntimeException("Bạn đã mượn sách '" + title + "' rồi. Bạn có chắc chắn muốn mượn thêm bản sao khác của sách này không?");
+    }
+    
+    /**
+     * Hoàn tác giành bản sao (và số lượng sách, suất mượn của user nếu đã ghi)
+     */
+    private void compensateBorrow(String userId, String bookId, String copyId, boolean bookCounted, boolean userCounted) {
+        compensations.increment();
+        try {
+            bookCopiesCollection.updateOne(
+                Filters.and(Filters.eq("copyId", copyId), Filters.eq("status", BookCopy.Status.BORROWED.name())),
+                Updates.set("status", BookCopy.Status.AVAILABLE.name()));
+            if (bookCounted) {
+                booksCollection.updateOne(Filters.eq("bookId", bookId), Updates.inc("availableCopies", 1));
+            }
+            if (userCounted) {
+                usersCollection.updateOne(
+                    Filters.and(Filters.eq("userId", userId), Filters.gt("currentBorrowed", 0)),
+                    Updates.combine(Updates.inc("currentBorrowed", -1), Updates.inc("totalBorrowed", -1)));
+            }
+            LoggerUtil.warn("Đã hoàn tác mượn bản sao: " + copyId);
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi hoàn tác mượn bản sao " + copyId + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Lý do không giành được bản sao (chỉ đọc thêm khi đã thất bại)
+     */
+    private String copyUnavailableReason(String bookId, String copyId) {
+        BookCopy copy = bookService.getBookCopyById(copyId);
+        if (copy == null) {
+            LoggerUtil.warn("Bản sao không tồn tại: " + copyId);
+            return "Bản sao sách không tồn tại";
+        }
+        if (!bookId.equals(copy.getBookId())) {
+            LoggerUtil.warn("Bản sao " + copyId + " không thuộc sách " + bookId);
+            return "Bản sao không thuộc sách này";
+        }
+        conflicts.increment();
+        LoggerUtil.warn("Bản sao không có sẵn: " + copyId);
+        return "Bản sao này không có sẵn để mượn";
+    }
+    
+    private static Document findOneAndUpdate(ClientSession session, MongoCollection<Document> collection,
+                                             Bson filter, Bson update, FindOneAndUpdateOptions options) {
+        return session != null
+            ? collection.findOneAndUpdate(session, filter, update, options)
+            : collection.findOneAndUpdate(filter, update, options);
+    }
+    
+    /**
+     * Số liệu mượn sách: số lần thành công, số lần tranh chấp bản sao, số lần hoàn tác,
+     * thời gian mượn trung bình/lớn nhất (ms)
+     */
+    public Map<String, Object> getBorrowStats() {
+        long count = borrows.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("borrows", count);
+        stats.put("copyConflicts", conflicts.sum());
+        stats.put("compensations", compensations.sum());
+        stats.put("transactions", useTransactions);
+        stats.put("avgBorrowMs", count > 0 ? borrowNanos.sum() / count / 1_000_000.0 : 0.0);
+        stats.put("maxBorrowMs", maxBorrowNanos.get() / 1_000_000.0);
+        return stats;
+    }
+    
     /**
      * Trả sách
      */
@@ -144,24 +320,18 @@ public class BorrowService {
                 return false;
             }
             
-            // Cập nhật bản ghi
+            // Cập nhật bản ghi (chỉ một trong các lần trả đồng thời thành công)
             record.markAsReturned();
-            Document recordDoc = borrowRecordToDocument(record);
-            Bson filter = Filters.eq("recordId", recordId);
-            borrowRecordsCollection.replaceOne(filter, recordDoc);
+            if (!closeRecord(record)) {
+                LoggerUtil.warn("Sách đã được trả trước đó: " + recordId);
+                return false;
+            }
             
             // Cập nhật trạng thái bản sao
             bookService.updateBookCopyStatus(record.getCopyId(), BookCopy.Status.AVAILABLE);
             
             // Cập nhật thông tin user
-            User user = userService.getUserById(record.getUserId());
-            if (user != null) {
-                user.decrementCurrentBorrowed();
-                userService.updateUser(user);
-            }
-            
-            // Cập nhật số lượng sách
-            bookService.updateBookCopyCount(record.getBookId());
+            releaseUserBorrow(record.getUserId(), 0);
             
             LoggerUtil.info("Trả sách thành công: " + recordId);
             return true;
@@ -172,6 +342,31 @@ public class BorrowService {
         }
     }
     
+    /**
+     * Ghi trạng thái kết thúc của phiếu mượn, chỉ khi phiếu vẫn đang mượn/quá hạn.
+     * Trả về false nếu một lần trả/đánh dấu khác đã đóng phiếu trước
+     */
+    private boolean closeRecord(BorrowRecord record) {
+        Bson filter = Filters.and(
+            Filters.eq("recordId", record.getRecordId()),
+            Filters.in("status", Arrays.asList("BORROWED", "OVERDUE"))
+        );
+        return borrowRecordsCollection.replaceOne(filter, borrowRecordToDocument(record)).getMatchedCount() > 0;
+    }
+    
+    /**
+     * Giảm số sách đang mượn (không xuống dưới 0) và cộng tiền phạt của user bằng $inc,
+     * không ghi đè cả document nên không làm mất $inc của các lần mượn chạy song song
+     */
+    private void releaseUserBorrow(String userId, double fineAmount) {
+        usersCollection.updateOne(
+            Filters.and(Filters.eq("userId", userId), Filters.gt("currentBorrowed", 0)),
+            Updates.inc("currentBorrowed", -1));
+        if (fineAmount > 0) {
+            usersCollection.updateOne(Filters.eq("userId", userId), Updates.inc("totalFines", fineAmount));
+        }
+    }
+    
     /**
      * Lấy lịch sử mượn của user
      */
@@ -195,7 +390,7 @@ public class BorrowService {
     }
     
     /**
-     * Lấy sách đang mượn
+     * Lấy sách đang mượn; lỗi truy vấn được ném ra (borrowBook không được coi là "chưa mượn gì")
      */
     public List<BorrowRecord> getCurrentBorrows(String userId) {
         List<BorrowRecord> records = new ArrayList<>();
@@ -213,8 +408,9 @@ public class BorrowService {
                     records.add(record);
                 }
             }
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             LoggerUtil.error("Lỗi lấy sách đang mượn: " + e.getMessage());
+            throw e;
         }
         return records;
     }
@@ -315,29 +511,20 @@ public class BorrowService {
             double fineAmount = book.getPrice();
             record.setFineAmount(fineAmount);
             
-            Document recordDoc = borrowRecordToDocument(record);
-            Bson filter = Filters.eq("recordId", recordId);
-            borrowRecordsCollection.replaceOne(filter, recordDoc);
+            if (!closeRecord(record)) {
+                throw new RuntimeException("Không thể đánh dấu sách bị mất");
+            }
             
             // Cập nhật trạng thái bản sao
             bookService.updateBookCopyStatus(record.getCopyId(), BookCopy.Status.LOST);
             
             // Cập nhật thông tin user
-            User user = userService.getUserById(record.getUserId());
-            if (user != null) {
-                user.decrementCurrentBorrowed();
-                user.addFine(fineAmount);
-                userService.updateUser(user);
-            }
+            releaseUserBorrow(record.getUserId(), fineAmount);
             
             // Tạo phạt
-            FineService fineService = new FineService();
             fineService.createLostBookFine(record.getUserId(), recordId, 
                 record.getBookId(), record.getCopyId(), fineAmount);
             
-            // Cập nhật số lượng sách
-            bookService.updateBookCopyCount(record.getBookId());
-            
             LoggerUtil.info("Đánh dấu sách bị mất thành công: " + recordId + " - Phạt: " + fineAmount + " VND");
             return true;
             
@@ -375,29 +562,20 @@ public class BorrowService {
             double fineAmount = book.getPrice() * (damagePercentage / 100.0);
             record.setFineAmount(fineAmount);
             
-            Document recordDoc = borrowRecordToDocument(record);
-            Bson filter = Filters.eq("recordId", recordId);
-            borrowRecordsCollection.replaceOne(filter, recordDoc);
+            if (!closeRecord(record)) {
+                throw new RuntimeException("Không thể đánh dấu sách bị hỏng");
+            }
             
             // Cập nhật trạng thái bản sao
             bookService.updateBookCopyStatus(record.getCopyId(), BookCopy.Status.DAMAGED);
             
             // Cập nhật thông tin user
-            User user = userService.getUserById(record.getUserId());
-            if (user != null) {
-                user.decrementCurrentBorrowed();
-                user.addFine(fineAmount);
-                userService.updateUser(user);
-            }
+            releaseUserBorrow(record.getUserId(), fineAmount);
             
             // Tạo phạt
-            FineService fineService = new FineService();
             fineService.createDamagedBookFine(record.getUserId(), recordId, 
                 record.getBookId(), record.getCopyId(), fineAmount);
             
-            // Cập nhật số lượng sách
-            bookService.updateBookCopyCount(record.getBookId());
-            
             LoggerUtil.info("Đánh dấu sách bị hỏng thành công: " + recordId + " - Phạt: " + fineAmount + " VND");
             return true;
             
@@ -547,6 +725,26 @@ public class BorrowService {
         }
     }
     
+    /**
+     * Ghi nhiều bản ghi mượn bằng bulkWrite (nạp dữ liệu), không đổi trạng thái bản sao
+     * hay số liệu của user. Trả về số bản ghi đã ghi
+     */
+    public long addBorrowRecords(List<BorrowRecord> records) {
+        try (BulkWriter writer = new BulkWriter(borrowRecordsCollection)) {
+            for (BorrowRecord record : records) {
+                if (record.getRecordId() == null || record.getRecordId().isEmpty()) {
+                    record.setRecordId(generateRecordId());
+                }
+                writer.insert(borrowRecordToDocument(record));
+            }
+            writer.flush();
+            return writer.getInsertedCount();
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi thêm bản ghi mượn hàng loạt: " + e.getMessage());
+            return 0;
+        }
+    }
+    
     /**
      * Lấy tổng số lượt mượn
      */
@@ -705,22 +903,16 @@ public class BorrowService {
             record.markAsReturned();
             record.setReturnNotes("Bắt buộc trả bởi admin");
             
-            Document recordDoc = borrowRecordToDocument(record);
-            Bson filter = Filters.eq("recordId", recordId);
-            borrowRecordsCollection.replaceOne(filter, recordDoc);
+            if (!closeRecord(record)) {
+                LoggerUtil.warn("Phiếu mượn đã đóng trước đó: " + recordId);
+                return false;
+            }
             
             // Cập nhật trạng thái bản sao
             bookService.updateBookCopyStatus(record.getCopyId(), BookCopy.Status.AVAILABLE);
             
             // Cập nhật thông tin user
-            User user = userService.getUserById(record.getUserId());
-            if (user != null) {
-                user.decrementCurrentBorrowed();
-                userService.updateUser(user);
-            }
-            
-            // Cập nhật số lượng sách
-            bookService.updateBookCopyCount(record.getBookId());
+            releaseUserBorrow(record.getUserId(), 0);
             
             LoggerUtil.info("Bắt buộc trả sách thành công: " + recordId);
             return true;
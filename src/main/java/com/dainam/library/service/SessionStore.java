@@ -0,0 +1,316 @@
+package com.dainam.library.service;
+
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.config.DatabaseConfig;
+import com.dainam.library.util.LoggerUtil;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Nơi duy nhất lưu session đăng nhập (mỗi user một session).
+ * Trạng thái isOnline/sessionId trong collection users chỉ là bản sao để xem,
+ * được ghi theo session.persistence.mode: off, sync (ghi ngay như trước) hoặc
+ * write_behind (gom lại, ghi bằng một bulkWrite mỗi chu kỳ, chỉ giữ trạng thái cuối của mỗi user).
+ */
+public class SessionStore {
+
+    public enum PersistenceMode {
+        OFF,
+        SYNC,
+        WRITE_BEHIND
+    }
+
+    private static SessionStore instance;
+
+    private final Map<String, SessionRecord> sessionsById = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionIdByUser = new ConcurrentHashMap<>();
+    // Listener nhận sessionId khi session kết thúc (đăng xuất, đăng nhập nơi khác, hết hạn)
+    private final List<Consumer<String>> endListeners = new CopyOnWriteArrayList<>();
+
+    private final PersistenceMode persistenceMode;
+    // Trạng thái cần ghi xuống database, theo userId (bản ghi sau thay bản ghi trước)
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    // Số liệu
+    private final LongAdder persistedWrites = new LongAdder();
+    private final LongAdder supersededWrites = new LongAdder();
+    private final LongAdder flushBatches = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+
+    private SessionStore() {
+        this.persistenceMode = parseMode(AppConfig.getString("session.persistence.mode", "write_behind"));
+        if (persistenceMode != PersistenceMode.OFF) {
+            resetOnlineStatus();
+        }
+        if (persistenceMode == PersistenceMode.WRITE_BEHIND) {
+            long intervalMs = Math.max(100, AppConfig.getLong("session.persistence.flush.interval.ms", 2000));
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-persist");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "session-persist-shutdown"));
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    private static PersistenceMode parseMode(String value) {
+        try {
+            return PersistenceMode.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LoggerUtil.warn("session.persistence.mode không hợp lệ: " + value + ", dùng WRITE_BEHIND");
+            return PersistenceMode.WRITE_BEHIND;
+        }
+    }
+
+    public static synchronized SessionStore getInstance() {
+        if (instance == null) {
+            instance = new SessionStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Reset online status khi khởi động: session của tiến trình trước không còn hiệu lực
+     */
+    private void resetOnlineStatus() {
+        try {
+            usersCollection().updateMany(Filters.eq("isOnline", true), Updates.combine(
+                Updates.unset("sessionId"),
+                Updates.set("isOnline", false)
+            ));
+            LoggerUtil.info("Reset all online status on application startup");
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi reset online status: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tạo session mới cho user; session cũ của user (nếu có) bị kết thúc.
+     * Session mới thay session cũ bằng một lần put, nên hai lần đăng nhập đồng thời
+     * của cùng user không thể cùng giữ session: lần sau luôn kết thúc session của lần trước
+     */
+    public SessionRecord startSession(String userId) {
+        SessionRecord record = new SessionRecord(userId, "session_" + UUID.randomUUID().toString().substring(0, 8));
+        sessionsById.put(record.getSessionId(), record);
+        String previous = sessionIdByUser.put(userId, record.getSessionId());
+        persist(new PendingWrite(userId, record.getSessionId()));
+        if (previous != null) {
+            LoggerUtil.info("Found existing session for " + userId + ", cleaning up old session...");
+            // Không còn là session hiện tại của user nên endSession không ghi trạng thái offline
+            endSession(previous);
+        }
+        return record;
+    }
+
+    /**
+     * Kết thúc session; false nếu session không tồn tại
+     */
+    public boolean endSession(String sessionId) {
+        SessionRecord record = sessionsById.remove(sessionId);
+        if (record == null) {
+            return false;
+        }
+        boolean current = sessionIdByUser.remove(record.getUserId(), sessionId);
+        if (current) {
+            persist(new PendingWrite(record.getUserId(), null));
+        }
+        for (Consumer<String> listener : endListeners) {
+            try {
+                listener.accept(sessionId);
+            } catch (Exception e) {
+                LoggerUtil.error("Lỗi listener kết thúc session: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Kết thúc session hiện tại của user
+     */
+    public boolean endUserSession(String userId) {
+        String sessionId = sessionIdByUser.get(userId);
+        if (sessionId == null) {
+            // Đảm bảo bản sao trong database cũng offline
+            persist(new PendingWrite(userId, null));
+            return false;
+        }
+        return endSession(sessionId);
+    }
+
+    public SessionRecord getSession(String sessionId) {
+        return sessionsById.get(sessionId);
+    }
+
+    public boolean isOnline(String userId) {
+        return sessionIdByUser.containsKey(userId);
+    }
+
+    public String getSessionId(String userId) {
+        return sessionIdByUser.get(userId);
+    }
+
+    /**
+     * Bản sao userId -> sessionId của các user đang online
+     */
+    public Map<String, String> snapshot() {
+        return new HashMap<>(sessionIdByUser);
+    }
+
+    public void addEndListener(Consumer<String> listener) {
+        endListeners.add(listener);
+    }
+
+    /**
+     * Kết thúc mọi session (khi ứng dụng thoát) và ghi ngay xuống database
+     */
+    public void endAll() {
+        for (String sessionId : new ArrayList<>(sessionsById.keySet())) {
+            endSession(sessionId);
+        }
+        flush();
+    }
+
+    private void persist(PendingWrite write) {
+        switch (persistenceMode) {
+            case SYNC:
+                try {
+                    usersCollection().updateOne(Filters.eq("userId", write.userId), write.toUpdate());
+                    persistedWrites.increment();
+                } catch (Exception e) {
+                    flushErrors.increment();
+                    LoggerUtil.error("Lỗi ghi trạng thái online: " + e.getMessage());
+                }
+                break;
+            case WRITE_BEHIND:
+                if (pendingWrites.put(write.userId, write) != null) {
+                    supersededWrites.increment();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Ghi các trạng thái đang chờ bằng một bulkWrite
+     */
+    public synchronized void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        List<PendingWrite> batch = new ArrayList<>();
+        for (String userId : new ArrayList<>(pendingWrites.keySet())) {
+            PendingWrite write = pendingWrites.remove(userId);
+            if (write != null) {
+                batch.add(write);
+            }
+        }
+        List<WriteModel<Document>> operations = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            operations.add(new UpdateOneModel<>(Filters.eq("userId", write.userId), write.toUpdate()));
+        }
+        try {
+            usersCollection().bulkWrite(operations, new BulkWriteOptions().ordered(false));
+            persistedWrites.add(operations.size());
+            flushBatches.increment();
+        } catch (Exception e) {
+            flushErrors.increment();
+            LoggerUtil.error("Lỗi ghi trạng thái online (" + operations.size() + " user): " + e.getMessage());
+            // Giữ lại để ghi lần sau, trừ khi đã có trạng thái mới hơn
+            for (PendingWrite write : batch) {
+                pendingWrites.putIfAbsent(write.userId, write);
+            }
+        }
+    }
+
+    private static MongoCollection<Document> usersCollection() {
+        return DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS);
+    }
+
+    /**
+     * Số liệu: số session, chế độ ghi, số bản ghi đã ghi/bị thay thế trước khi ghi/đang chờ
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions", sessionsById.size());
+        stats.put("persistenceMode", persistenceMode.name());
+        stats.put("persistedWrites", persistedWrites.sum());
+        stats.put("supersededWrites", supersededWrites.sum());
+        stats.put("pendingWrites", pendingWrites.size());
+        stats.put("flushBatches", flushBatches.sum());
+        stats.put("flushErrors", flushErrors.sum());
+        return stats;
+    }
+
+    /**
+     * Trạng thái online cần ghi cho một user (sessionId null = offline)
+     */
+    private static class PendingWrite {
+        private final String userId;
+        private final String sessionId;
+
+        PendingWrite(String userId, String sessionId) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+        }
+
+        Bson toUpdate() {
+            if (sessionId == null) {
+                return Updates.combine(
+                    Updates.unset("sessionId"),
+                    Updates.set("isOnline", false)
+                );
+            }
+            return Updates.combine(
+                Updates.set("lastLogin", LocalDate.now()),
+                Updates.set("sessionId", sessionId),
+                Updates.set("isOnline", true)
+            );
+        }
+    }
+
+    /**
+     * Một session đăng nhập
+     */
+    public static class SessionRecord {
+        private final String userId;
+        private final String sessionId;
+        private final LocalDateTime loginTime;
+
+        SessionRecord(String userId, String sessionId) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.loginTime = LocalDateTime.now();
+        }
+
+        public String getUserId() { return userId; }
+        public String getSessionId() { return sessionId; }
+        public LocalDateTime getLoginTime() { return loginTime; }
+    }
+}
@@ -2,6 +2,7 @@ package com.dainam.library.service;
 
 import com.dainam.library.config.DatabaseConfig;
 import com.dainam.library.model.User;
+import com.dainam.library.util.BulkWriter;
 import com.dainam.library.util.LoggerUtil;
 import com.dainam.library.util.PasswordUtil;
 import com.dainam.library.util.ValidationUtil;
@@ -13,11 +14,8 @@ import com.mongodb.client.model.Updates;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
-import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
 /**
@@ -26,60 +24,19 @@ import java.util.Map;
 public class UserService {
     
     private final MongoCollection<Document> usersCollection;
-      // Lưu trữ session của user đang online (userId -> sessionId)
-    private static final Map<String, String> activeSessions = new ConcurrentHashMap<>();
+    // Session đăng nhập (nguồn duy nhất, dùng chung với server)
+    private final SessionStore sessionStore;
     
-    // Lưu trữ thời gian login (userId -> loginTime)
-    private static final Map<String, LocalDateTime> loginTimes = new ConcurrentHashMap<>();
-    
-    // Flag để chỉ reset sessions một lần khi ứng dụng khởi động
-    private static boolean sessionsInitialized = false;    public UserService() {
+    public UserService() {
         this.usersCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS);
-        
-        // Chỉ khởi tạo sessions một lần khi ứng dụng khởi động
-        initializeSessionsOnce();
+        this.sessionStore = SessionStore.getInstance();
     }
-      /**
-     * Khởi tạo sessions chỉ một lần khi ứng dụng khởi động
-     */
-    private static synchronized void initializeSessionsOnce() {
-        LoggerUtil.info("initializeSessionsOnce called - sessionsInitialized: " + sessionsInitialized);
-        if (!sessionsInitialized) {
-            LoggerUtil.info("Initializing sessions for the first time");
-            loadActiveSessionsFromDatabase();
-            sessionsInitialized = true;
-        } else {
-            LoggerUtil.info("Sessions already initialized, skipping");
-        }
-    }/**
-     * Load active sessions từ database khi khởi động
-     * Nhưng reset tất cả để tránh session zombie
-     */
-    private static void loadActiveSessionsFromDatabase() {
-        try {
-            MongoCollection<Document> usersCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS);
-            
-            // Reset tất cả online status khi khởi động ứng dụng mới
-            // Vì không có cách nào biết các session cũ còn active hay không
-            Bson filter = Filters.eq("isOnline", true);
-            Bson update = Updates.combine(
-                Updates.unset("sessionId"),
-                Updates.set("isOnline", false)
-            );
-            usersCollection.updateMany(filter, update);
-            
-            LoggerUtil.info("Reset all online status on application startup");
-        } catch (Exception e) {
-            LoggerUtil.error("Lỗi reset online status: " + e.getMessage());
-        }
-    }/**
+    
+    /**
      * Xác thực người dùng với single-session check
      */
     public User authenticate(String email, String password) {
         try {
-            // Debug current state
-            debugUserState(email);
-            
             Bson filter = Filters.eq("email", email);
             Document userDoc = usersCollection.find(filter).first();
             
@@ -87,39 +44,15 @@ public class UserService {
                 String hashedPassword = userDoc.getString("password");
                 if (PasswordUtil.checkPassword(password, hashedPassword)) {
                     User user = documentToUser(userDoc);
-                      // Kiểm tra single session - kiểm tra cả memory và database
-                    boolean inMemory = isUserLoggedIn(user.getUserId());
-                    boolean inDatabase = isUserOnlineInDatabase(user.getUserId());
-                    
-                    LoggerUtil.info("Session check for " + email + " - Memory: " + inMemory + ", Database: " + inDatabase);
-                    
-                    // Nếu có session cũ, cleanup trước khi tạo session mới
-                    if (inMemory || inDatabase) {
-                        LoggerUtil.info("Found existing session for " + email + ", cleaning up old session...");
-                        
-                        // Cleanup session cũ
-                        logout(user.getUserId());
-                        
-                        LoggerUtil.info("Old session cleaned up, proceeding with new login");
-                    }
                     
-                    // Tạo session mới
-                    String sessionId = generateSessionId();
-                    activeSessions.put(user.getUserId(), sessionId);
-                    loginTimes.put(user.getUserId(), LocalDateTime.now());
+                    // Single session: SessionStore kết thúc session cũ của user (nếu có).
+                    // lastLogin/sessionId/isOnline được SessionStore ghi xuống database.
+                    String sessionId = sessionStore.startSession(user.getUserId()).getSessionId();
                     
                     user.updateLastLogin();
                     user.setSessionId(sessionId);
                     user.setOnline(true);
                     
-                    // Cập nhật lastLogin và sessionId
-                    Bson update = Updates.combine(
-                        Updates.set("lastLogin", LocalDate.now()),
-                        Updates.set("sessionId", sessionId),
-                        Updates.set("isOnline", true)
-                    );
-                    usersCollection.updateOne(filter, update);
-                    
                     LoggerUtil.info("User đăng nhập thành công: " + email + " với session: " + sessionId);
                     return user;
                 }
@@ -139,16 +72,8 @@ public class UserService {
      */
     public boolean logout(String userId) {
         try {
-            activeSessions.remove(userId);
-            loginTimes.remove(userId);
-            
-            // Cập nhật trạng thái offline trong database
-            Bson filter = Filters.eq("userId", userId);
-            Bson update = Updates.combine(
-                Updates.unset("sessionId"),
-                Updates.set("isOnline", false)
-            );
-            usersCollection.updateOne(filter, update);
+            // SessionStore cập nhật trạng thái offline trong database
+            sessionStore.endUserSession(userId);
             
             LoggerUtil.info("User đăng xuất: " + userId);
             return true;
@@ -162,7 +87,7 @@ public class UserService {
      * Kiểm tra user có đang đăng nhập không
      */
     public boolean isUserLoggedIn(String userId) {
-        return activeSessions.containsKey(userId);
+        return sessionStore.isOnline(userId);
     }
       /**
      * Kiểm tra user có online trong database không
@@ -188,12 +113,6 @@ public class UserService {
         }
     }
     
-    /**
-     * Tạo session ID
-     */
-    private String generateSessionId() {
-        return "SESSION_" + System.currentTimeMillis() + "_" + Math.random();
-    }
       /**
      * Force logout user (admin only)
      */
@@ -206,18 +125,7 @@ public class UserService {
      */
     public static void cleanupAllSessions() {
         try {
-            // Clear memory sessions
-            activeSessions.clear();
-            loginTimes.clear();
-            
-            // Reset all online status in database
-            MongoCollection<Document> usersCollection = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS);
-            Bson filter = Filters.eq("isOnline", true);
-            Bson update = Updates.combine(
-                Updates.unset("sessionId"),
-                Updates.set("isOnline", false)
-            );
-            usersCollection.updateMany(filter, update);
+            SessionStore.getInstance().endAll();
             
             LoggerUtil.info("Cleaned up all user sessions");
         } catch (Exception e) {
@@ -228,7 +136,7 @@ public class UserService {
      * Lấy danh sách users online
      */
     public static Map<String, String> getActiveSessions() {
-        return new ConcurrentHashMap<>(activeSessions);
+        return SessionStore.getInstance().snapshot();
     }
     
     /**
@@ -243,7 +151,7 @@ public class UserService {
                 String userId = userDoc.getString("userId");
                 boolean isOnlineInDB = userDoc.getBoolean("isOnline", false);
                 String sessionId = userDoc.getString("sessionId");
-                boolean isInMemory = activeSessions.containsKey(userId);
+                boolean isInMemory = sessionStore.isOnline(userId);
                 
                 LoggerUtil.info("=== DEBUG USER STATE ===");
                 LoggerUtil.info("Email: " + email);
@@ -251,8 +159,8 @@ public class UserService {
                 LoggerUtil.info("Online in DB: " + isOnlineInDB);
                 LoggerUtil.info("Session ID in DB: " + sessionId);
                 LoggerUtil.info("In memory sessions: " + isInMemory);
-                LoggerUtil.info("Memory session ID: " + activeSessions.get(userId));
-                LoggerUtil.info("Total memory sessions: " + activeSessions.size());
+                LoggerUtil.info("Memory session ID: " + sessionStore.getSessionId(userId));
+                LoggerUtil.info("Total memory sessions: " + sessionStore.snapshot().size());
                 LoggerUtil.info("========================");
             } else {
                 LoggerUtil.info("User not found: " + email);
@@ -311,6 +219,26 @@ public class UserService {
         }
     }
     
+    /**
+     * Ghi nhiều user bằng bulkWrite (nạp dữ liệu). Mật khẩu phải được mã hóa sẵn,
+     * không kiểm tra trùng email. Trả về số user đã ghi
+     */
+    public long addUsers(List<User> users) {
+        try (BulkWriter writer = new BulkWriter(usersCollection)) {
+            for (User user : users) {
+                if (user.getUserId() == null || user.getUserId().isEmpty()) {
+                    user.setUserId(generateUserId());
+                }
+                writer.insert(userToDocument(user));
+            }
+            writer.flush();
+            return writer.getInsertedCount();
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi thêm user hàng loạt: " + e.getMessage());
+            return 0;
+        }
+    }
+    
     /**
      * Thêm user mới (admin only)
      */
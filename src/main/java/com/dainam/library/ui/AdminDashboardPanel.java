@@ -1,5 +1,6 @@
 package com.dainam.library.ui;
 
+import com.dainam.library.client.ServiceManager;
 import com.dainam.library.model.Book;
 import com.dainam.library.model.BorrowRecord;
 import com.dainam.library.model.User;
@@ -14,6 +15,7 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Panel Dashboard cho Admin
@@ -238,15 +240,38 @@ public class AdminDashboardPanel extends JPanel {
     }
     
     private void updateStatistics() {        try {
-            // Lấy dữ liệu thực tế từ MongoDB
-            int totalBooks = bookService.getTotalBooks();
-            int totalUsers = userService.getTotalUsers();
-            long totalBorrows = borrowService.getTotalBorrows();
-            double totalFines = fineService.getTotalFines();
-            int availableBooks = bookService.getAvailableBooks();
-            long borrowedBooks = borrowService.getBorrowedBooks();
-            long overdueBooks = borrowService.getOverdueBooks();
-            int pendingUsers = userService.getPendingUsers();
+            int totalBooks;
+            int totalUsers;
+            long totalBorrows;
+            double totalFines;
+            int availableBooks;
+            long borrowedBooks;
+            long overdueBooks;
+            int pendingUsers;
+            
+            ServiceManager serviceManager = ServiceManager.getInstance();
+            if (serviceManager.isRemoteMode()) {
+                // Chế độ remote: cả 8 chỉ số trong một round trip
+                Map<String, Number> stats = serviceManager.getRemoteAdapter().getDashboardStatistics();
+                totalBooks = stats.getOrDefault("getTotalBooks", 0).intValue();
+                totalUsers = stats.getOrDefault("getTotalUsers", 0).intValue();
+                totalBorrows = stats.getOrDefault("getTotalBorrows", 0).longValue();
+                totalFines = stats.getOrDefault("getTotalFines", 0).doubleValue();
+                availableBooks = stats.getOrDefault("getAvailableBooks", 0).intValue();
+                borrowedBooks = stats.getOrDefault("getBorrowedBooks", 0).longValue();
+                overdueBooks = stats.getOrDefault("getOverdueBooks", 0).longValue();
+                pendingUsers = stats.getOrDefault("getPendingUsers", 0).intValue();
+            } else {
+                // Lấy dữ liệu thực tế từ MongoDB
+                totalBooks = bookService.getTotalBooks();
+                totalUsers = userService.getTotalUsers();
+                totalBorrows = borrowService.getTotalBorrows();
+                totalFines = fineService.getTotalFines();
+                availableBooks = bookService.getAvailableBooks();
+                borrowedBooks = borrowService.getBorrowedBooks();
+                overdueBooks = borrowService.getOverdueBooks();
+                pendingUsers = userService.getPendingUsers();
+            }
             
             // Cập nhật labels với dữ liệu thực tế
             totalBooksLabel.setText(String.valueOf(totalBooks));
@@ -7,6 +7,8 @@ import com.dainam.library.util.EventBus;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Giao diện chính cho Admin với real-time updates
@@ -18,6 +20,8 @@ public class AdminFrame extends JFrame {
     private JTabbedPane tabbedPane;
     private Timer refreshTimer;
     private EventBus eventBus;
+    // Đăng ký sự kiện đang giữ, hủy trong removeNotify
+    private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
     
     // Panels
     private AdminDashboardPanel dashboardPanel;
@@ -310,19 +314,44 @@ public class AdminFrame extends JFrame {
       public void switchToReports() {
         tabbedPane.setSelectedComponent(reportPanel);
     }
-      private void setupEventSubscriptions() {
+      /**
+     * Đăng ký sự kiện real-time (hủy trong removeNotify khi cửa sổ bị dispose)
+     */
+    private void subscribeEvents() {
         // Subscribe to real-time events
-        eventBus.subscribe(EventBus.Events.BOOK_ADDED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.BOOK_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.BOOK_DELETED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.USER_ADDED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.USER_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.USER_DELETED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.BORROW_RECORD_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        eventBus.subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refreshAllPanels));
-        
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_ADDED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_DELETED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.USER_ADDED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.USER_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.USER_DELETED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BORROW_RECORD_UPDATED, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refreshAllPanels)));
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (subscriptions.isEmpty()) {
+            subscribeEvents();
+        }
+    }
+    
+    @Override
+    public void removeNotify() {
+        for (EventBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+        if (refreshTimer != null) {
+            refreshTimer.stop();
+        }
+        super.removeNotify();
+    }
+    
+    private void setupEventSubscriptions() {
         // Window closing
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         addWindowListener(new java.awt.event.WindowAdapter() {
@@ -1,5 +1,8 @@
 package com.dainam.library.ui;
 
+import com.dainam.library.client.RemoteBookCache;
+import com.dainam.library.client.RemoteServiceAdapter;
+import com.dainam.library.client.ServiceManager;
 import com.dainam.library.model.User;
 import com.dainam.library.model.Book;
 import com.dainam.library.model.BookCopy;
@@ -14,7 +17,10 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Panel tìm kiếm và mượn sách cho User với real-time updates
@@ -33,6 +39,14 @@ public class UserBookSearchPanel extends JPanel {
     private JButton borrowButton;
     private JButton viewDetailsButton;
     private Timer refreshTimer;
+    // Lần tải gần nhất, để bỏ qua dữ liệu stream của lần tải cũ
+    private final AtomicInteger loadGeneration = new AtomicInteger();
+    // Mã sách của từng dòng khi bảng hiển thị toàn bộ cache (null nếu đang hiển thị kết quả tìm kiếm)
+    private List<String> rowBookIds;
+    // Đăng ký sự kiện đang giữ, hủy trong removeNotify
+    private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
+    private final Consumer<String> bookCacheListener =
+        bookId -> SwingUtilities.invokeLater(() -> onCachedBookChanged(bookId));
     
     public UserBookSearchPanel(User user) {
         this.currentUser = user;
@@ -222,13 +236,47 @@ public class UserBookSearchPanel extends JPanel {
                 updateButtonStates();
             }
         });
-        
+    }
+    
+    private void setupEventSubscriptions() {
         // Subscribe to real-time events
-        EventBus.getInstance().subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refresh));
-        EventBus.getInstance().subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refresh));
-        EventBus.getInstance().subscribe(EventBus.Events.BOOK_ADDED, data -> SwingUtilities.invokeLater(this::refresh));
-        EventBus.getInstance().subscribe(EventBus.Events.BOOK_UPDATED, data -> SwingUtilities.invokeLater(this::refresh));
-        EventBus.getInstance().subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refresh));
+        EventBus eventBus = EventBus.getInstance();
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_ADDED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_UPDATED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refresh)));
+        
+        // Chế độ remote: cập nhật đúng dòng của sách thay đổi thay vì tải lại cả bảng
+        RemoteBookCache.getInstance().addListener(bookCacheListener);
+        subscriptions.add(() -> RemoteBookCache.getInstance().removeListener(bookCacheListener));
+    }
+    
+    /**
+     * Đăng ký sự kiện khi panel được gắn vào cửa sổ, hủy khi panel bị gỡ/cửa sổ đóng
+     * để EventBus và Timer không giữ panel cũ sau khi đăng xuất
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (subscriptions.isEmpty()) {
+            setupEventSubscriptions();
+        }
+        if (refreshTimer != null && !refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+    
+    @Override
+    public void removeNotify() {
+        for (EventBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+        if (refreshTimer != null) {
+            refreshTimer.stop();
+        }
+        super.removeNotify();
     }
     
     private void startAutoRefresh() {
@@ -286,6 +334,13 @@ public class UserBookSearchPanel extends JPanel {
     }
     
     private void loadBooks() {
+        ServiceManager serviceManager = ServiceManager.getInstance();
+        if (serviceManager.isRemoteMode()) {
+            loadBooksStreaming(serviceManager.getRemoteAdapter());
+            return;
+        }
+        loadGeneration.incrementAndGet();
+        rowBookIds = null;
         try {            DefaultTableModel model = (DefaultTableModel) booksTable.getModel();
             model.setRowCount(0); // Clear existing data
             
@@ -300,17 +355,7 @@ public class UserBookSearchPanel extends JPanel {
             });
             
             for (Book book : books) {
-                Object[] row = {
-                    book.getTitle(),
-                    book.getAuthor(),
-                    book.getCategory(),
-                    book.getPublicationYear(),
-                    book.getPageCount(),
-                    String.format("%,.0f", book.getPrice()),
-                    book.getAvailableCopies(),
-                    book.getTotalCopies()
-                };
-                model.addRow(row);
+                model.addRow(toRow(book));
             }
             
             updateButtonStates();
@@ -319,6 +364,97 @@ public class UserBookSearchPanel extends JPanel {
         }
     }
     
+    /**
+     * Chế độ remote: hiển thị từ cache nếu đã tải, nếu chưa thì đọc sách qua cursor
+     * của server, thêm dòng vào bảng ngay khi từng nhóm về tới (thứ tự theo mã sách)
+     */
+    private void loadBooksStreaming(RemoteServiceAdapter adapter) {
+        DefaultTableModel model = (DefaultTableModel) booksTable.getModel();
+        model.setRowCount(0);
+        int generation = loadGeneration.incrementAndGet();
+        List<String> ids = new ArrayList<>();
+        rowBookIds = ids;
+        
+        RemoteBookCache cache = RemoteBookCache.getInstance();
+        if (cache.isLoaded()) {
+            for (Book book : cache.snapshot()) {
+                model.addRow(toRow(book));
+                ids.add(book.getBookId());
+            }
+            updateButtonStates();
+            updateStatus();
+            return;
+        }
+        
+        Thread loader = new Thread(() -> {
+            int total = cache.load(adapter, 200, books -> SwingUtilities.invokeLater(() -> {
+                if (generation == loadGeneration.get()) {
+                    for (Book book : books) {
+                        model.addRow(toRow(book));
+                        ids.add(book.getBookId());
+                    }
+                    updateStatus();
+                }
+            }));
+            if (total < 0) {
+                LoggerUtil.error("Error loading books from server");
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (generation == loadGeneration.get()) {
+                    updateButtonStates();
+                    updateStatus();
+                }
+            });
+        }, "book-stream-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    /**
+     * Áp thay đổi của một cuốn sách trong cache lên bảng (bookId null: tải lại toàn bộ)
+     */
+    private void onCachedBookChanged(String bookId) {
+        if (rowBookIds == null || !ServiceManager.getInstance().isRemoteMode()) {
+            return;
+        }
+        if (bookId == null) {
+            refresh();
+            return;
+        }
+        DefaultTableModel model = (DefaultTableModel) booksTable.getModel();
+        Book book = RemoteBookCache.getInstance().get(bookId);
+        int row = rowBookIds.indexOf(bookId);
+        if (book == null) {
+            if (row >= 0) {
+                model.removeRow(row);
+                rowBookIds.remove(row);
+            }
+        } else if (row >= 0) {
+            Object[] values = toRow(book);
+            for (int column = 0; column < values.length; column++) {
+                model.setValueAt(values[column], row, column);
+            }
+        } else {
+            model.addRow(toRow(book));
+            rowBookIds.add(bookId);
+        }
+        updateButtonStates();
+        updateStatus();
+    }
+    
+    private Object[] toRow(Book book) {
+        return new Object[] {
+            book.getTitle(),
+            book.getAuthor(),
+            book.getCategory(),
+            book.getPublicationYear(),
+            book.getPageCount(),
+            String.format("%,.0f", book.getPrice()),
+            book.getAvailableCopies(),
+            book.getTotalCopies()
+        };
+    }
+    
     private void performSearch() {
         try {
             String query = searchField.getText().trim();
@@ -328,6 +464,9 @@ public class UserBookSearchPanel extends JPanel {
                 selectedCategory = "Tất cả thể loại";
             }
             
+            // Dừng nhận dữ liệu stream của lần tải trước
+            loadGeneration.incrementAndGet();
+            rowBookIds = null;
             DefaultTableModel model = (DefaultTableModel) booksTable.getModel();
             model.setRowCount(0);
               List<Book> books;
@@ -15,6 +15,7 @@ import java.awt.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +35,8 @@ public class UserBorrowPanel extends JPanel {
     private JButton refreshButton;
     private Timer refreshTimer;
     private EventBus eventBus;
+    // Đăng ký sự kiện đang giữ, hủy trong removeNotify
+    private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
     
     // Table models
     private DefaultTableModel currentBorrowsModel;
@@ -47,7 +50,6 @@ public class UserBorrowPanel extends JPanel {
         initializeComponents();
         setupLayout();
         setupEventHandlers();
-        setupEventSubscriptions();
         startAutoRefresh();
         refresh();
     }
@@ -218,10 +220,37 @@ public class UserBorrowPanel extends JPanel {
     
     private void setupEventSubscriptions() {
         // Subscribe to real-time events
-        eventBus.subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refresh));
-        eventBus.subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refresh));
-        eventBus.subscribe(EventBus.Events.BORROW_RECORD_UPDATED, data -> SwingUtilities.invokeLater(this::refresh));
-        eventBus.subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refresh));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_BORROWED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BOOK_RETURNED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.BORROW_RECORD_UPDATED, data -> SwingUtilities.invokeLater(this::refresh)));
+        subscriptions.add(eventBus.subscribe(EventBus.Events.DATA_REFRESH, data -> SwingUtilities.invokeLater(this::refresh)));
+    }
+    
+    /**
+     * Đăng ký sự kiện khi panel được gắn vào cửa sổ, hủy khi panel bị gỡ/cửa sổ đóng
+     * để EventBus và Timer không giữ panel cũ sau khi đăng xuất
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (subscriptions.isEmpty()) {
+            setupEventSubscriptions();
+        }
+        if (refreshTimer != null && !refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+    
+    @Override
+    public void removeNotify() {
+        for (EventBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+        if (refreshTimer != null) {
+            refreshTimer.stop();
+        }
+        super.removeNotify();
     }
     
     private void startAutoRefresh() {
@@ -0,0 +1,87 @@
+package com.dainam.library.util;
+
+import com.dainam.library.config.AppConfig;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gom document thành lô và ghi bằng một bulkWrite không theo thứ tự (unordered),
+ * thay vì mỗi document một insertOne. Một document lỗi (ví dụ trùng khóa) không chặn
+ * các document còn lại trong lô. Không thread-safe: mỗi producer dùng một BulkWriter riêng.
+ */
+public class BulkWriter implements AutoCloseable {
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final MongoCollection<Document> collection;
+    private final int batchSize;
+    private final List<WriteModel<Document>> buffer;
+    private long inserted = 0;
+    private long failed = 0;
+
+    public BulkWriter(MongoCollection<Document> collection) {
+        this(collection, defaultBatchSize());
+    }
+
+    public BulkWriter(MongoCollection<Document> collection, int batchSize) {
+        this.collection = collection;
+        this.batchSize = Math.max(1, batchSize);
+        this.buffer = new ArrayList<>(this.batchSize);
+    }
+
+    /**
+     * Kích thước lô mặc định (seed.batch.size)
+     */
+    public static int defaultBatchSize() {
+        return Math.max(1, AppConfig.getInt("seed.batch.size", 1000));
+    }
+
+    public void insert(Document document) {
+        buffer.add(new InsertOneModel<>(document));
+        if (buffer.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Ghi phần còn lại trong bộ đệm
+     */
+    public void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        try {
+            BulkWriteResult result = collection.bulkWrite(buffer, UNORDERED);
+            inserted += result.getInsertedCount();
+        } catch (MongoBulkWriteException e) {
+            inserted += e.getWriteResult().getInsertedCount();
+            failed += e.getWriteErrors().size();
+            LoggerUtil.warn("Ghi lô vào " + collection.getNamespace().getCollectionName() + ": "
+                + e.getWriteErrors().size() + "/" + buffer.size() + " document lỗi, ví dụ: "
+                + e.getWriteErrors().get(0).getMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    public long getInsertedCount() {
+        return inserted;
+    }
+
+    public long getFailedCount() {
+        return failed;
+    }
+}
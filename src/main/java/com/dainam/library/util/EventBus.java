@@ -1,55 +1,357 @@
 package com.dainam.library.util;
 
+import com.dainam.library.config.AppConfig;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
- * Event Bus để đồng bộ dữ liệu real-time giữa các giao diện
+ * Event Bus để đồng bộ dữ liệu real-time giữa các giao diện.
+ * Chế độ sync gọi listener ngay trên thread phát sự kiện; chế độ async đưa sự kiện
+ * vào hàng đợi có giới hạn của từng event type và gọi listener trên dispatch pool,
+ * giữ đúng thứ tự trong cùng một event type.
  */
 public class EventBus {
     
+    /**
+     * Cách gọi listener
+     */
+    public enum Mode {
+        SYNC,   // Gọi trực tiếp trên thread phát sự kiện
+        ASYNC   // Gọi trên dispatch pool, thứ tự theo event type
+    }
+    
+    /**
+     * Cách xử lý khi hàng đợi của event type đã đầy (chế độ async)
+     */
+    public enum Backpressure {
+        BLOCK,        // Thread phát chờ tới khi có chỗ (tối đa eventbus.block.timeout.ms), hết hạn thì bỏ sự kiện mới
+        DROP_OLDEST,  // Bỏ sự kiện cũ nhất đang chờ
+        DROP_NEWEST   // Bỏ sự kiện vừa phát
+    }
+    
+    // ArrayDeque không nhận null
+    private static final Object NULL_DATA = new Object();
+    // Đánh dấu thread đang gọi listener, để publish lồng nhau không tự chờ chính mình
+    private static final ThreadLocal<Boolean> DISPATCHING = ThreadLocal.withInitial(() -> false);
+    
     private static final EventBus INSTANCE = new EventBus();
-    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Consumer<Object>>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Listener>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    
+    private final Mode mode;
+    private final Backpressure backpressure;
+    private final int laneCapacity;
+    private final long blockTimeoutMs;
+    private final ExecutorService dispatchers;
     
-    private EventBus() {}
+    // Số liệu
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    
+    private EventBus() {
+        this(parseEnum(Mode.class, AppConfig.getString("eventbus.mode", "sync"), Mode.SYNC),
+            parseEnum(Backpressure.class, AppConfig.getString("eventbus.backpressure", "block"), Backpressure.BLOCK),
+            AppConfig.getInt("eventbus.buffer.capacity", 1024),
+            AppConfig.getLong("eventbus.block.timeout.ms", 1000),
+            AppConfig.getInt("eventbus.dispatch.threads", 2));
+    }
+    
+    /**
+     * Tạo bus với cấu hình cho trước (dùng trong test để so sánh các chế độ)
+     */
+    EventBus(Mode mode, Backpressure backpressure, int laneCapacity, long blockTimeoutMs, int dispatchThreads) {
+        this.mode = mode;
+        this.backpressure = backpressure;
+        this.laneCapacity = Math.max(1, laneCapacity);
+        this.blockTimeoutMs = blockTimeoutMs;
+        if (mode == Mode.ASYNC) {
+            AtomicInteger counter = new AtomicInteger();
+            this.dispatchers = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), runnable -> {
+                Thread thread = new Thread(runnable, "eventbus-dispatch-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.dispatchers = null;
+        }
+    }
+    
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, E defaultValue) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LoggerUtil.warn("Giá trị không hợp lệ cho " + type.getSimpleName() + ": " + value);
+            return defaultValue;
+        }
+    }
     
     public static EventBus getInstance() {
         return INSTANCE;
     }
     
     /**
-     * Đăng ký listener cho một event type
+     * Đăng ký listener cho một event type; gọi close() trên Subscription để hủy
+     */
+    public Subscription subscribe(String eventType, Consumer<Object> listener) {
+        return add(eventType, new Listener(listener));
+    }
+    
+    /**
+     * Đăng ký listener giữ owner bằng weak reference: khi owner bị thu hồi (ví dụ panel
+     * đã đóng) listener tự bị hủy. Listener không được tham chiếu trực tiếp tới owner,
+     * hãy dùng tham số owner (ví dụ MyPanel::onEvent).
      */
-    public void subscribe(String eventType, Consumer<Object> listener) {
+    public <T> Subscription subscribeWeak(String eventType, T owner, BiConsumer<T, Object> listener) {
+        return add(eventType, new WeakListener<>(owner, listener));
+    }
+    
+    private Subscription add(String eventType, Listener listener) {
         listeners.computeIfAbsent(eventType, k -> new CopyOnWriteArrayList<>()).add(listener);
+        return () -> remove(eventType, listener);
+    }
+    
+    private void remove(String eventType, Listener listener) {
+        CopyOnWriteArrayList<Listener> eventListeners = listeners.get(eventType);
+        if (eventListeners != null) {
+            eventListeners.remove(listener);
+        }
     }
     
     /**
      * Hủy đăng ký listener
      */
     public void unsubscribe(String eventType, Consumer<Object> listener) {
-        CopyOnWriteArrayList<Consumer<Object>> eventListeners = listeners.get(eventType);
+        CopyOnWriteArrayList<Listener> eventListeners = listeners.get(eventType);
         if (eventListeners != null) {
-            eventListeners.remove(listener);
+            eventListeners.removeIf(entry -> entry.target == listener);
         }
     }
     
     /**
-     * Phát sự kiện đến tất cả listeners
+     * Phát sự kiện đến tất cả listeners (chế độ async: chỉ xếp hàng rồi trả về)
      */
     public void publish(String eventType, Object data) {
-        CopyOnWriteArrayList<Consumer<Object>> eventListeners = listeners.get(eventType);
+        published.increment();
+        if (mode == Mode.SYNC) {
+            dispatch(eventType, data);
+            return;
+        }
+        CopyOnWriteArrayList<Listener> eventListeners = listeners.get(eventType);
+        if (eventListeners == null || eventListeners.isEmpty()) {
+            return;
+        }
+        lanes.computeIfAbsent(eventType, Lane::new).offer(data != null ? data : NULL_DATA);
+    }
+    
+    private void dispatch(String eventType, Object data) {
+        CopyOnWriteArrayList<Listener> eventListeners = listeners.get(eventType);
         if (eventListeners != null) {
-            for (Consumer<Object> listener : eventListeners) {
+            for (Listener listener : eventListeners) {
                 try {
-                    listener.accept(data);
+                    if (!listener.accept(data)) {
+                        // Owner của weak listener đã bị thu hồi
+                        eventListeners.remove(listener);
+                    }
                 } catch (Exception e) {
                     LoggerUtil.error("Error in event listener: " + e.getMessage());
                 }
             }
         }
+        delivered.increment();
+    }
+    
+    public Mode getMode() {
+        return mode;
     }
+    
+    /**
+     * Số liệu event bus: số sự kiện đã phát/đã gửi tới listener/bị bỏ, số đang chờ,
+     * độ sâu hàng đợi lớn nhất và tổng thời gian thread phát phải chờ (ms)
+     */
+    public Map<String, Object> getStats() {
+        int pending = 0;
+        for (Lane lane : lanes.values()) {
+            pending += lane.depth();
+        }
+        int listenerCount = 0;
+        for (CopyOnWriteArrayList<Listener> eventListeners : listeners.values()) {
+            listenerCount += eventListeners.size();
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", mode.name());
+        stats.put("backpressure", backpressure.name());
+        stats.put("published", published.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("pending", pending);
+        stats.put("maxQueueDepthSeen", maxDepth.get());
+        stats.put("publisherBlockedMs", blockedNanos.sum() / 1_000_000);
+        stats.put("listeners", listenerCount);
+        return stats;
+    }
+    
+    /**
+     * Handle của một đăng ký, close() để hủy
+     */
+    @FunctionalInterface
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+    
+    private static class Listener {
+        final Consumer<Object> target;
+    
+        Listener(Consumer<Object> target) {
+            this.target = target;
+        }
+    
+        /**
+         * Gọi listener; false nếu listener không còn dùng được
+         */
+        boolean accept(Object data) {
+            target.accept(data);
+            return true;
+        }
+    }
+    
+    private static class WeakListener<T> extends Listener {
+        private final WeakReference<T> owner;
+        private final BiConsumer<T, Object> action;
+    
+        WeakListener(T owner, BiConsumer<T, Object> action) {
+            super(null);
+            this.owner = new WeakReference<>(owner);
+            this.action = action;
+        }
+    
+        @Override
+        boolean accept(Object data) {
+            T target = owner.get();
+            if (target == null) {
+                return false;
+            }
+            action.accept(target, data);
+            return true;
+        }
+    }
+    
+    /**
+     * Hàng đợi có giới hạn của một event type, xử lý tuần tự (mỗi lane tối đa một task trên pool)
+     */
+    private final class Lane implements Runnable {
+        private final String eventType;
+        // Các field dưới đây được bảo vệ bởi lock của lane
+        private final ArrayDeque<Object> buffer = new ArrayDeque<>();
+        private boolean scheduled = false;
+    
+        Lane(String eventType) {
+            this.eventType = eventType;
+        }
+    
+        void offer(Object data) {
+            boolean schedule = false;
+            synchronized (this) {
+                if (buffer.size() >= laneCapacity && !makeRoom()) {
+                    dropped.increment();
+                    return;
+                }
+                buffer.addLast(data);
+                maxDepth.accumulateAndGet(buffer.size(), Math::max);
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+            if (schedule) {
+                try {
+                    dispatchers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                }
+            }
+        }
+    
+        /**
+         * Tạo chỗ trống theo chính sách backpressure (đang giữ lock); false nếu bỏ sự kiện mới
+         */
+        private boolean makeRoom() {
+            switch (backpressure) {
+                case DROP_OLDEST:
+                    buffer.pollFirst();
+                    dropped.increment();
+                    return true;
+                case BLOCK:
+                    if (DISPATCHING.get()) {
+                        // Listener phát lồng nhau: chờ sẽ tự khóa dispatch thread, cho vượt giới hạn
+                        return true;
+                    }
+                    long start = System.nanoTime();
+                    long deadline = start + blockTimeoutMs * 1_000_000;
+                    try {
+                        while (buffer.size() >= laneCapacity) {
+                            long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+                            if (remainingMs <= 0) {
+                                return false;
+                            }
+                            wait(remainingMs);
+                        }
+                        return true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    } finally {
+                        blockedNanos.add(System.nanoTime() - start);
+                    }
+                default:
+                    return false;
+            }
+        }
+    
+        synchronized int depth() {
+            return buffer.size();
+        }
+    
+        @Override
+        public void run() {
+            DISPATCHING.set(true);
+            try {
+                while (true) {
+                    Object data;
+                    synchronized (this) {
+                        data = buffer.pollFirst();
+                        if (data == null) {
+                            scheduled = false;
+                            return;
+                        }
+                        notifyAll();
+                    }
+                    dispatch(eventType, data == NULL_DATA ? null : data);
+                }
+            } finally {
+                DISPATCHING.set(false);
+            }
+        }
+    }
+    
       /**
      * Event types constants
      */
@@ -66,7 +368,7 @@ public class EventBus {
         public static final String USER_STATUS_CHANGED = "USER_STATUS_CHANGED";
         public static final String BORROW_RECORD_UPDATED = "BORROW_RECORD_UPDATED";
         public static final String DATA_REFRESH = "DATA_REFRESH";
-        
+    
         // Network events for multi-user support
         public static final String NETWORK_DATA_CHANGE = "NETWORK_DATA_CHANGE";
         public static final String USER_CONNECTED = "USER_CONNECTED";
@@ -0,0 +1,200 @@
+package com.dainam.library.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Đọc/ghi frame trên stream: dòng text (JSON) hoặc frame có tiền tố độ dài 4 byte (nhị phân).
+ * Bit cao nhất của header đánh dấu payload đã nén deflate, nên mỗi message
+ * tự quyết định có nén hay không (chỉ nén message lớn hơn ngưỡng đã negotiate).
+ * Dùng chung cho server blocking, NIO và ServerConnection phía client.
+ */
+public class FrameIO {
+    
+    public static final int HEADER_BYTES = 4;
+    // Giá trị ngưỡng khi không dùng nén
+    public static final int NO_COMPRESSION = -1;
+    
+    private static final int COMPRESSED_FLAG = 0x80000000;
+    private static final int LENGTH_MASK = 0x7FFFFFFF;
+    
+    private FrameIO() {}
+    
+    /**
+     * Đọc một dòng (bỏ '\r\n' / '\n'), trả về null khi stream kết thúc
+     */
+    public static String readLine(InputStream in, Charset charset, int maxBytes) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return decodeLine(line.toByteArray(), charset);
+            }
+            line.write(b);
+            if (line.size() > maxBytes) {
+                throw new IOException("Dòng vượt quá " + maxBytes + " bytes");
+            }
+        }
+        return line.size() > 0 ? decodeLine(line.toByteArray(), charset) : null;
+    }
+    
+    private static String decodeLine(byte[] bytes, Charset charset) {
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, charset);
+    }
+    
+    /**
+     * Đọc một frame nhị phân, trả về null khi stream kết thúc đúng ranh giới frame
+     */
+    public static byte[] readFrame(InputStream in, int maxBytes) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        int header = (first << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+        int length = header & LENGTH_MASK;
+        if (length > maxBytes) {
+            throw new IOException("Frame không hợp lệ: " + length + " bytes");
+        }
+        byte[] payload = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(payload, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Stream kết thúc giữa frame");
+            }
+            offset += read;
+        }
+        return isCompressed(header) ? inflate(payload, 0, length, maxBytes) : payload;
+    }
+    
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Stream kết thúc giữa header frame");
+        }
+        return b;
+    }
+    
+    /**
+     * Ghi một frame nhị phân (header + payload, nén nếu đạt ngưỡng) và flush
+     */
+    public static void writeFrame(OutputStream out, byte[] payload, int compressionThreshold) throws IOException {
+        out.write(toFrame(payload, compressionThreshold));
+        out.flush();
+    }
+    
+    /**
+     * Ghép header độ dài và payload thành một mảng để ghi một lần
+     */
+    public static byte[] toFrame(byte[] payload) {
+        return toFrame(payload, NO_COMPRESSION);
+    }
+    
+    /**
+     * Ghép frame, nén deflate khi payload đạt ngưỡng và bản nén thực sự nhỏ hơn
+     */
+    public static byte[] toFrame(byte[] payload, int compressionThreshold) {
+        if (compressionThreshold >= 0 && payload.length >= compressionThreshold) {
+            byte[] compressed = deflate(payload);
+            if (compressed.length < payload.length) {
+                return buildFrame(compressed, compressed.length | COMPRESSED_FLAG);
+            }
+        }
+        return buildFrame(payload, payload.length);
+    }
+    
+    private static byte[] buildFrame(byte[] payload, int header) {
+        byte[] frame = new byte[HEADER_BYTES + payload.length];
+        frame[0] = (byte) (header >>> 24);
+        frame[1] = (byte) (header >>> 16);
+        frame[2] = (byte) (header >>> 8);
+        frame[3] = (byte) header;
+        System.arraycopy(payload, 0, frame, HEADER_BYTES, payload.length);
+        return frame;
+    }
+    
+    /**
+     * Đọc header 4 byte (độ dài + cờ nén) từ mảng
+     */
+    public static int readHeader(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+            | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+    
+    /**
+     * Độ dài payload trên wire trong header
+     */
+    public static int frameLength(int header) {
+        return header & LENGTH_MASK;
+    }
+    
+    public static boolean isCompressed(int header) {
+        return (header & COMPRESSED_FLAG) != 0;
+    }
+    
+    /**
+     * Lấy payload gốc của frame (giải nén nếu header có cờ nén)
+     */
+    public static byte[] decodePayload(int header, byte[] bytes, int offset, int maxBytes) throws IOException {
+        int length = frameLength(header);
+        if (isCompressed(header)) {
+            return inflate(bytes, offset, length, maxBytes);
+        }
+        byte[] payload = new byte[length];
+        System.arraycopy(bytes, offset, payload, 0, length);
+        return payload;
+    }
+    
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private static byte[] inflate(byte[] bytes, int offset, int length, int maxBytes) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length * 4));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Frame nén không đầy đủ");
+                }
+                out.write(buffer, 0, count);
+                // Chặn frame nén bất thường giải nén ra dữ liệu quá lớn
+                if (out.size() > maxBytes) {
+                    throw new IOException("Frame giải nén vượt quá " + maxBytes + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Frame nén không hợp lệ: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
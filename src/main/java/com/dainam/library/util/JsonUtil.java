@@ -0,0 +1,84 @@
+package com.dainam.library.util;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ObjectMapper dùng chung cho toàn ứng dụng cùng các ObjectReader/ObjectWriter đã cache.
+ * ObjectMapper đã cấu hình xong là thread-safe, không cần tạo mới cho mỗi kết nối.
+ * Mapper Smile có cùng cấu hình, dùng cho wire protocol nhị phân.
+ */
+public class JsonUtil {
+    
+    private static final ObjectMapper MAPPER = configure(new ObjectMapper());
+    private static final ObjectMapper SMILE_MAPPER = configure(new SmileMapper());
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> SMILE_READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ObjectWriter> SMILE_WRITERS = new ConcurrentHashMap<>();
+    
+    private JsonUtil() {}
+    
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // Model có các getter dẫn xuất (isAvailable, isAdmin...) nên bỏ qua field lạ khi đọc
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+    
+    /**
+     * Lấy ObjectMapper dùng chung
+     */
+    public static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+    
+    /**
+     * Lấy ObjectReader đã cache cho một kiểu dữ liệu
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+    
+    /**
+     * Lấy ObjectWriter đã cache cho một kiểu dữ liệu
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+    
+    /**
+     * Lấy mapper theo định dạng wire
+     */
+    public static ObjectMapper getMapper(WireFormat format) {
+        return format == WireFormat.SMILE ? SMILE_MAPPER : MAPPER;
+    }
+    
+    /**
+     * Lấy ObjectReader đã cache theo định dạng wire
+     */
+    public static ObjectReader readerFor(Class<?> type, WireFormat format) {
+        if (format == WireFormat.SMILE) {
+            return SMILE_READERS.computeIfAbsent(type, SMILE_MAPPER::readerFor);
+        }
+        return readerFor(type);
+    }
+    
+    /**
+     * Lấy ObjectWriter đã cache theo định dạng wire
+     */
+    public static ObjectWriter writerFor(Class<?> type, WireFormat format) {
+        if (format == WireFormat.SMILE) {
+            return SMILE_WRITERS.computeIfAbsent(type, SMILE_MAPPER::writerFor);
+        }
+        return writerFor(type);
+    }
+}
@@ -20,9 +20,16 @@ public class PasswordUtil {
     }
     
     /**
-     * Kiểm tra mật khẩu
+     * Kiểm tra mật khẩu (chạy trên pool BCrypt của PasswordVerifier)
      */
     public static boolean checkPassword(String plainPassword, String hashedPassword) {
+        return PasswordVerifier.getInstance().verify(plainPassword, hashedPassword);
+    }
+    
+    /**
+     * Kiểm tra mật khẩu ngay trên thread hiện tại
+     */
+    static boolean checkPasswordDirect(String plainPassword, String hashedPassword) {
         if (plainPassword == null || hashedPassword == null) {
             return false;
         }
@@ -0,0 +1,184 @@
+package com.dainam.library.util;
+
+import com.dainam.library.config.AppConfig;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kiểm tra mật khẩu BCrypt trên pool riêng có giới hạn, để một đợt đăng nhập
+ * dồn dập không chiếm hết CPU của các request khác.
+ * Tùy chọn cache các lần kiểm tra thành công trong thời gian ngắn; key là HMAC
+ * (khóa ngẫu nhiên theo tiến trình) của hash đã lưu và mật khẩu, không lưu mật khẩu.
+ */
+public class PasswordVerifier {
+
+    private static PasswordVerifier instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+
+    // Cache kết quả đúng: HMAC -> thời điểm hết hạn
+    private final boolean cacheEnabled;
+    private final long cacheTtlMs;
+    private final int cacheMaxEntries;
+    private final Map<String, Long> verifiedCache = new ConcurrentHashMap<>();
+    private final byte[] cacheKey = new byte[32];
+
+    // Số liệu
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder hashed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    private PasswordVerifier() {
+        int threads = Math.max(1, AppConfig.getInt("auth.bcrypt.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2)));
+        int queueCapacity = Math.max(1, AppConfig.getInt("auth.bcrypt.queue.capacity", 256));
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "bcrypt-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.timeoutMs = Math.max(100, AppConfig.getLong("auth.bcrypt.timeout.ms", 10000));
+        this.cacheEnabled = AppConfig.getBoolean("auth.cache.enabled", false);
+        this.cacheTtlMs = Math.max(0, AppConfig.getLong("auth.cache.ttl.ms", 60000));
+        this.cacheMaxEntries = Math.max(1, AppConfig.getInt("auth.cache.max.entries", 10000));
+        new SecureRandom().nextBytes(cacheKey);
+    }
+
+    public static synchronized PasswordVerifier getInstance() {
+        if (instance == null) {
+            instance = new PasswordVerifier();
+        }
+        return instance;
+    }
+
+    /**
+     * Kiểm tra mật khẩu với hash BCrypt. Ném RejectedExecutionException khi pool
+     * đang quá tải (hàng đợi đầy hoặc chờ quá auth.bcrypt.timeout.ms)
+     */
+    public boolean verify(String plainPassword, String hashedPassword) {
+        if (plainPassword == null || hashedPassword == null) {
+            return false;
+        }
+        verifications.increment();
+
+        String cacheEntry = cacheEnabled ? cacheKeyOf(plainPassword, hashedPassword) : null;
+        if (cacheEntry != null) {
+            Long expiresAt = verifiedCache.get(cacheEntry);
+            if (expiresAt != null && expiresAt > System.currentTimeMillis()) {
+                cacheHits.increment();
+                return true;
+            }
+        }
+
+        long enqueuedAt = System.nanoTime();
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                long waited = startedAt - enqueuedAt;
+                queueWaitNanos.add(waited);
+                maxQueueWaitNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    return PasswordUtil.checkPasswordDirect(plainPassword, hashedPassword);
+                } finally {
+                    hashNanos.add(System.nanoTime() - startedAt);
+                    hashed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new RejectedExecutionException("Hệ thống đang bận xác thực, vui lòng thử lại");
+        }
+
+        boolean valid;
+        try {
+            valid = result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(false);
+            timeouts.increment();
+            throw new RejectedExecutionException("Hệ thống đang bận xác thực, vui lòng thử lại");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LoggerUtil.error("Lỗi kiểm tra mật khẩu: " + e.getCause().getMessage());
+            return false;
+        }
+
+        if (valid && cacheEntry != null) {
+            remember(cacheEntry);
+        }
+        return valid;
+    }
+
+    private void remember(String cacheEntry) {
+        long now = System.currentTimeMillis();
+        if (verifiedCache.size() >= cacheMaxEntries) {
+            verifiedCache.values().removeIf(expiresAt -> expiresAt <= now);
+            if (verifiedCache.size() >= cacheMaxEntries) {
+                verifiedCache.clear();
+            }
+        }
+        verifiedCache.put(cacheEntry, now + cacheTtlMs);
+    }
+
+    private String cacheKeyOf(String plainPassword, String hashedPassword) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            mac.update(hashedPassword.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(plainPassword.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            LoggerUtil.error("Lỗi tạo key cache xác thực: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Số liệu: số lần kiểm tra, cache hit, số lần từ chối/quá hạn, thời gian chờ
+     * trong hàng đợi (trung bình, lớn nhất) và thời gian BCrypt trung bình (ms)
+     */
+    public Map<String, Object> getStats() {
+        long executed = hashed.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("verifications", verifications.sum());
+        stats.put("cacheEnabled", cacheEnabled);
+        stats.put("cacheHits", cacheHits.sum());
+        stats.put("cacheSize", verifiedCache.size());
+        stats.put("rejected", rejected.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("avgQueueWaitMs", executed > 0 ? queueWaitNanos.sum() / executed / 1_000_000.0 : 0.0);
+        stats.put("maxQueueWaitMs", maxQueueWaitNanos.get() / 1_000_000.0);
+        stats.put("avgHashMs", executed > 0 ? hashNanos.sum() / executed / 1_000_000.0 : 0.0);
+        return stats;
+    }
+}
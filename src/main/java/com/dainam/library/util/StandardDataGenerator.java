@@ -1,5 +1,6 @@
 package com.dainam.library.util;
 
+import com.dainam.library.config.AppConfig;
 import com.dainam.library.config.DatabaseConfig;
 import com.dainam.library.model.Book;
 import com.dainam.library.model.BookCopy;
@@ -15,6 +16,13 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Tạo dữ liệu chuẩn cho hệ thống - chỉ có khoa, không có chuyên ngành
@@ -136,6 +144,7 @@ public class StandardDataGenerator {
         try {
             int adminCount = 1;
             int userCount = 1;
+            List<User> users = new ArrayList<>();
             
             for (String[] userData : STANDARD_USERS) {
                 User user = new User();
@@ -167,16 +176,12 @@ public class StandardDataGenerator {
                 user.setTotalBorrowed(0);
                 user.setCurrentBorrowed(0);
                 user.setTotalFines(0.0);
-                
-                boolean success = userService.addUser(user);
-                if (success) {
-                    LoggerUtil.info("Đã tạo user: " + user.getEmail() + " với ID: " + userId);
-                } else {
-                    LoggerUtil.error("Lỗi tạo user: " + user.getEmail());
-                }
+                users.add(user);
             }
             
-            LoggerUtil.info("Đã tạo " + STANDARD_USERS.length + " users chuẩn");
+            // Mật khẩu đã mã hóa ở trên, ghi cả lô một lần
+            long created = userService.addUsers(users);
+            LoggerUtil.info("Đã tạo " + created + "/" + STANDARD_USERS.length + " users chuẩn");
             
         } catch (Exception e) {
             LoggerUtil.error("Lỗi tạo users chuẩn: " + e.getMessage());
@@ -184,6 +189,7 @@ public class StandardDataGenerator {
     }
       private static void createStandardBooks() {
         try {
+            List<Book> books = new ArrayList<>();
             for (String[] bookData : STANDARD_BOOKS) {
                 Book book = new Book();
                 book.setTitle(bookData[0]);
@@ -198,16 +204,12 @@ public class StandardDataGenerator {
                 // book.setLanguage("vi"); // Remove language field to avoid MongoDB text index issues
                 book.setAvailableCopies(random.nextInt(6) + 10); // 10-15 bản sao
                 book.setTotalCopies(book.getAvailableCopies());
-                
-                boolean success = bookService.addBook(book);
-                if (success) {
-                    LoggerUtil.info("Đã tạo sách: " + book.getTitle());
-                } else {
-                    LoggerUtil.error("Lỗi tạo sách: " + book.getTitle());
-                }
+                books.add(book);
             }
             
-            LoggerUtil.info("Đã tạo " + STANDARD_BOOKS.length + " sách chuẩn");
+            // Số lượng đã đặt sẵn, khớp với số bản sao tạo ở createBookCopies
+            long created = bookService.addBooks(books);
+            LoggerUtil.info("Đã tạo " + created + "/" + STANDARD_BOOKS.length + " sách chuẩn");
             
         } catch (Exception e) {
             LoggerUtil.error("Lỗi tạo sách chuẩn: " + e.getMessage());
@@ -222,9 +224,9 @@ public class StandardDataGenerator {
                 return;
             }
             
+            List<BookCopy> copies = new ArrayList<>();
             for (Book book : books) {
                 int totalCopies = book.getTotalCopies(); // Sử dụng số bản sao đã được set (10-15)
-                LoggerUtil.info("Tạo " + totalCopies + " bản sao cho sách: " + book.getTitle());
                 
                 // Tạo bản sao theo số lượng đã định
                 for (int i = 1; i <= totalCopies; i++) {
@@ -240,19 +242,13 @@ public class StandardDataGenerator {
                     // Vị trí ngẫu nhiên
                     copy.setLocation("Tầng " + (random.nextInt(5) + 1) + " - Kệ " + (random.nextInt(30) + 1) + " - Ngăn " + (random.nextInt(10) + 1));
                     copy.setNotes("Bản sao " + i + " của " + book.getTitle());
-                    
-                    boolean success = bookService.addBookCopy(book.getBookId(), copy);
-                    if (success) {
-                        LoggerUtil.info("Đã tạo bản sao " + i + "/" + totalCopies + " cho sách: " + book.getTitle());
-                    } else {
-                        LoggerUtil.error("Lỗi tạo bản sao " + i + " cho sách: " + book.getTitle());
-                    }
+                    copies.add(copy);
                 }
-                
-                LoggerUtil.info("Hoàn thành tạo " + totalCopies + " bản sao cho sách: " + book.getTitle());
             }
             
-            LoggerUtil.info("Đã tạo bản sao cho tất cả " + books.size() + " sách");
+            // Số lượng của sách đã được ghi khi tạo sách nên không cập nhật lại từng bản sao
+            long created = bookService.addBookCopies(copies);
+            LoggerUtil.info("Đã tạo " + created + " bản sao cho " + books.size() + " sách");
             
         } catch (Exception e) {
             LoggerUtil.error("Lỗi tạo bản sao sách: " + e.getMessage());
@@ -369,10 +365,231 @@ public class StandardDataGenerator {
         }
     }
     
+    /**
+     * Sinh dữ liệu tổng hợp lớn để thử tải (mặc định 1M sách, 10M bản ghi mượn).
+     * Xóa các collection, nạp song song theo từng khoảng id bằng bulkWrite, sau đó mới tạo index
+     * (tạo index một lần sau khi nạp nhanh hơn cập nhật index theo từng lô).
+     * Bản ghi mượn được sinh trước để biết bản sao nào đang mượn, từ đó số lượng của sách,
+     * trạng thái bản sao và số sách đang mượn của user khớp với nhau.
+     */
+    public static void generateSyntheticData(int userCount, int bookCount, long recordCount) {
+        long start = System.currentTimeMillis();
+        int copiesPerBook = Math.max(1, AppConfig.getInt("seed.synthetic.copies.per.book", 3));
+        int batchSize = BulkWriter.defaultBatchSize();
+        LoggerUtil.info("Bắt đầu sinh dữ liệu tổng hợp: " + userCount + " users, " + bookCount + " sách x "
+            + copiesPerBook + " bản sao, " + recordCount + " bản ghi mượn");
+        
+        dropAllData();
+        
+        // Bản sao đầu tiên của sách b đang được mượn; chỉ bản ghi r == b ghi vào phần tử b
+        boolean[] firstCopyBorrowed = new boolean[bookCount];
+        AtomicIntegerArray currentBorrowed = new AtomicIntegerArray(userCount);
+        AtomicIntegerArray totalBorrowed = new AtomicIntegerArray(userCount);
+        
+        runProducers("bản ghi mượn", recordCount, (from, to) -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            List<BorrowRecord> batch = new ArrayList<>(batchSize);
+            for (long r = from; r < to; r++) {
+                int book = (int) (r % bookCount);
+                int user = (int) ((r * 7919) % userCount);
+                // Một phần mười số sách có bản sao đầu đang được mượn, tối đa 5 quyển mỗi user
+                boolean active = r < bookCount && book % 10 == 0 && reserveBorrow(currentBorrowed, user, 5);
+                totalBorrowed.incrementAndGet(user);
+                
+                BorrowRecord record = new BorrowRecord();
+                record.setRecordId(String.format("SREC%09d", r));
+                record.setUserId(syntheticUserId(user));
+                record.setBookId(syntheticBookId(book));
+                if (active) {
+                    firstCopyBorrowed[book] = true;
+                    record.setCopyId(syntheticCopyId(book, 0));
+                    record.setBorrowDate(LocalDate.now().minusDays(rnd.nextInt(14)));
+                    record.setExpectedReturnDate(record.getBorrowDate().plusDays(14));
+                    record.setStatus(BorrowRecord.Status.BORROWED);
+                } else {
+                    record.setCopyId(syntheticCopyId(book, (int) ((r / bookCount) % copiesPerBook)));
+                    record.setBorrowDate(LocalDate.now().minusDays(15 + rnd.nextInt(730)));
+                    record.setExpectedReturnDate(record.getBorrowDate().plusDays(14));
+                    record.setActualReturnDate(record.getBorrowDate().plusDays(1 + rnd.nextInt(14)));
+                    record.setStatus(BorrowRecord.Status.RETURNED);
+                }
+                record.setCreatedAt(record.getBorrowDate());
+                batch.add(record);
+                if (batch.size() >= batchSize) {
+                    borrowService.addBorrowRecords(batch);
+                    batch.clear();
+                }
+            }
+            borrowService.addBorrowRecords(batch);
+        });
+        
+        String[] categories = { "Công nghệ thông tin", "Kinh tế", "Y học", "Kỹ thuật", "Khoa học tự nhiên", "Nghệ thuật" };
+        runProducers("sách", bookCount, (from, to) -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            List<Book> books = new ArrayList<>(batchSize);
+            List<BookCopy> copies = new ArrayList<>(batchSize * copiesPerBook);
+            for (int b = (int) from; b < to; b++) {
+                Book book = new Book();
+                book.setBookId(syntheticBookId(b));
+                book.setTitle("Sách tổng hợp " + b);
+                book.setAuthor("Tác giả " + rnd.nextInt(5000));
+                book.setIsbn(String.format("979%010d", b));
+                book.setPublicationYear(1990 + rnd.nextInt(35));
+                book.setCategory(categories[b % categories.length]);
+                book.setDescription("Dữ liệu tổng hợp để thử tải");
+                book.setPageCount(100 + rnd.nextInt(900));
+                book.setPrice(50000 + rnd.nextInt(450) * 1000);
+                book.setPublisher("NXB Tổng hợp");
+                book.setTotalCopies(copiesPerBook);
+                book.setAvailableCopies(copiesPerBook - (firstCopyBorrowed[b] ? 1 : 0));
+                books.add(book);
+                
+                for (int i = 0; i < copiesPerBook; i++) {
+                    BookCopy copy = new BookCopy();
+                    copy.setBookId(book.getBookId());
+                    copy.setCopyId(syntheticCopyId(b, i));
+                    copy.setStatus(i == 0 && firstCopyBorrowed[b] ? BookCopy.Status.BORROWED : BookCopy.Status.AVAILABLE);
+                    copy.setCondition(BookCopy.Condition.GOOD);
+                    copy.setLocation("Tầng " + (b % 5 + 1) + " - Kệ " + (b % 30 + 1));
+                    copies.add(copy);
+                }
+                if (books.size() >= batchSize) {
+                    bookService.addBooks(books);
+                    bookService.addBookCopies(copies);
+                    books.clear();
+                    copies.clear();
+                }
+            }
+            bookService.addBooks(books);
+            bookService.addBookCopies(copies);
+        });
+        
+        // Dùng chung một hash: BCrypt cho từng user tổng hợp sẽ chiếm phần lớn thời gian nạp
+        String passwordHash = PasswordUtil.hashPassword("synthetic123");
+        runProducers("user", userCount, (from, to) -> {
+            List<User> users = new ArrayList<>(batchSize);
+            for (int u = (int) from; u < to; u++) {
+                User user = new User();
+                user.setUserId(syntheticUserId(u));
+                user.setEmail(String.format("synthetic%06d@dnu.edu.vn", u));
+                user.setPassword(passwordHash);
+                user.setFirstName("User");
+                user.setLastName("Synthetic " + u);
+                user.setFullName("Synthetic User " + u);
+                user.setRole(User.Role.USER);
+                user.setStatus(User.Status.ACTIVE);
+                user.setStudentId(String.format("S%09d", u));
+                user.setFaculty(categories[u % categories.length]);
+                user.setRegistrationDate(LocalDate.now().minusDays(u % 365));
+                user.setCurrentBorrowed(currentBorrowed.get(u));
+                user.setTotalBorrowed(totalBorrowed.get(u));
+                user.setTotalFines(0.0);
+                users.add(user);
+                if (users.size() >= batchSize) {
+                    userService.addUsers(users);
+                    users.clear();
+                }
+            }
+            userService.addUsers(users);
+        });
+        
+        DatabaseConfig.createIndexes();
+        LoggerUtil.info("Hoàn thành sinh dữ liệu tổng hợp trong " + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+    
+    private static String syntheticUserId(int user) {
+        return String.format("SUSER%06d", user);
+    }
+    
+    private static String syntheticBookId(int book) {
+        return String.format("SBOOK%07d", book);
+    }
+    
+    private static String syntheticCopyId(int book, int copy) {
+        return syntheticBookId(book) + "_" + String.format("%02d", copy);
+    }
+    
+    private static boolean reserveBorrow(AtomicIntegerArray currentBorrowed, int user, int limit) {
+        while (true) {
+            int current = currentBorrowed.get(user);
+            if (current >= limit) {
+                return false;
+            }
+            if (currentBorrowed.compareAndSet(user, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Xóa hẳn các collection (nhanh hơn deleteMany trên hàng triệu document); index tạo lại sau khi nạp
+     */
+    private static void dropAllData() {
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS).drop();
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOKS).drop();
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOK_COPIES).drop();
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BORROW_RECORDS).drop();
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_FINES).drop();
+        LoggerUtil.info("Đã xóa các collection dữ liệu");
+    }
+    
+    /**
+     * Chia [0, total) thành seed.producers khoảng, mỗi khoảng sinh và ghi trên một thread
+     */
+    private static void runProducers(String label, long total, RangeTask task) {
+        long start = System.currentTimeMillis();
+        int producers = (int) Math.max(1, Math.min(total, AppConfig.getInt("seed.producers", 4)));
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(producers, runnable -> {
+            Thread thread = new Thread(runnable, "seed-producer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long chunk = (total + producers - 1) / producers;
+            List<Future<?>> futures = new ArrayList<>();
+            for (long from = 0; from < total; from += chunk) {
+                long rangeStart = from;
+                long rangeEnd = Math.min(total, from + chunk);
+                futures.add(pool.submit(() -> task.run(rangeStart, rangeEnd)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            LoggerUtil.info("Đã nạp " + total + " " + label + " trong " + elapsed + " ms ("
+                + (total * 1000 / elapsed) + "/s, " + producers + " producer)");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LoggerUtil.error("Bị ngắt khi nạp " + label);
+        } catch (ExecutionException e) {
+            LoggerUtil.error("Lỗi nạp " + label + ": " + e.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Sinh và ghi dữ liệu cho khoảng [from, to)
+     */
+    private interface RangeTask {
+        void run(long from, long to);
+    }
+    
+    /**
+     * Không tham số: dữ liệu chuẩn. "synthetic [sách] [bản ghi mượn] [user]": dữ liệu tổng hợp lớn
+     */
     public static void main(String[] args) {
         try {
             DatabaseConfig.initializeWithoutSampleData();
-            generateStandardData();
+            if (args.length > 0 && "synthetic".equalsIgnoreCase(args[0])) {
+                int books = args.length > 1 ? Integer.parseInt(args[1]) : AppConfig.getInt("seed.synthetic.books", 1000000);
+                long records = args.length > 2 ? Long.parseLong(args[2]) : AppConfig.getLong("seed.synthetic.borrow.records", 10000000L);
+                int users = args.length > 3 ? Integer.parseInt(args[3]) : AppConfig.getInt("seed.synthetic.users", 10000);
+                generateSyntheticData(Math.max(1, users), Math.max(1, books), Math.max(0, records));
+            } else {
+                generateStandardData();
+            }
         } catch (Exception e) {
             LoggerUtil.error("Lỗi khởi tạo: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,37 @@
+package com.dainam.library.util;
+
+/**
+ * Định dạng dữ liệu trên đường truyền giữa client và server.
+ * JSON: mỗi message một dòng text kết thúc bằng '\n' (mặc định, tương thích client cũ).
+ * SMILE: JSON nhị phân của Jackson, mỗi frame có 4 byte độ dài (big-endian) phía trước.
+ */
+public enum WireFormat {
+    JSON("json"),
+    SMILE("smile");
+    
+    private final String id;
+    
+    WireFormat(String id) {
+        this.id = id;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public boolean isBinary() {
+        return this != JSON;
+    }
+    
+    /**
+     * Tìm định dạng theo tên trong handshake, null nếu không hỗ trợ
+     */
+    public static WireFormat fromId(String id) {
+        for (WireFormat format : values()) {
+            if (format.id.equalsIgnoreCase(id)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
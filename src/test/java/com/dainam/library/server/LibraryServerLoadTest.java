@@ -0,0 +1,302 @@
+package com.dainam.library.server;
+
+import com.dainam.library.support.LatencyStats;
+import com.dainam.library.support.MongoTestSupport;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Vòng tải qua socket thật tới LibraryServer (transport blocking, line JSON).
+ * Tăng dần số client giữ kết nối đồng thời vượt server.max.clients: chế độ platform chỉ
+ * phục vụ đủ kích thước thread pool (client còn lại không nhận được response), chế độ virtual
+ * phục vụ mọi kết nối; client được phục vụ phải giữ p99 dưới ngưỡng.
+ * Chế độ virtual bị bỏ qua trên JVM chưa có virtual thread. Cần MongoDB (bỏ qua nếu không có).
+ */
+@Tag("benchmark")
+class LibraryServerLoadTest {
+
+    private static final int MAX_CLIENTS = 16;
+    private static final int[] CLIENT_STEPS = { MAX_CLIENTS / 2, MAX_CLIENTS, MAX_CLIENTS * 2, MAX_CLIENTS * 4 };
+    private static final int REQUESTS_PER_CLIENT = 20;
+    // Client chưa được phục vụ sau thời gian này coi như không được nhận
+    private static final int FIRST_RESPONSE_TIMEOUT_MS = 3_000;
+    private static final double P99_LIMIT_MS = 1_000;
+    private static final double CONNECT_P99_LIMIT_MS = 200;
+    private static final String PING = "{\"action\":\"ping\"}";
+    private static final String GET_BOOKS = "{\"action\":\"getBooks\",\"data\":{\"page\":1,\"size\":20}}";
+
+    private static final Map<LibraryServer.ExecutionMode, LibraryServer> servers =
+        new EnumMap<>(LibraryServer.ExecutionMode.class);
+    private static final Map<LibraryServer.ExecutionMode, Integer> ports =
+        new EnumMap<>(LibraryServer.ExecutionMode.class);
+
+    @BeforeAll
+    static void configure() {
+        MongoTestSupport.assumeMongoAvailable();
+        System.setProperty("server.max.clients", String.valueOf(MAX_CLIENTS));
+        // Đo giới hạn của mô hình thread, không đo giới hạn tốc độ/admission
+        System.setProperty("server.ratelimit.enabled", "false");
+        System.setProperty("server.admission.max.concurrent", "1024");
+        System.setProperty("server.drain.timeout.ms", "1000");
+        System.setProperty("server.drain.reconnect.delay.ms", "0");
+        System.setProperty("server.drain.reconnect.jitter.ms", "0");
+    }
+
+    @AfterAll
+    static void stopServers() {
+        for (LibraryServer server : servers.values()) {
+            server.stop();
+        }
+        servers.clear();
+        ports.clear();
+    }
+
+    @Test
+    void platformServesOnlyPoolSizeClients() throws Exception {
+        int port = serverPort(LibraryServer.ExecutionMode.PLATFORM);
+        for (int clients : CLIENT_STEPS) {
+            StepResult result = runStep(port, clients);
+            assertEquals(Math.min(clients, MAX_CLIENTS), result.accepted,
+                "Số client được phục vụ với " + clients + " kết nối");
+            assertP99(result, clients);
+        }
+    }
+
+    @Test
+    void virtualServesClientsPastMaxClients() throws Exception {
+        assumeTrue(virtualThreadsAvailable(), "JVM chưa hỗ trợ virtual thread");
+        int port = serverPort(LibraryServer.ExecutionMode.VIRTUAL);
+        for (int clients : CLIENT_STEPS) {
+            StepResult result = runStep(port, clients);
+            assertEquals(clients, result.accepted, "Số client được phục vụ với " + clients + " kết nối");
+            assertP99(result, clients);
+        }
+    }
+
+    /**
+     * Thời gian từ lúc mở kết nối tới response đầu tiên (ping): gồm accept, tạo ClientHandler
+     * trên worker thread (service dùng chung từ ServiceRegistry) và một vòng request
+     */
+    @Test
+    void connectToFirstResponse() throws Exception {
+        int port = serverPort(LibraryServer.ExecutionMode.PLATFORM);
+        LatencyStats stats = new LatencyStats();
+        int warmup = 20;
+        int connections = 200;
+        for (int i = 0; i < warmup + connections; i++) {
+            if (i == warmup) {
+                stats.reset();
+            }
+            long begin = System.nanoTime();
+            try (TestClient client = new TestClient(port)) {
+                String response = client.request(PING);
+                stats.record(System.nanoTime() - begin);
+                assertSuccess(response);
+            }
+        }
+        stats.finish();
+        double p99 = stats.percentileMs(99);
+        assertTrue(p99 <= CONNECT_P99_LIMIT_MS, "p99 connect + ping: " + p99 + " ms");
+    }
+
+    private static void assertP99(StepResult result, int clients) {
+        assertEquals(result.accepted * REQUESTS_PER_CLIENT, result.stats.count());
+        double p99 = result.stats.percentileMs(99);
+        assertTrue(p99 <= P99_LIMIT_MS, "p99 getBooks với " + clients + " kết nối: " + p99 + " ms");
+    }
+
+    private static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Mở clients kết nối và giữ tới hết bước; kết nối nhận được ping trong
+     * FIRST_RESPONSE_TIMEOUT_MS được coi là được phục vụ và gửi tuần tự REQUESTS_PER_CLIENT getBooks
+     */
+    private static StepResult runStep(int port, int clients) throws Exception {
+        List<TestClient> connected = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < clients; i++) {
+                connected.add(new TestClient(port));
+            }
+            List<Future<Boolean>> pings = new ArrayList<>();
+            for (TestClient client : connected) {
+                pings.add(pool.submit(() -> isSuccess(client.request(PING, FIRST_RESPONSE_TIMEOUT_MS))));
+            }
+            List<TestClient> accepted = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                if (pings.get(i).get(FIRST_RESPONSE_TIMEOUT_MS * 2L, TimeUnit.MILLISECONDS)) {
+                    accepted.add(connected.get(i));
+                }
+            }
+
+            LatencyStats stats = new LatencyStats();
+            List<Future<?>> futures = new ArrayList<>();
+            for (TestClient client : accepted) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+                        long begin = System.nanoTime();
+                        String response = client.request(GET_BOOKS);
+                        stats.record(System.nanoTime() - begin);
+                        assertSuccess(response);
+                    }
+                    return null;
+                }));
+            }
+            stats.reset();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(120, TimeUnit.SECONDS);
+            }
+            stats.finish();
+            return new StepResult(accepted.size(), stats);
+        } finally {
+            start.countDown();
+            pool.shutdownNow();
+            for (TestClient client : connected) {
+                client.close();
+            }
+        }
+    }
+
+    private static final class StepResult {
+
+        final int accepted;
+        final LatencyStats stats;
+
+        StepResult(int accepted, LatencyStats stats) {
+            this.accepted = accepted;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Port của server chạy ở mode đã cho; khởi động server ở lần gọi đầu.
+     * Server được giữ tới cuối class vì stop() đặt AdmissionController dùng chung vào trạng thái drain.
+     */
+    static synchronized int serverPort(LibraryServer.ExecutionMode mode) throws Exception {
+        Integer existing = ports.get(mode);
+        if (existing != null) {
+            return existing;
+        }
+        int port = freePort();
+        System.setProperty("server.port", String.valueOf(port));
+        System.setProperty("server.execution.mode", mode.name());
+        LibraryServer server = new LibraryServer();
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Không khởi động được server: " + e.getMessage());
+            }
+        }, "load-test-server-" + mode);
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!server.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(server.isRunning(), "Server " + mode + " không khởi động");
+        servers.put(mode, server);
+        ports.put(mode, port);
+        return port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static void assertSuccess(String response) {
+        assertTrue(isSuccess(response), "Response lỗi: " + response);
+    }
+
+    static boolean isSuccess(String response) {
+        return response != null && response.contains("\"success\":true");
+    }
+
+    /**
+     * Client line JSON tối giản: gửi một request và đọc tới dòng response đầu tiên,
+     * bỏ qua heartbeat (dòng rỗng) và broadcast
+     */
+    static final class TestClient implements AutoCloseable {
+
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+
+        TestClient(int port) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("localhost", port), 5000);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        String request(String json) throws IOException {
+            return request(json, 30_000);
+        }
+
+        /**
+         * null nếu không có response trong timeoutMs
+         */
+        String request(String json, int timeoutMs) throws IOException {
+            socket.setSoTimeout(timeoutMs);
+            writer.write(json);
+            writer.write('\n');
+            writer.flush();
+            String line;
+            try {
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains("\"success\"")) {
+                        return line;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.dainam.library.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ghi không chặn người gửi, giới hạn byte chờ ghi và đóng kết nối khi lần ghi đang kẹt
+ * ở một client không đọc. Không cần MongoDB.
+ */
+class SocketClientConnectionTest {
+
+    // Lớn hơn giới hạn chờ ghi mặc định cộng buffer socket của loopback
+    private static final int MESSAGES = 256;
+    private static final String MESSAGE = "x".repeat(256 * 1024);
+
+    private ServerSocket listener;
+    private Socket client;
+    private SocketClientConnection connection;
+
+    @BeforeEach
+    void connect() throws Exception {
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        connection = new SocketClientConnection(listener.accept());
+    }
+
+    @AfterEach
+    void disconnect() throws Exception {
+        connection.close();
+        client.close();
+        listener.close();
+    }
+
+    @Test
+    void closeBreaksWriteStuckOnClientThatDoesNotRead() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < MESSAGES; i++) {
+                connection.send(MESSAGE);
+            }
+            assertFalse(connection.isWritable(), "Vượt giới hạn chờ ghi phải báo đầy");
+            connection.close();
+            assertTrue(connection.isWritable());
+            assertFalse(connection.hasPendingWrites());
+        });
+    }
+
+    @Test
+    void notifiesWhenClientCatchesUp() throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            connection.send(MESSAGE);
+        }
+        assertFalse(connection.isWritable());
+        // Đăng ký sau khi đã đầy: trong lúc gửi, kết nối có thể đã hết đầy rồi đầy lại
+        CountDownLatch writable = new CountDownLatch(1);
+        connection.setWritableListener(writable::countDown);
+
+        long expected = (long) MESSAGES * (MESSAGE.length() + 1);
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            long read = 0;
+            try (InputStream in = client.getInputStream()) {
+                int n;
+                while (read < expected && (n = in.read(buffer)) > 0) {
+                    read += n;
+                }
+            } catch (Exception e) {
+                // Socket bị đóng khi test kết thúc
+            }
+        });
+        reader.start();
+
+        assertTrue(writable.await(10, TimeUnit.SECONDS), "Client đọc bớt phải gọi listener");
+        assertTrue(connection.isWritable());
+        reader.join(10_000);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (connection.hasPendingWrites() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(connection.hasPendingWrites());
+    }
+}
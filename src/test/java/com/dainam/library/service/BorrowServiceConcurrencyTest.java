@@ -0,0 +1,260 @@
+package com.dainam.library.service;
+
+import com.dainam.library.config.DatabaseConfig;
+import com.dainam.library.model.Book;
+import com.dainam.library.model.BookCopy;
+import com.dainam.library.model.BorrowRecord;
+import com.dainam.library.model.User;
+import com.dainam.library.support.LatencyStats;
+import com.dainam.library.support.MongoTestSupport;
+import com.mongodb.client.model.Filters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mượn/trả đồng thời trên cùng một bản sao: không cho mượn trùng, bộ đếm $inc không lệch.
+ * Cần MongoDB (bỏ qua nếu không có); chạy trên database test riêng.
+ */
+class BorrowServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+
+    private static BookService bookService;
+    private static UserService userService;
+    private static BorrowService borrowService;
+
+    private final List<String> userIds = new ArrayList<>();
+    private final List<String> bookIds = new ArrayList<>();
+    private String bookId;
+    private String copyId;
+
+    @BeforeAll
+    static void setUpServices() {
+        MongoTestSupport.assumeMongoAvailable();
+        bookService = new BookService();
+        userService = new UserService();
+        borrowService = new BorrowService(bookService, userService, new FineService());
+    }
+
+    @BeforeEach
+    void createBookWithOneCopy() {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        bookId = "test_book_" + suffix;
+        copyId = "test_copy_" + suffix;
+        addBook(bookId, List.of(copyId));
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            String userId = "test_user_" + suffix + "_" + i;
+            User user = new User(userId, userId + "@test.local", "x", "Test", "User " + i);
+            user.setStatus(User.Status.ACTIVE);
+            users.add(user);
+            userIds.add(userId);
+        }
+        assertEquals(THREADS, userService.addUsers(users));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        if (bookIds.isEmpty()) {
+            return;
+        }
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BORROW_RECORDS).deleteMany(Filters.in("bookId", bookIds));
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOK_COPIES).deleteMany(Filters.in("bookId", bookIds));
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOKS).deleteMany(Filters.in("bookId", bookIds));
+        DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_USERS).deleteMany(Filters.in("userId", userIds));
+    }
+
+    private void addBook(String id, List<String> copyIds) {
+        Book book = new Book(id, "Sách kiểm thử " + id, "Tác giả", randomIsbn());
+        book.setPublisher("NXB Kiểm thử");
+        book.setPublicationYear(2020);
+        book.setPrice(100000);
+        book.setTotalCopies(copyIds.size());
+        book.setAvailableCopies(copyIds.size());
+        assertEquals(1, bookService.addBooks(List.of(book)));
+        bookIds.add(id);
+        List<BookCopy> copies = new ArrayList<>();
+        for (String copy : copyIds) {
+            copies.add(new BookCopy(copy, id));
+        }
+        assertEquals(copyIds.size(), bookService.addBookCopies(copies));
+    }
+
+    @Test
+    void concurrentBorrowsOfOneCopyLendItOnce() throws Exception {
+        List<BorrowRecord> borrowed = runConcurrently(THREADS, i -> {
+            try {
+                return borrowService.borrowBook(userIds.get(i), bookId, copyId);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        });
+
+        assertEquals(1, borrowed.size(), "Chỉ đúng một lần mượn được thành công");
+        assertEquals(0, bookService.getBookById(bookId).getAvailableCopies(), "availableCopies chỉ giảm một lần");
+        assertEquals(BookCopy.Status.BORROWED, bookService.getBookCopyById(copyId).getStatus());
+        assertEquals(1, DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BORROW_RECORDS)
+            .countDocuments(Filters.eq("copyId", copyId)));
+
+        BorrowRecord record = borrowed.get(0);
+        User borrower = userService.getUserById(record.getUserId());
+        assertEquals(1, borrower.getCurrentBorrowed());
+        assertEquals(1, borrower.getTotalBorrowed());
+    }
+
+    @Test
+    void concurrentBorrowsByOneUserStopAtLimit() throws Exception {
+        // Mỗi thread mượn một sách khác nhau cho cùng một user: chỉ 5 lần được thành công
+        List<String[]> targets = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            String id = bookId + "_limit_" + i;
+            addBook(id, List.of(id + "_copy"));
+            targets.add(new String[] { id, id + "_copy" });
+        }
+        String userId = userIds.get(0);
+
+        List<BorrowRecord> borrowed = runConcurrently(THREADS, i -> {
+            try {
+                return borrowService.borrowBook(userId, targets.get(i)[0], targets.get(i)[1]);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        });
+
+        assertEquals(5, borrowed.size(), "Chỉ được mượn tối đa 5 quyển");
+        assertEquals(5, borrowService.getCurrentBorrows(userId).size());
+        assertEquals(5, userService.getUserById(userId).getCurrentBorrowed());
+        long available = DatabaseConfig.getCollection(DatabaseConfig.COLLECTION_BOOK_COPIES).countDocuments(
+            Filters.and(Filters.in("bookId", bookIds), Filters.eq("status", BookCopy.Status.AVAILABLE.name())));
+        assertEquals(bookIds.size() - 5, available, "Bản sao của lần mượn bị từ chối phải được hoàn tác");
+    }
+
+    @Test
+    void concurrentBorrowsOfOneTitleByOneUserLendItOnce() throws Exception {
+        // Nhiều bản sao của cùng một sách, cùng một user mượn song song
+        String title = bookId + "_title";
+        List<String> copies = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            copies.add(title + "_copy_" + i);
+        }
+        addBook(title, copies);
+        String userId = userIds.get(0);
+
+        List<BorrowRecord> borrowed = runConcurrently(copies.size(), i -> {
+            try {
+                return borrowService.borrowBook(userId, title, copies.get(i));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        });
+
+        assertEquals(1, borrowed.size(), "Một user chỉ mượn một bản sao của mỗi sách");
+        assertEquals(copies.size() - 1, bookService.getBookById(title).getAvailableCopies());
+        assertEquals(1, userService.getUserById(userId).getCurrentBorrowed());
+    }
+
+    @Test
+    void concurrentReturnsOfOneRecordReleaseItOnce() throws Exception {
+        BorrowRecord record = borrowService.borrowBook(userIds.get(0), bookId, copyId);
+        assertNotNull(record);
+
+        List<Boolean> returned = runConcurrently(THREADS, i -> borrowService.returnBook(record.getRecordId()) ? true : null);
+
+        assertEquals(1, returned.size(), "Chỉ đúng một lần trả được thành công");
+        assertEquals(1, bookService.getBookById(bookId).getAvailableCopies());
+        assertEquals(BookCopy.Status.AVAILABLE, bookService.getBookCopyById(copyId).getStatus());
+        User borrower = userService.getUserById(userIds.get(0));
+        assertEquals(0, borrower.getCurrentBorrowed());
+        assertEquals(1, borrower.getTotalBorrowed());
+    }
+
+    /**
+     * Đo độ trễ borrowBook (và returnBook để bản sao sẵn sàng cho vòng sau) trên một bản sao;
+     * kết quả được ghi vào báo cáo test qua TestReporter
+     */
+    @Test
+    @Tag("benchmark")
+    void borrowLatency(TestReporter reporter) {
+        LatencyStats borrowStats = new LatencyStats();
+        LatencyStats returnStats = new LatencyStats();
+        int warmup = 20;
+        int iterations = 200;
+        for (int i = 0; i < warmup + iterations; i++) {
+            if (i == warmup) {
+                borrowStats.reset();
+                returnStats.reset();
+            }
+            long start = System.nanoTime();
+            BorrowRecord record = borrowService.borrowBook(userIds.get(0), bookId, copyId);
+            long borrowed = System.nanoTime();
+            assertTrue(borrowService.returnBook(record.getRecordId()));
+            long returned = System.nanoTime();
+            borrowStats.record(borrowed - start);
+            returnStats.record(returned - borrowed);
+        }
+        borrowStats.finish();
+        returnStats.finish();
+        reporter.publishEntry("borrow", borrowStats.summary("borrowBook (transactions="
+            + borrowService.getBorrowStats().get("transactions") + ")"));
+        reporter.publishEntry("return", returnStats.summary("returnBook"));
+    }
+
+    /**
+     * Chạy task(i) trên n thread cùng xuất phát; trả về các kết quả khác null
+     */
+    private static <T> List<T> runConcurrently(int n, IndexedTask<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int index = i;
+                Callable<T> call = () -> {
+                    start.await();
+                    return task.run(index);
+                };
+                futures.add(pool.submit(call));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                T result = future.get(60, TimeUnit.SECONDS);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String randomIsbn() {
+        return "978" + String.format("%010d", ThreadLocalRandom.current().nextLong(10_000_000_000L));
+    }
+
+    @FunctionalInterface
+    private interface IndexedTask<T> {
+        T run(int index) throws Exception;
+    }
+}
@@ -0,0 +1,75 @@
+package com.dainam.library.support;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Gom thời gian từng thao tác (nano giây) của một vòng tải và tính phân vị.
+ * Thread-safe để nhiều thread cùng ghi.
+ */
+public final class LatencyStats {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+    private long startedAt = System.nanoTime();
+    private long finishedAt;
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    /**
+     * Bắt đầu đo lại thông lượng (bỏ qua giai đoạn khởi động)
+     */
+    public synchronized void reset() {
+        count = 0;
+        startedAt = System.nanoTime();
+        finishedAt = 0;
+    }
+
+    public synchronized void finish() {
+        finishedAt = System.nanoTime();
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Phân vị theo mili giây (p trong khoảng 0-100)
+     */
+    public synchronized double percentileMs(double p) {
+        if (count == 0) {
+            return 0.0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1_000_000.0;
+    }
+
+    public synchronized double averageMs() {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += samples[i];
+        }
+        return count > 0 ? total / (double) count / 1_000_000.0 : 0.0;
+    }
+
+    /**
+     * Số thao tác mỗi giây tính từ lúc reset tới finish
+     */
+    public synchronized double throughputPerSecond() {
+        long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+        double seconds = (end - startedAt) / 1_000_000_000.0;
+        return seconds > 0 ? count / seconds : 0.0;
+    }
+
+    public synchronized String summary(String label) {
+        return String.format(Locale.ROOT, "%s: n=%d, %.0f ops/s, avg=%.3f ms, p50=%.3f ms, p99=%.3f ms, max=%.3f ms",
+            label, count, throughputPerSecond(), averageMs(), percentileMs(50), percentileMs(99), percentileMs(100));
+    }
+}
@@ -0,0 +1,60 @@
+package com.dainam.library.support;
+
+import com.dainam.library.config.AppConfig;
+import com.dainam.library.config.DatabaseConfig;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Chuẩn bị MongoDB cho test cần database thật.
+ * Test dùng database riêng (mặc định library_management_test, đổi bằng -Dmongodb.database.name)
+ * và được bỏ qua (không fail) khi không kết nối được MongoDB.
+ */
+public final class MongoTestSupport {
+
+    public static final String TEST_DATABASE = "library_management_test";
+
+    private static Boolean available;
+
+    private MongoTestSupport() {}
+
+    /**
+     * Bỏ qua test nếu không có MongoDB; lần đầu gọi thì kết nối DatabaseConfig tới database test
+     */
+    public static synchronized void assumeMongoAvailable() {
+        if (available == null) {
+            if (System.getProperty("mongodb.database.name") == null) {
+                System.setProperty("mongodb.database.name", TEST_DATABASE);
+            }
+            available = ping();
+            if (available) {
+                DatabaseConfig.initializeWithoutSampleData();
+            }
+        }
+        assumeTrue(available, "Không kết nối được MongoDB, bỏ qua test");
+    }
+
+    /**
+     * Thử ping server với timeout ngắn, trước khi DatabaseConfig tạo index (mỗi lệnh chờ server selection)
+     */
+    private static boolean ping() {
+        String uri = AppConfig.getString("mongodb.connection.string", "mongodb://localhost:27017");
+        MongoClientSettings settings = MongoClientSettings.builder()
+            .applyConnectionString(new ConnectionString(uri))
+            .applyToClusterSettings(cluster -> cluster.serverSelectionTimeout(2, TimeUnit.SECONDS))
+            .build();
+        try (MongoClient client = MongoClients.create(settings)) {
+            client.getDatabase("admin").runCommand(new Document("ping", 1));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
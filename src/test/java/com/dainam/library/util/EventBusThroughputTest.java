@@ -0,0 +1,130 @@
+package com.dainam.library.util;
+
+import com.dainam.library.support.LatencyStats;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * So sánh thời gian publish của EventBus chế độ sync và async khi listener tốn thời gian
+ * (giả lập ghi socket/cập nhật giao diện). Mỗi publisher phát một đợt vào event type riêng,
+ * đợt nằm trong sức chứa hàng đợi nên publisher async không bị chặn; khi phát liên tục
+ * nhanh hơn listener thì backpressure BLOCK làm publisher chờ như sync.
+ * Chế độ async phải giữ đúng thứ tự trong từng event type. Kết quả đo được ghi vào báo cáo
+ * test qua TestReporter.
+ */
+class EventBusThroughputTest {
+
+    private static final int PUBLISHERS = 4;
+    private static final int EVENTS_PER_PUBLISHER = 1_000;
+    private static final long LISTENER_WORK_NANOS = 20_000;
+
+    @Test
+    void asyncDeliversEveryEventInOrderPerType() throws Exception {
+        EventBus async = new EventBus(EventBus.Mode.ASYNC, EventBus.Backpressure.BLOCK, 64, 1000, PUBLISHERS);
+        Run run = run(async, 0);
+        assertTrue(run.delivered, "Listener chưa nhận đủ sự kiện");
+        assertEquals(0, run.outOfOrder, "Sự kiện cùng event type bị đảo thứ tự");
+        assertEquals(0L, async.getStats().get("dropped"));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void syncVersusAsyncPublish(TestReporter reporter) throws Exception {
+        EventBus sync = new EventBus(EventBus.Mode.SYNC, EventBus.Backpressure.BLOCK, 1024, 1000, PUBLISHERS);
+        EventBus async = new EventBus(EventBus.Mode.ASYNC, EventBus.Backpressure.BLOCK, 1024, 1000, PUBLISHERS);
+
+        Run syncRun = run(sync, LISTENER_WORK_NANOS);
+        Run asyncRun = run(async, LISTENER_WORK_NANOS);
+
+        reporter.publishEntry("sync", syncRun.stats.summary("publish, SYNC")
+            + ", giao đủ sau " + syncRun.deliveredMs + " ms");
+        reporter.publishEntry("async", asyncRun.stats.summary("publish, ASYNC " + async.getStats())
+            + ", giao đủ sau " + asyncRun.deliveredMs + " ms");
+    }
+
+    /**
+     * PUBLISHERS thread cùng phát, mỗi thread EVENTS_PER_PUBLISHER sự kiện tăng dần vào
+     * event type riêng; listener kiểm tra thứ tự và giả lập listenerWorkNanos xử lý
+     */
+    private static Run run(EventBus bus, long listenerWorkNanos) throws Exception {
+        int total = PUBLISHERS * EVENTS_PER_PUBLISHER;
+        CountDownLatch delivered = new CountDownLatch(total);
+        AtomicInteger outOfOrder = new AtomicInteger();
+        for (int p = 0; p < PUBLISHERS; p++) {
+            int[] last = { -1 };
+            bus.subscribe("EVENT_" + p, data -> {
+                int sequence = (Integer) data;
+                if (sequence != last[0] + 1) {
+                    outOfOrder.incrementAndGet();
+                }
+                last[0] = sequence;
+                if (listenerWorkNanos > 0) {
+                    LockSupport.parkNanos(listenerWorkNanos);
+                }
+                delivered.countDown();
+            });
+        }
+
+        LatencyStats stats = new LatencyStats();
+        long startedAt;
+        ExecutorService pool = Executors.newFixedThreadPool(PUBLISHERS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < PUBLISHERS; p++) {
+                String eventType = "EVENT_" + p;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < EVENTS_PER_PUBLISHER; i++) {
+                        long begin = System.nanoTime();
+                        bus.publish(eventType, i);
+                        stats.record(System.nanoTime() - begin);
+                    }
+                    return null;
+                }));
+            }
+            stats.reset();
+            startedAt = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(120, TimeUnit.SECONDS);
+            }
+            stats.finish();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        boolean all = delivered.await(120, TimeUnit.SECONDS);
+        long deliveredMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        return new Run(stats, all, outOfOrder.get(), deliveredMs);
+    }
+
+    private static final class Run {
+
+        final LatencyStats stats;
+        final boolean delivered;
+        final int outOfOrder;
+        final long deliveredMs;
+
+        Run(LatencyStats stats, boolean delivered, int outOfOrder, long deliveredMs) {
+            this.stats = stats;
+            this.delivered = delivered;
+            this.outOfOrder = outOfOrder;
+            this.deliveredMs = deliveredMs;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.dainam.library.util;
+
+import com.dainam.library.model.Book;
+import com.dainam.library.server.ClientHandler;
+import com.dainam.library.support.LatencyStats;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * So sánh cách đọc request addBook cũ và hiện tại (cùng kết quả bind, thông lượng), không cần MongoDB:
+ * - cũ: mỗi kết nối một ObjectMapper mới, parse request thành Map rồi convertValue sang Book;
+ * - hiện tại: ObjectReader đã cache của JsonUtil, payload giữ dạng JsonNode và bind thẳng sang Book.
+ * Kết quả (ops/s, độ trễ mỗi request) được ghi vào báo cáo test qua TestReporter.
+ */
+class JsonUtilThroughputTest {
+
+    private static final int WARMUP = 5_000;
+    private static final int REQUESTS = 50_000;
+    // ClientHandler cũ tạo mapper một lần cho mỗi kết nối
+    private static final int REQUESTS_PER_CONNECTION = 20;
+
+    private static final String ADD_BOOK = "{\"action\":\"addBook\",\"sessionId\":\"s-1\",\"requestId\":\"7\","
+        + "\"data\":{\"book\":{\"bookId\":\"book_1\",\"title\":\"Lập trình Java\",\"author\":\"Nguyễn Văn A\","
+        + "\"isbn\":\"9786040000001\",\"publisher\":\"NXB Giáo dục\",\"publicationYear\":2021,"
+        + "\"category\":\"Công nghệ\",\"price\":120000,\"totalCopies\":3,\"availableCopies\":3}}}";
+
+    @Test
+    void cachedReaderBindsLikeLegacyMapper() throws Exception {
+        Book legacy = readLegacy(newLegacyMapper(), ADD_BOOK);
+        Book current = readCurrent(ADD_BOOK);
+        assertEquals(legacy.getTitle(), current.getTitle());
+        assertEquals(legacy.getIsbn(), current.getIsbn());
+        assertEquals(legacy.getPublicationYear(), current.getPublicationYear());
+        assertEquals(legacy.getPrice(), current.getPrice());
+        assertEquals(2021, current.getPublicationYear());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void cachedReaderVersusMapperPerConnection(TestReporter reporter) throws Exception {
+        LatencyStats legacyStats = new LatencyStats();
+        ObjectMapper mapper = null;
+        for (int i = 0; i < WARMUP + REQUESTS; i++) {
+            if (i == WARMUP) {
+                legacyStats.reset();
+            }
+            long begin = System.nanoTime();
+            if (i % REQUESTS_PER_CONNECTION == 0) {
+                mapper = newLegacyMapper();
+            }
+            readLegacy(mapper, ADD_BOOK);
+            legacyStats.record(System.nanoTime() - begin);
+        }
+        legacyStats.finish();
+
+        LatencyStats currentStats = new LatencyStats();
+        for (int i = 0; i < WARMUP + REQUESTS; i++) {
+            if (i == WARMUP) {
+                currentStats.reset();
+            }
+            long begin = System.nanoTime();
+            readCurrent(ADD_BOOK);
+            currentStats.record(System.nanoTime() - begin);
+        }
+        currentStats.finish();
+
+        reporter.publishEntry("legacy", legacyStats.summary("addBook, ObjectMapper/kết nối + Map + convertValue"));
+        reporter.publishEntry("current", currentStats.summary("addBook, JsonUtil reader + JsonNode"));
+    }
+
+    private static ObjectMapper newLegacyMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Book readLegacy(ObjectMapper mapper, String line) throws Exception {
+        Map<String, Object> request = mapper.readValue(line, Map.class);
+        Map<String, Object> data = (Map<String, Object>) request.get("data");
+        return mapper.convertValue(data.get("book"), Book.class);
+    }
+
+    private static Book readCurrent(String line) throws Exception {
+        ClientHandler.Request request = JsonUtil.readerFor(ClientHandler.Request.class).readValue(line);
+        ClientHandler.RequestData data = new ClientHandler.RequestData(request.getData(), request.getSessionId());
+        return data.getObject("book", Book.class);
+    }
+}
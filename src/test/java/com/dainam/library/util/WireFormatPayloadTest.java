@@ -0,0 +1,163 @@
+package com.dainam.library.util;
+
+import com.dainam.library.model.Book;
+import com.dainam.library.server.ClientHandler;
+import com.dainam.library.support.LatencyStats;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * So sánh response getAllBooks 1000 cuốn trên wire: dòng JSON, frame Smile và frame Smile
+ * nén deflate (ngưỡng server.compression.threshold.bytes mặc định). Đo số byte và chi phí
+ * encode/decode; kết quả đo được ghi vào báo cáo test qua TestReporter. Không cần MongoDB.
+ */
+class WireFormatPayloadTest {
+
+    private static final int BOOKS = 1_000;
+    private static final int COMPRESSION_THRESHOLD = 8192;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 300;
+
+    private static final ObjectWriter JSON_WRITER = JsonUtil.writerFor(ClientHandler.Response.class);
+    private static final ObjectReader JSON_READER = JsonUtil.readerFor(ClientHandler.Response.class);
+    private static final ObjectWriter SMILE_WRITER =
+        JsonUtil.writerFor(ClientHandler.Response.class, WireFormat.SMILE);
+    private static final ObjectReader SMILE_READER =
+        JsonUtil.readerFor(ClientHandler.Response.class, WireFormat.SMILE);
+
+    @Test
+    void smileFramesAreSmallerAndRoundTrip() throws Exception {
+        ClientHandler.Response response = getAllBooksResponse();
+
+        byte[] json = encodeJson(response);
+        byte[] smile = encodeSmile(response, FrameIO.NO_COMPRESSION);
+        byte[] deflated = encodeSmile(response, COMPRESSION_THRESHOLD);
+        assertTrue(smile.length < json.length, "Smile " + smile.length + " byte, JSON " + json.length + " byte");
+        assertTrue(deflated.length < smile.length, "Deflate " + deflated.length + " byte, Smile " + smile.length + " byte");
+        assertFalse(FrameIO.isCompressed(FrameIO.readHeader(smile, 0)));
+        assertTrue(FrameIO.isCompressed(FrameIO.readHeader(deflated, 0)));
+
+        assertArrayEquals(decodeFrame(smile), decodeFrame(deflated));
+        assertBooks(decodeJson(json));
+        assertBooks(SMILE_READER.readValue(decodeFrame(smile)));
+        assertBooks(SMILE_READER.readValue(decodeFrame(deflated)));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void encodeDecodeCost(TestReporter reporter) throws Exception {
+        ClientHandler.Response response = getAllBooksResponse();
+
+        LatencyStats encode = new LatencyStats();
+        LatencyStats decode = new LatencyStats();
+        byte[] json = null;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            if (i == WARMUP) {
+                encode.reset();
+                decode.reset();
+            }
+            long begin = System.nanoTime();
+            json = encodeJson(response);
+            long encoded = System.nanoTime();
+            decodeJson(json);
+            decode.record(System.nanoTime() - encoded);
+            encode.record(encoded - begin);
+        }
+        reporter.publishEntry("json", json.length + " byte; " + encode.summary("encode") + "; "
+            + decode.summary("decode"));
+
+        publishSmile(reporter, "smile", response, FrameIO.NO_COMPRESSION);
+        publishSmile(reporter, "smile+deflate", response, COMPRESSION_THRESHOLD);
+    }
+
+    private static void publishSmile(TestReporter reporter, String label, ClientHandler.Response response,
+                                     int compressionThreshold) throws Exception {
+        LatencyStats encode = new LatencyStats();
+        LatencyStats decode = new LatencyStats();
+        byte[] frame = null;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            if (i == WARMUP) {
+                encode.reset();
+                decode.reset();
+            }
+            long begin = System.nanoTime();
+            frame = encodeSmile(response, compressionThreshold);
+            long encoded = System.nanoTime();
+            SMILE_READER.readValue(decodeFrame(frame));
+            decode.record(System.nanoTime() - encoded);
+            encode.record(encoded - begin);
+        }
+        reporter.publishEntry(label, frame.length + " byte; " + encode.summary("encode") + "; "
+            + decode.summary("decode"));
+    }
+
+    /**
+     * Dòng JSON như ClientHandler gửi cho client chưa negotiate
+     */
+    private static byte[] encodeJson(ClientHandler.Response response) throws Exception {
+        return (JSON_WRITER.writeValueAsString(response) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ClientHandler.Response decodeJson(byte[] line) throws Exception {
+        return JSON_READER.readValue(new String(line, 0, line.length - 1, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Frame Smile như ClientConnection.sendFrame ghi ra (kể cả header độ dài)
+     */
+    private static byte[] encodeSmile(ClientHandler.Response response, int compressionThreshold) throws Exception {
+        return FrameIO.toFrame(SMILE_WRITER.writeValueAsBytes(response), compressionThreshold);
+    }
+
+    private static byte[] decodeFrame(byte[] frame) throws Exception {
+        return FrameIO.decodePayload(FrameIO.readHeader(frame, 0), frame, FrameIO.HEADER_BYTES, MAX_FRAME_BYTES);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertBooks(ClientHandler.Response decoded) {
+        assertTrue(decoded.isSuccess());
+        List<Map<String, Object>> books = (List<Map<String, Object>>) decoded.getData();
+        assertEquals(BOOKS, books.size());
+        assertEquals("book_0", books.get(0).get("bookId"));
+        assertEquals("Sách số 999", books.get(BOOKS - 1).get("title"));
+    }
+
+    /**
+     * Response giống handleGetAllBooks với 1000 cuốn có dữ liệu gần thực tế
+     */
+    private static ClientHandler.Response getAllBooksResponse() {
+        List<Book> books = new ArrayList<>(BOOKS);
+        for (int i = 0; i < BOOKS; i++) {
+            Book book = new Book("book_" + i, "Sách số " + i, "Tác giả " + (i % 50),
+                "978" + String.format("%010d", 604_000_000L + i));
+            book.setPublisher("NXB " + (i % 10 == 0 ? "Giáo dục" : "Trẻ"));
+            book.setPublicationYear(1990 + i % 35);
+            book.setCategory(i % 3 == 0 ? "Công nghệ" : i % 3 == 1 ? "Văn học" : "Kinh tế");
+            book.setDescription("Mô tả ngắn cho cuốn sách số " + i + " trong thư viện Đại Nam.");
+            book.setLanguage("Tiếng Việt");
+            book.setPageCount(120 + i % 400);
+            book.setPrice(50_000 + (i % 20) * 10_000);
+            book.setTotalCopies(1 + i % 5);
+            book.setAvailableCopies(i % 5);
+            book.setCreatedAt(LocalDate.of(2024, 1, 1).plusDays(i % 365));
+            book.setUpdatedAt(LocalDate.of(2025, 1, 1).plusDays(i % 365));
+            books.add(book);
+        }
+        return new ClientHandler.Response(true, "Lấy danh sách sách thành công", books);
+    }
+}